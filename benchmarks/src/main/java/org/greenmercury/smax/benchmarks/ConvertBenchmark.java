@@ -0,0 +1,116 @@
+package org.greenmercury.smax.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.greenmercury.smax.CompactMarkup;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.StringBufferCharStore;
+import org.greenmercury.smax.convert.Binary;
+import org.greenmercury.smax.convert.Dom;
+import org.greenmercury.smax.convert.SAX;
+import org.greenmercury.smax.convert.XmlString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Benchmarks for the conversions between SMAX and DOM, SAX and XML strings.
+ *<p>
+ * @author Rakensi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConvertBenchmark {
+
+  @Param({"flat", "balanced", "deep"})
+  public String shape;
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  private String xml;
+  private Element domElement;
+  private SmaxDocument document;
+  private byte[] binary;
+
+  @Setup(Level.Trial)
+  public void generate() throws Exception {
+    xml = SyntheticDocuments.xml(shape, size);
+    domElement = XmlString.toDomElement(xml);
+    document = XmlString.toSmax(xml);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Binary.fromSmax(document, bytes);
+    binary = bytes.toByteArray();
+  }
+
+  @Benchmark
+  public SmaxDocument domToSmax() throws Exception {
+    return Dom.toSmax(domElement);
+  }
+
+  @Benchmark
+  public Element domFromSmax() throws Exception {
+    return Dom.fromSmax(document);
+  }
+
+  @Benchmark
+  public SmaxDocument xmlStringToSmax() throws Exception {
+    return XmlString.toSmax(xml);
+  }
+
+  @Benchmark
+  public String xmlStringFromSmax() throws Exception {
+    return XmlString.fromSmax(document);
+  }
+
+  @Benchmark
+  public SmaxDocument binaryToSmax() throws Exception {
+    return Binary.toSmax(new ByteArrayInputStream(binary));
+  }
+
+  @Benchmark
+  public CompactMarkup binaryToCompactMarkup() throws Exception {
+    return Binary.toCompactMarkup(new ByteArrayInputStream(binary), new StringBufferCharStore());
+  }
+
+  @Benchmark
+  public byte[] binaryFromSmax() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(binary.length);
+    Binary.fromSmax(document, bytes);
+    return bytes.toByteArray();
+  }
+
+  @Benchmark
+  public void saxFromSmax(Blackhole blackhole) throws Exception {
+    SAX.fromSMAX(document, new DefaultHandler() {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        blackhole.consume(attributes);
+      }
+      @Override
+      public void characters(char[] ch, int start, int length) {
+        blackhole.consume(ch[start]);
+      }
+    });
+  }
+
+}
@@ -0,0 +1,86 @@
+package org.greenmercury.smax.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.greenmercury.smax.Balancing;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.convert.XmlString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@code SmaxDocument.insertMarkup} and {@code SmaxDocument.insertMarkupAll}, for every {@code Balancing}.
+ * Every invocation inserts {@value #NR_INSERTIONS} elements into a freshly parsed document.
+ * The score is the time per inserted element.
+ *<p>
+ * @author Rakensi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class InsertMarkupBenchmark {
+
+  public static final int NR_INSERTIONS = 1000;
+
+  @Param({"flat", "balanced", "deep"})
+  public String shape;
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  @Param({"OUTER", "INNER", "START", "END", "BALANCE_TO_START", "BALANCE_TO_END"})
+  public Balancing balancing;
+
+  private String xml;
+  private int[] ranges;
+  private SmaxDocument document;
+  private List<SmaxElement> newNodes;
+
+  @Setup(Level.Trial)
+  public void generate() throws Exception {
+    xml = SyntheticDocuments.xml(shape, size);
+    ranges = SyntheticDocuments.ranges(XmlString.toSmax(xml).getContent().length(), NR_INSERTIONS, 40);
+  }
+
+  @Setup(Level.Invocation)
+  public void parse() throws Exception {
+    document = XmlString.toSmax(xml);
+    newNodes = new ArrayList<>(NR_INSERTIONS);
+    for (int i = 0; i < NR_INSERTIONS; ++i) {
+      newNodes.add(new SmaxElement("m").setStartPos(ranges[2 * i]).setEndPos(ranges[2 * i + 1]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NR_INSERTIONS)
+  public SmaxDocument insertMarkup() {
+    for (int i = 0; i < NR_INSERTIONS; ++i) {
+      document.insertMarkup(new SmaxElement("m"), balancing, ranges[2 * i], ranges[2 * i + 1]);
+    }
+    return document;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NR_INSERTIONS)
+  public List<SmaxElement> insertMarkupAll() {
+    return document.insertMarkupAll(newNodes, balancing);
+  }
+
+}
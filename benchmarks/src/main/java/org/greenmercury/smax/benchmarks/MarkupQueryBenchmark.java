@@ -0,0 +1,113 @@
+package org.greenmercury.smax.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.greenmercury.smax.AncestorList;
+import org.greenmercury.smax.MarkupIndex;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.convert.XmlString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for finding the elements that contain a character position.
+ * This compares the former stream-based implementation of {@code SmaxDocument.ancestorNodes(int)},
+ * the current {@code ancestorNodes}, and {@code MarkupIndex.covering}.
+ * The score is the time per position.
+ *<p>
+ * @author Rakensi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MarkupQueryBenchmark {
+
+  public static final int NR_POSITIONS = 1000;
+
+  @Param({"flat", "balanced", "deep"})
+  public String shape;
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  private SmaxDocument document;
+  private int[] positions;
+  private AncestorList ancestors;
+
+  @Setup(Level.Trial)
+  public void generate() throws Exception {
+    document = XmlString.toSmax(SyntheticDocuments.xml(shape, size));
+    int length = document.getContent().length();
+    int[] ranges = SyntheticDocuments.ranges(length - 1, NR_POSITIONS, 0);
+    positions = new int[NR_POSITIONS];
+    for (int i = 0; i < NR_POSITIONS; ++i) {
+      positions[i] = ranges[2 * i];
+    }
+    ancestors = new AncestorList();
+    document.getMarkupIndex();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NR_POSITIONS)
+  public void streamAncestorNodes(Blackhole blackhole) {
+    for (int pos : positions) {
+      blackhole.consume(streamAncestorNodes(pos + document.getMarkup().getStartPos(), document.getMarkup()).collect(Collectors.toList()));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NR_POSITIONS)
+  public void ancestorNodes(Blackhole blackhole) {
+    for (int pos : positions) {
+      blackhole.consume(document.ancestorNodes(pos, ancestors).size());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NR_POSITIONS)
+  public void markupIndexCovering(Blackhole blackhole) {
+    MarkupIndex index = document.getMarkupIndex();
+    for (int pos : positions) {
+      blackhole.consume(index.covering(pos));
+    }
+  }
+
+  @Benchmark
+  public MarkupIndex markupIndexBuild() {
+    // Inserting and removing an element changes the markup, so the index is rebuilt.
+    List<SmaxElement> children = document.getMarkup().getChildren();
+    document.getMarkup().appendChild(new SmaxElement("x"));
+    document.getMarkup().removeChildren(children.size() - 1, children.size());
+    return document.getMarkupIndex();
+  }
+
+  /**
+   * The former stream-based implementation of {@code SmaxDocument.ancestorNodes(int)}, which recursed with {@code Stream.concat}.
+   */
+  private static Stream<SmaxElement> streamAncestorNodes(int charPos, SmaxElement within) {
+    return Stream.concat(Stream.of(within),
+      within.getChildren().stream()
+        .filter(child -> charPos >= child.getStartPos() && charPos < child.getEndPos())
+        .flatMap(child -> streamAncestorNodes(charPos, child)));
+  }
+
+}
@@ -0,0 +1,77 @@
+package org.greenmercury.smax.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.greenmercury.smax.Balancing;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.convert.XmlString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for {@code SmaxDocument.mergeMarkup}.
+ * Every invocation merges markup with {@value #NR_MERGED} non-overlapping elements, each with a nested element,
+ * into a freshly parsed document.
+ *<p>
+ * @author Rakensi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MergeMarkupBenchmark {
+
+  public static final int NR_MERGED = 1000;
+
+  @Param({"flat", "balanced", "deep"})
+  public String shape;
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  @Param({"OUTER", "INNER"})
+  public Balancing balancing;
+
+  private String xml;
+  private int contentLength;
+  private SmaxDocument document;
+  private SmaxElement newMarkup;
+
+  @Setup(Level.Trial)
+  public void generate() throws Exception {
+    xml = SyntheticDocuments.xml(shape, size);
+    contentLength = XmlString.toSmax(xml).getContent().length();
+  }
+
+  @Setup(Level.Invocation)
+  public void parse() throws Exception {
+    document = XmlString.toSmax(xml);
+    newMarkup = new SmaxElement("merged").setStartPos(0).setEndPos(contentLength);
+    int step = Math.max(2, contentLength / NR_MERGED);
+    for (int start = 0; start + step <= contentLength; start += step) {
+      SmaxElement outer = new SmaxElement("m").setStartPos(start).setEndPos(start + step - 1);
+      outer.appendChild(new SmaxElement("n").setStartPos(start + step / 2).setEndPos(start + step - 1));
+      newMarkup.appendChild(outer);
+    }
+  }
+
+  @Benchmark
+  public SmaxDocument mergeMarkup() {
+    document.mergeMarkup(newMarkup, balancing);
+    return document;
+  }
+
+}
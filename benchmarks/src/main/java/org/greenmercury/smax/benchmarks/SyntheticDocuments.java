@@ -0,0 +1,107 @@
+package org.greenmercury.smax.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Synthetic XML documents for the benchmarks, with a given number of elements and shape.
+ * The documents are generated from a fixed seed, so every run uses the same documents.
+ *<p>
+ * The following shapes are available.
+ * <dl>
+ *  <dt>flat</dt><dd>all elements are children of the root element</dd>
+ *  <dt>balanced</dt><dd>every element has up to 8 children</dd>
+ *  <dt>deep</dt><dd>every element has up to 2 children, and the markup is nested up to 200 levels deep</dd>
+ * </dl>
+ *<p>
+ * @author Rakensi
+ */
+public class SyntheticDocuments {
+
+  private final Random random;
+  private final int fanOut;
+  private final int maxDepth;
+  private int remainingElements;
+  private final StringBuilder xml = new StringBuilder();
+
+  private SyntheticDocuments(String shape, int nrElements, long seed) {
+    this.random = new Random(seed);
+    this.remainingElements = nrElements - 1;
+    switch (shape) {
+    case "flat":
+      this.fanOut = nrElements;
+      this.maxDepth = 1;
+      break;
+    case "balanced":
+      this.fanOut = 8;
+      this.maxDepth = (int) Math.ceil(Math.log(nrElements) / Math.log(8)) + 1;
+      break;
+    case "deep":
+      this.fanOut = 2;
+      this.maxDepth = 200;
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown document shape "+shape);
+    }
+  }
+
+  /**
+   * Generate an XML document.
+   * @param shape one of "flat", "balanced" or "deep"
+   * @param nrElements the number of elements, including the root element
+   * @return the serialized XML document
+   */
+  public static String xml(String shape, int nrElements) {
+    SyntheticDocuments generator = new SyntheticDocuments(shape, nrElements, 20240701L);
+    generator.xml.append("<doc>");
+    generator.content(1);
+    // Add the elements that did not fit in the tree below the root element.
+    while (generator.remainingElements > 0) {
+      generator.content(1);
+    }
+    return generator.xml.append("</doc>").toString();
+  }
+
+  /**
+   * Generate random character ranges, to be used for inserting markup.
+   * @param contentLength the length of the text content
+   * @param nrRanges the number of ranges
+   * @param maxLength the maximum length of a range
+   * @return an array with the start position of range {@code i} at {@code 2*i} and its end position at {@code 2*i+1}
+   */
+  public static int[] ranges(int contentLength, int nrRanges, int maxLength) {
+    Random random = new Random(20240702L);
+    int[] ranges = new int[2 * nrRanges];
+    for (int i = 0; i < nrRanges; ++i) {
+      int start = random.nextInt(contentLength + 1);
+      ranges[2 * i] = start;
+      ranges[2 * i + 1] = Math.min(contentLength, start + random.nextInt(maxLength + 1));
+    }
+    return ranges;
+  }
+
+  private void content(int depth) {
+    text();
+    for (int i = 0; i < fanOut && remainingElements > 0; ++i) {
+      --remainingElements;
+      String name = "e" + (depth % 5);
+      xml.append('<').append(name).append(" n=\"").append(remainingElements).append("\">");
+      if (depth < maxDepth) {
+        content(depth + 1);
+      } else {
+        text();
+      }
+      xml.append("</").append(name).append('>');
+      text();
+    }
+  }
+
+  private void text() {
+    for (int words = 1 + random.nextInt(3); words > 0; --words) {
+      for (int length = 1 + random.nextInt(8); length > 0; --length) {
+        xml.append((char)('a' + random.nextInt(26)));
+      }
+      xml.append(' ');
+    }
+  }
+
+}
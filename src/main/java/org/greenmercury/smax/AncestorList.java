@@ -0,0 +1,71 @@
+package org.greenmercury.smax;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list of ancestor elements in top-down order, as filled by {@code SmaxDocument.ancestorNodes}.
+ *<p>
+ * An {@code AncestorList} can be re-used for many calls, so that finding ancestors does not allocate memory
+ * once the list is large enough for the deepest element.
+ * Each call replaces the contents of the list.
+ *<p>
+ * @author Rakensi
+ */
+public class AncestorList extends AbstractList<SmaxElement> implements RandomAccess {
+
+  private SmaxElement[] elements;
+  private int size;
+
+  public AncestorList() {
+    this(16);
+  }
+
+  public AncestorList(int capacity) {
+    this.elements = new SmaxElement[Math.max(1, capacity)];
+    this.size = 0;
+  }
+
+  @Override
+  public SmaxElement get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+    }
+    return elements[index];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(elements, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * Add an element at the end.
+   * @param element
+   */
+  void push(SmaxElement element) {
+    if (size == elements.length) {
+      elements = Arrays.copyOf(elements, 2 * size);
+    }
+    elements[size++] = element;
+  }
+
+  /**
+   * Reverse the order of the elements, for lists that were filled bottom-up.
+   */
+  void reverse() {
+    for (int i = 0, j = size - 1; i < j; ++i, --j) {
+      SmaxElement element = elements[i];
+      elements[i] = elements[j];
+      elements[j] = element;
+    }
+  }
+
+}
@@ -0,0 +1,170 @@
+package org.greenmercury.smax;
+
+/**
+ * A {@code CharStore} that wraps an existing {@code CharSequence}, such as a {@code String} from a host application, without copying it.
+ * The wrapped sequence must not change while it is used by the store.
+ *<p>
+ * The characters are copied into a {@code StringBuilder} when the store is changed for the first time,
+ * so the wrapped sequence itself is never changed.
+ * Reading is thread-safe if reading the wrapped sequence is, but changing the store is not thread-safe.
+ *<p>
+ * @author Rakensi
+ */
+public class CharSequenceCharStore implements CharStore {
+
+  /**
+   * The characters of the store, which are the wrapped sequence until the first change, and {@code copy} after that.
+   */
+  private CharSequence chars;
+  private StringBuilder copy;
+
+  public CharSequenceCharStore(CharSequence chars) {
+    this.chars = chars;
+  }
+
+  /**
+   * @return whether the store still uses the wrapped sequence, i.e., it has not been changed
+   */
+  public boolean isWrapped() {
+    return copy == null;
+  }
+
+  /**
+   * @return the characters, in a {@code StringBuilder} that can be changed
+   */
+  private StringBuilder writable() {
+    if (copy == null) {
+      copy = new StringBuilder(chars.length() + 16).append(chars);
+      chars = copy;
+    }
+    return copy;
+  }
+
+  @Override
+  public int length() {
+    return chars.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    return chars.charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return chars.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return chars.toString();
+  }
+
+  @Override
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    if (chars instanceof String) {
+      ((String)chars).getChars(srcBegin, srcEnd, dst, dstBegin);
+    } else if (chars instanceof StringBuilder) {
+      ((StringBuilder)chars).getChars(srcBegin, srcEnd, dst, dstBegin);
+    } else if (chars instanceof StringBuffer) {
+      ((StringBuffer)chars).getChars(srcBegin, srcEnd, dst, dstBegin);
+    } else if (chars instanceof CharStore) {
+      ((CharStore)chars).getChars(srcBegin, srcEnd, dst, dstBegin);
+    } else {
+      if (srcBegin < 0 || srcBegin > srcEnd || srcEnd > chars.length()) {
+        throw new IndexOutOfBoundsException("srcBegin "+srcBegin+", srcEnd "+srcEnd+", length "+chars.length());
+      }
+      for (int i = srcBegin; i < srcEnd; ++i) {
+        dst[dstBegin++] = chars.charAt(i);
+      }
+    }
+  }
+
+  @Override
+  public void setCharAt(int index, char ch) {
+    writable().setCharAt(index, ch);
+  }
+
+  @Override
+  public CharStore append(CharSequence csq) {
+    writable().append(csq);
+    return this;
+  }
+
+  @Override
+  public CharStore append(char[] str, int offset, int len) {
+    writable().append(str, offset, len);
+    return this;
+  }
+
+  @Override
+  public CharStore append(char c) {
+    writable().append(c);
+    return this;
+  }
+
+  @Override
+  public CharStore insert(int offset, CharSequence csq) {
+    writable().insert(offset, csq);
+    return this;
+  }
+
+  @Override
+  public CharStore insert(int offset, CharSequence csq, int start, int end) {
+    writable().insert(offset, csq, start, end);
+    return this;
+  }
+
+  @Override
+  public CharStore insert(int offset, char c) {
+    writable().insert(offset, c);
+    return this;
+  }
+
+  @Override
+  public CharStore delete(int start, int end) {
+    writable().delete(start, end);
+    return this;
+  }
+
+  @Override
+  public CharStore replace(int start, int end, String str) {
+    writable().replace(start, end, str);
+    return this;
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    if (chars instanceof String) {
+      return ((String)chars).substring(start, end);
+    }
+    return chars.subSequence(start, end).toString();
+  }
+
+  /**
+   * A wrapped {@code String} is searched in place by {@code String.indexOf}, which does not stop at {@code endIndex}.
+   * It is used when the part of the string after the range is not longer than the range itself.
+   */
+  @Override
+  public int indexOf(String str, int fromIndex, int endIndex) {
+    if (!(chars instanceof String) || chars.length() - endIndex > endIndex - fromIndex) {
+      return CharStore.super.indexOf(str, fromIndex, endIndex);
+    }
+    int found = ((String)chars).indexOf(str, fromIndex);
+    return (found >= 0 && found + str.length() <= endIndex) ? found : -1;
+  }
+
+  /**
+   * A wrapped {@code String} is searched in place by {@code String.lastIndexOf}, which does not stop at {@code startIndex}.
+   * It is used when the part of the string before the range is not longer than the range itself.
+   */
+  @Override
+  public int lastIndexOf(String str, int fromIndex, int startIndex) {
+    if (!(chars instanceof String) || startIndex > fromIndex - startIndex) {
+      return CharStore.super.lastIndexOf(str, fromIndex, startIndex);
+    }
+    int found = ((String)chars).lastIndexOf(str, fromIndex);
+    return (found >= startIndex) ? found : -1;
+  }
+
+}
@@ -0,0 +1,98 @@
+package org.greenmercury.smax;
+
+/**
+ * Storage for the text content of a SMAX document.
+ *<p>
+ * A {@code CharStore} is a mutable character sequence with the methods of {@code StringBuffer} that SMAX needs.
+ * The {@code startPos} and {@code endPos} of {@code SmaxElement}s are indexes into a {@code CharStore}.
+ * The following implementations are available.
+ * <dl>
+ *  <dt>{@code StringBufferCharStore}</dt><dd>wraps a {@code StringBuffer}, which is thread-safe, but every access takes a lock</dd>
+ *  <dt>{@code StringBuilderCharStore}</dt><dd>wraps a {@code StringBuilder}, for content that is used by one thread at a time</dd>
+ *  <dt>{@code CompactCharStore}</dt><dd>uses one byte per character as long as all characters are in Latin-1, like {@code String}</dd>
+ *  <dt>{@code CharSequenceCharStore}</dt><dd>wraps an existing {@code CharSequence} without copying it, until the content is changed</dd>
+ * </dl>
+ *<p>
+ * @author Rakensi
+ */
+public interface CharStore extends CharSequence {
+
+  /**
+   * Copy characters into a destination array.
+   * @see java.lang.StringBuffer#getChars(int, int, char[], int)
+   */
+  void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin);
+
+  /**
+   * @see java.lang.StringBuffer#setCharAt(int, char)
+   */
+  void setCharAt(int index, char ch);
+
+  /**
+   * @see java.lang.StringBuffer#append(CharSequence)
+   */
+  CharStore append(CharSequence csq);
+
+  /**
+   * @see java.lang.StringBuffer#append(char[], int, int)
+   */
+  CharStore append(char[] str, int offset, int len);
+
+  /**
+   * @see java.lang.StringBuffer#append(char)
+   */
+  CharStore append(char c);
+
+  /**
+   * @see java.lang.StringBuffer#insert(int, CharSequence)
+   */
+  CharStore insert(int offset, CharSequence csq);
+
+  /**
+   * @see java.lang.StringBuffer#insert(int, CharSequence, int, int)
+   */
+  CharStore insert(int offset, CharSequence csq, int start, int end);
+
+  /**
+   * @see java.lang.StringBuffer#insert(int, char)
+   */
+  CharStore insert(int offset, char c);
+
+  /**
+   * @see java.lang.StringBuffer#delete(int, int)
+   */
+  CharStore delete(int start, int end);
+
+  /**
+   * @see java.lang.StringBuffer#replace(int, int, String)
+   */
+  CharStore replace(int start, int end, String str);
+
+  /**
+   * @see java.lang.StringBuffer#substring(int, int)
+   */
+  String substring(int start, int end);
+
+  /**
+   * Find the first occurrence of a non-empty string in a range of the store, without copying the range into a {@code String}.
+   * @param str the non-empty string to find
+   * @param fromIndex the first index where an occurrence may start
+   * @param endIndex the index where an occurrence must end, at the latest
+   * @return the index of the first occurrence, or -1 if there is none
+   */
+  default int indexOf(String str, int fromIndex, int endIndex) {
+    return TextSearch.indexOf(this, str, fromIndex, endIndex);
+  }
+
+  /**
+   * Find the last occurrence of a non-empty string in a range of the store, without copying the range into a {@code String}.
+   * @param str the non-empty string to find
+   * @param fromIndex the last index where an occurrence may start
+   * @param startIndex the first index where an occurrence may start
+   * @return the index of the last occurrence, or -1 if there is none
+   */
+  default int lastIndexOf(String str, int fromIndex, int startIndex) {
+    return TextSearch.lastIndexOf(this, str, fromIndex, startIndex);
+  }
+
+}
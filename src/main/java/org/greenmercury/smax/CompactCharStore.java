@@ -0,0 +1,273 @@
+package org.greenmercury.smax;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A compact {@code CharStore}, which uses one byte per character as long as all characters are in Latin-1,
+ * and two bytes per character after the first character that is not in Latin-1 has been stored.
+ * This is similar to the compact strings of {@code java.lang.String}.
+ *<p>
+ * Like {@code StringBuilder}, this class is not thread-safe.
+ *<p>
+ * @author Rakensi
+ */
+public class CompactCharStore implements CharStore {
+
+  /**
+   * The characters, as long as they are all in Latin-1. This is null after inflation to UTF-16.
+   */
+  private byte[] latin1;
+
+  /**
+   * The characters, after a character that is not in Latin-1 has been stored. This is null before that.
+   */
+  private char[] utf16;
+
+  /**
+   * The number of characters.
+   */
+  private int count;
+
+  public CompactCharStore() {
+    this(16);
+  }
+
+  public CompactCharStore(int capacity) {
+    this.latin1 = new byte[capacity];
+    this.count = 0;
+  }
+
+  public CompactCharStore(CharSequence seq) {
+    this(seq.length() + 16);
+    append(seq);
+  }
+
+  /**
+   * @return whether all characters are stored in one byte
+   */
+  public boolean isLatin1() {
+    return latin1 != null;
+  }
+
+  @Override
+  public int length() {
+    return count;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= count) {
+      throw new StringIndexOutOfBoundsException("index " + index + ", length " + count);
+    }
+    return latin1 != null ? (char)(latin1[index] & 0xff) : utf16[index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return substring(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return substring(0, count);
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    checkRange(start, end, count);
+    if (latin1 != null) {
+      return new String(latin1, start, end - start, StandardCharsets.ISO_8859_1);
+    } else {
+      return new String(utf16, start, end - start);
+    }
+  }
+
+  @Override
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    checkRange(srcBegin, srcEnd, count);
+    if (latin1 != null) {
+      for (int i = srcBegin; i < srcEnd; ++i) {
+        dst[dstBegin++] = (char)(latin1[i] & 0xff);
+      }
+    } else {
+      System.arraycopy(utf16, srcBegin, dst, dstBegin, srcEnd - srcBegin);
+    }
+  }
+
+  @Override
+  public void setCharAt(int index, char ch) {
+    if (index < 0 || index >= count) {
+      throw new StringIndexOutOfBoundsException("index " + index + ", length " + count);
+    }
+    if (latin1 != null && ch > 0xff) {
+      inflate(latin1.length);
+    }
+    if (latin1 != null) {
+      latin1[index] = (byte) ch;
+    } else {
+      utf16[index] = ch;
+    }
+  }
+
+  @Override
+  public CharStore append(CharSequence csq) {
+    if (csq == null) csq = "null";
+    return insert(count, csq, 0, csq.length());
+  }
+
+  @Override
+  public CharStore append(char[] str, int offset, int len) {
+    checkRange(offset, offset + len, str.length);
+    makeRoom(count, len, isLatin1(str, offset, offset + len));
+    if (latin1 != null) {
+      for (int i = 0; i < len; ++i) {
+        latin1[count + i] = (byte) str[offset + i];
+      }
+    } else {
+      System.arraycopy(str, offset, utf16, count, len);
+    }
+    count += len;
+    return this;
+  }
+
+  @Override
+  public CharStore append(char c) {
+    return insert(count, c);
+  }
+
+  @Override
+  public CharStore insert(int offset, CharSequence csq) {
+    if (csq == null) csq = "null";
+    return insert(offset, csq, 0, csq.length());
+  }
+
+  @Override
+  public CharStore insert(int offset, CharSequence csq, int start, int end) {
+    if (csq == null) csq = "null";
+    if (offset < 0 || offset > count) {
+      throw new StringIndexOutOfBoundsException("offset " + offset + ", length " + count);
+    }
+    checkRange(start, end, csq.length());
+    int len = end - start;
+    makeRoom(offset, len, isLatin1(csq, start, end));
+    if (latin1 != null) {
+      for (int i = 0; i < len; ++i) {
+        latin1[offset + i] = (byte) csq.charAt(start + i);
+      }
+    } else if (csq instanceof String) {
+      ((String)csq).getChars(start, end, utf16, offset);
+    } else {
+      for (int i = 0; i < len; ++i) {
+        utf16[offset + i] = csq.charAt(start + i);
+      }
+    }
+    count += len;
+    return this;
+  }
+
+  @Override
+  public CharStore insert(int offset, char c) {
+    if (offset < 0 || offset > count) {
+      throw new StringIndexOutOfBoundsException("offset " + offset + ", length " + count);
+    }
+    makeRoom(offset, 1, c <= 0xff);
+    if (latin1 != null) {
+      latin1[offset] = (byte) c;
+    } else {
+      utf16[offset] = c;
+    }
+    count += 1;
+    return this;
+  }
+
+  @Override
+  public CharStore delete(int start, int end) {
+    if (end > count) end = count;
+    checkRange(start, end, count);
+    int len = end - start;
+    if (len > 0) {
+      if (latin1 != null) {
+        System.arraycopy(latin1, end, latin1, start, count - end);
+      } else {
+        System.arraycopy(utf16, end, utf16, start, count - end);
+      }
+      count -= len;
+    }
+    return this;
+  }
+
+  @Override
+  public CharStore replace(int start, int end, String str) {
+    if (end > count) end = count;
+    checkRange(start, end, count);
+    delete(start, end);
+    return insert(start, str, 0, str.length());
+  }
+
+  /**
+   * Make room for {@code len} characters at {@code offset}, by moving the following characters.
+   * @param offset the position of the new characters.
+   * @param len the number of new characters.
+   * @param newCharsAreLatin1 whether all new characters are in Latin-1.
+   */
+  private void makeRoom(int offset, int len, boolean newCharsAreLatin1) {
+    int newCount = count + len;
+    if (newCount < 0) {
+      throw new OutOfMemoryError("The content is too large.");
+    }
+    int capacity = latin1 != null ? latin1.length : utf16.length;
+    if (newCount > capacity) {
+      capacity = Math.max(newCount, capacity * 2 + 2);
+      if (capacity < 0) capacity = Integer.MAX_VALUE - 8;
+    }
+    if (latin1 != null && !newCharsAreLatin1) {
+      inflate(capacity);
+    } else if (latin1 != null && capacity > latin1.length) {
+      latin1 = Arrays.copyOf(latin1, capacity);
+    } else if (utf16 != null && capacity > utf16.length) {
+      utf16 = Arrays.copyOf(utf16, capacity);
+    }
+    if (offset < count) {
+      if (latin1 != null) {
+        System.arraycopy(latin1, offset, latin1, offset + len, count - offset);
+      } else {
+        System.arraycopy(utf16, offset, utf16, offset + len, count - offset);
+      }
+    }
+  }
+
+  /**
+   * Change from one byte to two bytes per character.
+   * @param capacity the new capacity.
+   */
+  private void inflate(int capacity) {
+    char[] chars = new char[capacity];
+    for (int i = 0; i < count; ++i) {
+      chars[i] = (char)(latin1[i] & 0xff);
+    }
+    utf16 = chars;
+    latin1 = null;
+  }
+
+  private static boolean isLatin1(CharSequence csq, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (csq.charAt(i) > 0xff) return false;
+    }
+    return true;
+  }
+
+  private static boolean isLatin1(char[] str, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (str[i] > 0xff) return false;
+    }
+    return true;
+  }
+
+  private static void checkRange(int start, int end, int length) {
+    if (start < 0 || start > end || end > length) {
+      throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+    }
+  }
+
+}
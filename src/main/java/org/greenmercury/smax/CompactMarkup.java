@@ -0,0 +1,497 @@
+package org.greenmercury.smax;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A read-optimized representation of SMAX markup, which keeps the data of the elements in parallel arrays of {@code int}.
+ *<p>
+ * A {@code SmaxElement} takes hundreds of bytes, with its list of children, its attributes and its name strings.
+ * In a {@code CompactMarkup}, an element is an index into seven {@code int} arrays (28 bytes),
+ * for its start and end position, its parent, the end of its sub-tree, its name, its attributes and its namespace prefix mappings.
+ * Names are stored once for every distinct combination of namespace URI, local name and qualified name,
+ * and the attributes and namespace prefix mappings are stored in shared tables.
+ *<p>
+ * The elements are numbered in pre-order (document order), starting with the root element at index 0.
+ * The children of an element are found through {@code getFirstChild} and {@code getNextSibling}.
+ * When a {@code SmaxElement} is needed, it is made on demand by {@code element} or {@code toSmaxElement}.
+ * A {@code CompactMarkup} cannot be changed after it has been built.
+ *<p>
+ * @author Rakensi
+ */
+public final class CompactMarkup {
+
+  private final int size;
+  private final int[] starts;
+  private final int[] ends;
+  private final int[] parents; // The index of the parent of each element, -1 for the root.
+  private final int[] subtreeEnds; // The index after the last descendant of each element.
+  private final int[] nameIds;
+  private final int[] attributeListIds; // -1 if the element has no attributes.
+  private final int[] mappingListIds; // -1 if the element has no namespace prefix mappings.
+
+  // The distinct names, by name id.
+  private final SmaxName[] names;
+
+  // Attribute list k has the attributes from attributeListStarts[k] to attributeListStarts[k+1], with 5 strings per attribute.
+  private final int[] attributeListStarts;
+  private final String[] attributeFields;
+
+  // Mapping list k has the mappings from mappingListStarts[k] to mappingListStarts[k+1].
+  private final int[] mappingListStarts;
+  private final NamespacePrefixMapping[] mappings;
+
+  private CompactMarkup(Builder builder) {
+    size = builder.size;
+    starts = Arrays.copyOf(builder.starts, size);
+    ends = Arrays.copyOf(builder.ends, size);
+    parents = Arrays.copyOf(builder.parents, size);
+    nameIds = Arrays.copyOf(builder.nameIds, size);
+    attributeListIds = Arrays.copyOf(builder.attributeListIds, size);
+    mappingListIds = Arrays.copyOf(builder.mappingListIds, size);
+    subtreeEnds = new int[size];
+    for (int i = 0; i < size; ++i) {
+      subtreeEnds[i] = i + 1;
+    }
+    // Descendants come after their ancestors, so going backwards passes the complete sub-tree to the parent.
+    for (int i = size - 1; i > 0; --i) {
+      subtreeEnds[parents[i]] = Math.max(subtreeEnds[parents[i]], subtreeEnds[i]);
+    }
+    names = new SmaxName[builder.names.size()];
+    for (int n = 0; n < names.length; ++n) {
+      String[] name = builder.names.get(n);
+      names[n] = SmaxName.of(name[0], name[1], name[2]);
+    }
+    attributeListStarts = toArray(builder.attributeListStarts, builder.attributeFields.size() / 5);
+    attributeFields = builder.attributeFields.toArray(new String[0]);
+    mappingListStarts = toArray(builder.mappingListStarts, builder.mappings.size());
+    mappings = builder.mappings.toArray(new NamespacePrefixMapping[0]);
+  }
+
+  private static int[] toArray(List<Integer> listStarts, int end) {
+    int[] result = new int[listStarts.size() + 1];
+    for (int k = 0; k < listStarts.size(); ++k) {
+      result[k] = listStarts.get(k);
+    }
+    result[listStarts.size()] = end;
+    return result;
+  }
+
+  /**
+   * Make a {@code CompactMarkup} with the same markup as a tree of {@code SmaxElement}s.
+   * The character positions are not changed.
+   * @param root the root of the markup
+   * @return the compact markup
+   */
+  public static CompactMarkup of(SmaxElement root) {
+    Builder builder = new Builder();
+    Deque<SmaxElement> stack = new ArrayDeque<>();
+    Deque<Integer> stackParents = new ArrayDeque<>();
+    stack.push(root);
+    stackParents.push(-1);
+    while (!stack.isEmpty()) {
+      SmaxElement element = stack.pop();
+      int index = builder.addElement(stackParents.pop(), element.getNamespaceUri(), element.getLocalName(), element.getQualifiedName(),
+          element.getStartPos(), element.getEndPos());
+      SmaxAttributes attributes = element.hasAttributes() ? element.getAttributes() : null;
+      for (int a = 0; attributes != null && a < attributes.getLength(); ++a) {
+        builder.addAttribute(attributes.getURI(a), attributes.getLocalName(a), attributes.getQName(a), attributes.getType(a), attributes.getValue(a));
+      }
+      for (NamespacePrefixMapping mapping : element.getNamespacePrefixMappings()) {
+        builder.addNamespacePrefixMapping(mapping.prefix, mapping.uri);
+      }
+      List<SmaxElement> children = element.childList();
+      for (int i = children.size() - 1; i >= 0; --i) {
+        stack.push(children.get(i));
+        stackParents.push(index);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the number of elements
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the start position of the element
+   */
+  public int getStartPos(int element) {
+    return starts[element];
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the end position of the element
+   */
+  public int getEndPos(int element) {
+    return ends[element];
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the index of the parent of the element, or -1 for the root element
+   */
+  public int getParent(int element) {
+    return parents[element];
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the index after the last descendant of the element
+   */
+  public int getSubtreeEnd(int element) {
+    return subtreeEnds[element];
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the index of the first child of the element, or -1 if it has no children
+   */
+  public int getFirstChild(int element) {
+    return subtreeEnds[element] > element + 1 ? element + 1 : -1;
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the index of the next sibling of the element, or -1 if it is the last child of its parent
+   */
+  public int getNextSibling(int element) {
+    int parent = parents[element];
+    int next = subtreeEnds[element];
+    return parent >= 0 && next < subtreeEnds[parent] ? next : -1;
+  }
+
+  /**
+   * Get the name id of an element.
+   * Elements have the same name id if and only if they have the same namespace URI, local name and qualified name.
+   * @param element the index of an element
+   * @return the name id
+   */
+  public int getNameId(int element) {
+    return nameIds[element];
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the namespace URI of the element, or "" (not null) if it is unspecified
+   */
+  public String getNamespaceUri(int element) {
+    String namespaceUri = names[nameIds[element]].getNamespaceUri();
+    return namespaceUri != null ? namespaceUri : "";
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the local name of the element
+   */
+  public String getLocalName(int element) {
+    return names[nameIds[element]].getLocalName();
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the qualified name of the element
+   */
+  public String getQualifiedName(int element) {
+    return names[nameIds[element]].getQualifiedName();
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the interned name of the element
+   */
+  public SmaxName getName(int element) {
+    return names[nameIds[element]];
+  }
+
+  /**
+   * @param element the index of an element
+   * @return the number of attributes of the element
+   */
+  public int getAttributeCount(int element) {
+    int list = attributeListIds[element];
+    return list < 0 ? 0 : attributeListStarts[list + 1] - attributeListStarts[list];
+  }
+
+  /**
+   * Get the value of an attribute of an element.
+   * @param element the index of an element
+   * @param namespaceUri the namespace URI of the attribute, "" for no namespace
+   * @param localName the local name of the attribute
+   * @return the value of the attribute, or null if the element does not have the attribute
+   */
+  public String getAttributeValue(int element, String namespaceUri, String localName) {
+    int list = attributeListIds[element];
+    if (list >= 0) {
+      for (int a = attributeListStarts[list]; a < attributeListStarts[list + 1]; ++a) {
+        String uri = attributeFields[5 * a];
+        if (localName.equals(attributeFields[5 * a + 1]) && namespaceUri.equals(uri != null ? uri : "")) {
+          return attributeFields[5 * a + 4];
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Make a {@code SmaxElement} for an element, with its name, positions, attributes and namespace prefix mappings, but without children.
+   * Every call makes a new {@code SmaxElement}, which can be changed without affecting the compact markup.
+   * @param element the index of an element
+   * @return a new {@code SmaxElement}
+   */
+  public SmaxElement element(int element) {
+    SmaxElement smaxElement = new SmaxElement(names[nameIds[element]], null);
+    smaxElement.shiftPositions(starts[element], ends[element]);
+    int list = attributeListIds[element];
+    if (list >= 0) {
+      SmaxAttributes attributes = smaxElement.getAttributes();
+      for (int a = attributeListStarts[list]; a < attributeListStarts[list + 1]; ++a) {
+        attributes.addAttribute(attributeFields[5 * a], attributeFields[5 * a + 1], attributeFields[5 * a + 2],
+            attributeFields[5 * a + 3], attributeFields[5 * a + 4]);
+      }
+    }
+    list = mappingListIds[element];
+    if (list >= 0) {
+      NamespacePrefixMapping[] elementMappings = new NamespacePrefixMapping[mappingListStarts[list + 1] - mappingListStarts[list]];
+      for (int m = 0; m < elementMappings.length; ++m) {
+        NamespacePrefixMapping mapping = mappings[mappingListStarts[list] + m];
+        elementMappings[m] = new NamespacePrefixMapping(mapping.prefix, mapping.uri);
+      }
+      smaxElement.setNamespacePrefixMappings(elementMappings);
+    }
+    return smaxElement;
+  }
+
+  /**
+   * Make a tree of {@code SmaxElement}s for the whole markup.
+   * @return the root of a new tree of {@code SmaxElement}s
+   */
+  public SmaxElement toSmaxElement() {
+    return toSmaxElement(0);
+  }
+
+  /**
+   * Make a tree of {@code SmaxElement}s for an element and its descendants.
+   * @param element the index of an element
+   * @return the root of a new tree of {@code SmaxElement}s
+   */
+  public SmaxElement toSmaxElement(int element) {
+    int end = subtreeEnds[element];
+    int n = end - element;
+    SmaxElement[] smaxElements = new SmaxElement[n];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    List<SmaxElement>[] children = new List[n];
+    for (int i = 0; i < n; ++i) {
+      smaxElements[i] = element(element + i);
+      if (i > 0) {
+        int parent = parents[element + i] - element;
+        if (children[parent] == null) {
+          children[parent] = new ArrayList<>();
+        }
+        children[parent].add(smaxElements[i]);
+      }
+    }
+    /* The children of an element are collected first, so that each element gets its list of children in one call.
+     */
+    for (int i = n - 1; i >= 0; --i) {
+      if (children[i] != null) {
+        smaxElements[i].setChildren(children[i]);
+      }
+    }
+    return smaxElements[0];
+  }
+
+  /**
+   * Builds a {@code CompactMarkup} from elements that are added in pre-order (document order).
+   * The attributes and namespace prefix mappings of an element are added right after the element.
+   */
+  public static final class Builder {
+
+    private static final int NAME_CACHE_SIZE = 64;
+
+    private int size = 0;
+    private int[] starts;
+    private int[] ends;
+    private int[] parents;
+    private int[] nameIds;
+    private int[] attributeListIds;
+    private int[] mappingListIds;
+
+    // Names with the same qualified name are chained, starting at the last one that was added.
+    private final Map<String, Integer> nameIdsByQualifiedName = new HashMap<>();
+    private int[] sameQualifiedName = new int[16];
+    private final List<String[]> names = new ArrayList<>();
+    // Recently used name ids, by the hash code of the qualified name, for names with identical strings.
+    private final int[] nameCache = new int[NAME_CACHE_SIZE];
+    private final List<Integer> attributeListStarts = new ArrayList<>();
+    private final List<String> attributeFields = new ArrayList<>();
+    private final List<Integer> mappingListStarts = new ArrayList<>();
+    private final List<NamespacePrefixMapping> mappings = new ArrayList<>();
+
+    // The elements whose sub-trees are not complete yet, which are the last added element and its ancestors.
+    private int[] open = new int[16];
+    private int nrOpen = 0;
+
+    public Builder() {
+      this(16);
+    }
+
+    /**
+     * @param capacity the expected number of elements
+     */
+    public Builder(int capacity) {
+      capacity = Math.max(1, capacity);
+      starts = new int[capacity];
+      ends = new int[capacity];
+      parents = new int[capacity];
+      nameIds = new int[capacity];
+      attributeListIds = new int[capacity];
+      mappingListIds = new int[capacity];
+      Arrays.fill(nameCache, -1);
+    }
+
+    /**
+     * Add an element after the elements that have been added before.
+     * @param parent the index of the parent, which is the last added element or one of its ancestors, or -1 for the root element
+     * @param namespaceUri
+     * @param localName
+     * @param qualifiedName
+     * @param startPos
+     * @param endPos
+     * @return the index of the new element
+     * @throws IllegalArgumentException if the element would not be in pre-order
+     */
+    public int addElement(int parent, String namespaceUri, String localName, String qualifiedName, int startPos, int endPos) {
+      if (parent < 0 ? size > 0 : size == 0) {
+        throw new IllegalArgumentException("Only the first element is the root element, which has parent -1.");
+      }
+      if (parent >= 0) {
+        while (nrOpen > 0 && open[nrOpen - 1] != parent) {
+          --nrOpen;
+        }
+        if (nrOpen == 0) {
+          throw new IllegalArgumentException("Element "+size+" with parent "+parent+" is not in pre-order.");
+        }
+      }
+      if (size == starts.length) {
+        int capacity = 2 * size;
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        nameIds = Arrays.copyOf(nameIds, capacity);
+        attributeListIds = Arrays.copyOf(attributeListIds, capacity);
+        mappingListIds = Arrays.copyOf(mappingListIds, capacity);
+      }
+      starts[size] = startPos;
+      ends[size] = endPos;
+      parents[size] = parent;
+      nameIds[size] = nameId(namespaceUri, localName, qualifiedName);
+      attributeListIds[size] = -1;
+      mappingListIds[size] = -1;
+      if (nrOpen == open.length) {
+        open = Arrays.copyOf(open, 2 * nrOpen);
+      }
+      open[nrOpen++] = size;
+      return size++;
+    }
+
+    /**
+     * Find or add the id of a name.
+     */
+    private int nameId(String namespaceUri, String localName, String qualifiedName) {
+      int slot = qualifiedName.hashCode() & (NAME_CACHE_SIZE - 1);
+      int cached = nameCache[slot];
+      if (cached >= 0) {
+        String[] name = names.get(cached);
+        if (name[2] == qualifiedName && name[1] == localName && name[0] == namespaceUri) {
+          return cached;
+        }
+      }
+      int id = lookupNameId(namespaceUri, localName, qualifiedName);
+      nameCache[slot] = id;
+      return id;
+    }
+
+    private int lookupNameId(String namespaceUri, String localName, String qualifiedName) {
+      Integer first = nameIdsByQualifiedName.get(qualifiedName);
+      for (int id = first != null ? first : -1; id >= 0; id = sameQualifiedName[id]) {
+        String[] name = names.get(id);
+        if (Objects.equals(namespaceUri, name[0]) && Objects.equals(localName, name[1])) {
+          return id;
+        }
+      }
+      int id = names.size();
+      names.add(new String[] {namespaceUri, localName, qualifiedName});
+      if (id == sameQualifiedName.length) {
+        sameQualifiedName = Arrays.copyOf(sameQualifiedName, 2 * id);
+      }
+      sameQualifiedName[id] = first != null ? first : -1;
+      nameIdsByQualifiedName.put(qualifiedName, id);
+      return id;
+    }
+
+    /**
+     * Add an attribute to the last added element.
+     * @param namespaceUri
+     * @param localName
+     * @param qualifiedName
+     * @param type
+     * @param value
+     */
+    public void addAttribute(String namespaceUri, String localName, String qualifiedName, String type, String value) {
+      int element = lastElement();
+      if (attributeListIds[element] < 0) {
+        attributeListIds[element] = attributeListStarts.size();
+        attributeListStarts.add(attributeFields.size() / 5);
+      }
+      attributeFields.add(namespaceUri);
+      attributeFields.add(localName);
+      attributeFields.add(qualifiedName);
+      attributeFields.add(type);
+      attributeFields.add(value);
+    }
+
+    /**
+     * Add a namespace prefix mapping to the last added element.
+     * @param prefix
+     * @param uri
+     */
+    public void addNamespacePrefixMapping(String prefix, String uri) {
+      int element = lastElement();
+      if (mappingListIds[element] < 0) {
+        mappingListIds[element] = mappingListStarts.size();
+        mappingListStarts.add(mappings.size());
+      }
+      mappings.add(new NamespacePrefixMapping(prefix, uri));
+    }
+
+    private int lastElement() {
+      if (size == 0) {
+        throw new IllegalStateException("There is no element yet.");
+      }
+      return size - 1;
+    }
+
+    /**
+     * @return the compact markup with the elements that have been added
+     * @throws IllegalStateException if no elements have been added
+     */
+    public CompactMarkup build() {
+      lastElement();
+      return new CompactMarkup(this);
+    }
+
+  }
+
+}
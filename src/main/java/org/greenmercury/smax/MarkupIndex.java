@@ -0,0 +1,389 @@
+package org.greenmercury.smax;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index over the markup of a {@code SmaxDocument}, for finding elements by their character range.
+ *<p>
+ * The elements are stored in arrays, in pre-order (document order).
+ * In pre-order, the start positions of the elements do not decrease, so elements can be found by binary search on their start position.
+ * Elements that start before a position and contain it are ancestors of each other, and are found through the parent of an element.
+ * Each query takes O(log n + k + d) time, for n elements in the document, k elements in the result and a depth d of the markup tree.
+ *<p>
+ * An index is built by {@code SmaxDocument.getMarkupIndex()}, which builds a new index when the markup has been changed.
+ * The index is not updated by changes, because inserting an element in the arrays would take O(n) time anyway.
+ * A document that is changed and queried in turn pays O(n) for every first query after a change,
+ * so changes should be done in batches, for example with {@code SmaxDocument.insertMarkupAll}, before querying.
+ * Character positions in queries are relative to the content of the {@code SmaxDocument}, like in {@code SmaxDocument.insertMarkup}.
+ * All queries return elements in document order.
+ *<p>
+ * Elements can also be found by name. The lists of elements for each name are made when the first query by name is done.
+ *<p>
+ * @author Rakensi
+ */
+public class MarkupIndex {
+
+  private final SmaxElement root;
+  private final int modCount;
+  private final int offset; // The start position of the root, to make positions relative to the content.
+
+  private final SmaxElement[] elements;
+  private final int[] starts;
+  private final int[] ends;
+  private final int[] parents; // The index of the parent of each element, -1 for the root.
+  private final int[] subtreeEnds; // The index after the last descendant of each element.
+
+  /**
+   * The lists of elements for each name, which is null until the first query by name.
+   * It is volatile, so that threads that query the same index see either null or a complete {@code NameIndex}.
+   */
+  private volatile NameIndex nameIndex;
+
+  /**
+   * The indexes of the elements with each expanded name, and with each qualified name, in document order.
+   * The maps are not changed after they have been built.
+   */
+  private static final class NameIndex {
+    final Map<SmaxName, int[]> byExpandedName;
+    final Map<String, int[]> byQualifiedName;
+    NameIndex(Map<SmaxName, int[]> byExpandedName, Map<String, int[]> byQualifiedName) {
+      this.byExpandedName = byExpandedName;
+      this.byQualifiedName = byQualifiedName;
+    }
+  }
+
+  /**
+   * Build an index over the markup below (and including) {@code root}.
+   * @param root the root of the markup
+   */
+  MarkupIndex(SmaxElement root) {
+    this.root = root;
+    this.modCount = root.getModCount();
+    this.offset = root.getStartPos();
+    // Walk the tree in pre-order, with a stack of elements and the indexes of their parents, in growing arrays.
+    SmaxElement[] preOrder = new SmaxElement[16];
+    int[] parentIndexes = new int[16];
+    int n = 0;
+    SmaxElement[] stack = new SmaxElement[16];
+    int[] stackParents = new int[16];
+    int top = 0;
+    stack[top] = root;
+    stackParents[top++] = -1;
+    while (top > 0) {
+      SmaxElement element = stack[--top];
+      if (n == preOrder.length) {
+        preOrder = Arrays.copyOf(preOrder, 2 * n);
+        parentIndexes = Arrays.copyOf(parentIndexes, 2 * n);
+      }
+      preOrder[n] = element;
+      parentIndexes[n] = stackParents[top];
+      int index = n++;
+      List<SmaxElement> children = element.childList();
+      if (top + children.size() > stack.length) {
+        stack = Arrays.copyOf(stack, Math.max(2 * stack.length, top + children.size()));
+        stackParents = Arrays.copyOf(stackParents, stack.length);
+      }
+      for (int i = children.size() - 1; i >= 0; --i) {
+        stack[top] = children.get(i);
+        stackParents[top++] = index;
+      }
+    }
+    this.elements = Arrays.copyOf(preOrder, n);
+    this.parents = Arrays.copyOf(parentIndexes, n);
+    this.starts = new int[n];
+    this.ends = new int[n];
+    this.subtreeEnds = new int[n];
+    for (int i = 0; i < n; ++i) {
+      elements[i].markIndexed();
+      starts[i] = elements[i].getStartPos() - offset;
+      ends[i] = elements[i].getEndPos() - offset;
+      subtreeEnds[i] = i + 1;
+    }
+    // Descendants come after their ancestors, so going backwards passes the complete sub-tree to the parent.
+    for (int i = n - 1; i > 0; --i) {
+      subtreeEnds[parents[i]] = Math.max(subtreeEnds[parents[i]], subtreeEnds[i]);
+    }
+  }
+
+  /**
+   * @return whether the markup has not been changed since the index was built
+   */
+  public boolean isUpToDate() {
+    return root.getModCount() == modCount && root.getStartPos() == offset;
+  }
+
+  /**
+   * @return the number of elements in the index
+   */
+  public int size() {
+    return elements.length;
+  }
+
+  /**
+   * Find the elements that contain the character at a position.
+   * These are the same elements as in {@code SmaxDocument.ancestorNodes(int)}, except that the root
+   * is only included if the position is within the content.
+   * @param pos relative character position
+   * @return the elements containing {@code pos}, starting at the root
+   */
+  public List<SmaxElement> covering(int pos) {
+    return covering(pos, pos + 1);
+  }
+
+  /**
+   * Find the elements that contain a range of characters.
+   * If the range is empty, this includes elements that end or start at {@code startPos}.
+   * @param startPos relative start position of the range
+   * @param endPos relative end position of the range
+   * @return the elements with {@code element.startPos <= startPos} and {@code endPos <= element.endPos}
+   */
+  public List<SmaxElement> covering(int startPos, int endPos) {
+    checkRange(startPos, endPos);
+    List<SmaxElement> result = new ArrayList<>();
+    int first = firstStartingAtOrAfter(startPos);
+    // The elements that start before startPos and contain the range are ancestors of the last element that starts before startPos.
+    addAncestors(first - 1, endPos, result);
+    // Elements that start at startPos, skipping the sub-trees of elements that end before endPos.
+    for (int i = first; i < elements.length && starts[i] == startPos; ) {
+      if (ends[i] >= endPos) {
+        result.add(elements[i]);
+        ++i;
+      } else {
+        i = subtreeEnds[i];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find the elements that have at least one character in common with a range of characters.
+   * If the range is empty, these are the elements that contain {@code startPos} and do not start or end there.
+   * @param startPos relative start position of the range
+   * @param endPos relative end position of the range
+   * @return the elements with {@code element.startPos < endPos} and {@code startPos < element.endPos}
+   */
+  public List<SmaxElement> overlapping(int startPos, int endPos) {
+    checkRange(startPos, endPos);
+    List<SmaxElement> result = new ArrayList<>();
+    int first = firstStartingAtOrAfter(startPos);
+    addAncestors(first - 1, startPos + 1, result);
+    for (int i = first; i < elements.length && starts[i] < endPos; ++i) {
+      if (ends[i] > startPos) {
+        result.add(elements[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find the elements that are contained in a range of characters.
+   * @param startPos relative start position of the range
+   * @param endPos relative end position of the range
+   * @return the elements with {@code startPos <= element.startPos} and {@code element.endPos <= endPos}
+   */
+  public List<SmaxElement> containedIn(int startPos, int endPos) {
+    checkRange(startPos, endPos);
+    List<SmaxElement> result = new ArrayList<>();
+    // Elements that start in the range, but end after it, are ancestors of each other, so there are at most d of them.
+    for (int i = firstStartingAtOrAfter(startPos); i < elements.length && starts[i] <= endPos; ++i) {
+      if (ends[i] <= endPos) {
+        result.add(elements[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find the elements with a namespace URI and local name, like the DOM {@code getElementsByTagNameNS}.
+   * @param namespaceUri the namespace URI, "" or null for no namespace, or "*" for any namespace
+   * @param localName the local name, or "*" for any local name
+   * @return the elements with the name
+   */
+  public List<SmaxElement> named(String namespaceUri, String localName) {
+    if ("*".equals(namespaceUri) || "*".equals(localName)) {
+      List<SmaxElement> result = new ArrayList<>();
+      for (SmaxElement element : elements) {
+        SmaxName name = element.getName();
+        String elementUri = name.getNamespaceUri() == null ? "" : name.getNamespaceUri();
+        if (("*".equals(namespaceUri) || elementUri.equals(namespaceUri == null ? "" : namespaceUri)) &&
+            ("*".equals(localName) || name.getLocalName().equals(localName))) {
+          result.add(element);
+        }
+      }
+      return result;
+    }
+    // A name that is not in the pool is not the name of any element, and is not added to the pool.
+    SmaxName expandedName = SmaxName.findExpandedName(namespaceUri, localName);
+    return expandedName == null ? new ArrayList<>() : elementsAt(namedIndexes(expandedName));
+  }
+
+  /**
+   * Find the elements with a qualified name, like the DOM {@code getElementsByTagName}.
+   * @param qualifiedName the qualified name, or "*" for all elements
+   * @return the elements with the name
+   */
+  public List<SmaxElement> named(String qualifiedName) {
+    if ("*".equals(qualifiedName)) {
+      return elementsAt(null);
+    }
+    return elementsAt(nameIndex().byQualifiedName.getOrDefault(qualifiedName, new int[0]));
+  }
+
+  /**
+   * Find the elements that match a pattern, and are not inside another matching element.
+   * This is the result of {@code SmaxDocument.matchingNodes}.
+   * @param pattern pattern as a {@code SmaxElement} without children
+   * @return the topmost elements that match {@code pattern}
+   */
+  public List<SmaxElement> matching(SmaxElement pattern) {
+    List<SmaxElement> result = new ArrayList<>();
+    int skipUntil = 0;
+    for (int i : namedIndexes(pattern.getName())) {
+      if (i >= skipUntil && elements[i].matches(pattern)) {
+        result.add(elements[i]);
+        // Skip the descendants of a matching element.
+        skipUntil = subtreeEnds[i];
+      }
+    }
+    return result;
+  }
+
+  /* Access to the arrays of the index, for SmaxQuery. Elements are identified by their pre-order index. */
+
+  SmaxElement element(int index) {
+    return elements[index];
+  }
+
+  int start(int index) {
+    return starts[index];
+  }
+
+  int end(int index) {
+    return ends[index];
+  }
+
+  int subtreeEnd(int index) {
+    return subtreeEnds[index];
+  }
+
+  /**
+   * @param element
+   * @return the pre-order index of {@code element}, or -1 if it is not in the index
+   */
+  int indexOf(SmaxElement element) {
+    int start = element.getStartPos() - offset;
+    for (int i = firstStartingAtOrAfter(start); i < elements.length && starts[i] == start; ++i) {
+      if (elements[i] == element) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param name
+   * @return the indexes of the elements with the same expanded name as {@code name}, which must not be changed
+   */
+  int[] namedIndexes(SmaxName name) {
+    return nameIndex().byExpandedName.getOrDefault(name.getExpandedName(), new int[0]);
+  }
+
+  private List<SmaxElement> elementsAt(int[] indexes) {
+    if (indexes == null) {
+      List<SmaxElement> result = new ArrayList<>(elements.length);
+      for (SmaxElement element : elements) {
+        result.add(element);
+      }
+      return result;
+    }
+    List<SmaxElement> result = new ArrayList<>(indexes.length);
+    for (int i : indexes) {
+      result.add(elements[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Get the lists of elements for each name, and make them if that has not been done.
+   * Threads that query at the same time may each make the lists, and one of them is kept.
+   * Expanded names are interned, so they are compared by identity.
+   * @return the lists of elements for each name
+   */
+  private NameIndex nameIndex() {
+    NameIndex names = nameIndex;
+    if (names != null) {
+      return names;
+    }
+    Map<SmaxName, int[]> expandedCounts = new IdentityHashMap<>();
+    Map<String, int[]> qualifiedCounts = new HashMap<>();
+    for (SmaxElement element : elements) {
+      ++expandedCounts.computeIfAbsent(element.getName().getExpandedName(), name -> new int[1])[0];
+      ++qualifiedCounts.computeIfAbsent(element.getQualifiedName(), name -> new int[1])[0];
+    }
+    // Replace every count by an array of that size, and fill the arrays in document order.
+    expandedCounts.replaceAll((name, count) -> new int[count[0]]);
+    qualifiedCounts.replaceAll((name, count) -> new int[count[0]]);
+    Map<SmaxName, int[]> expandedFill = new IdentityHashMap<>();
+    Map<String, int[]> qualifiedFill = new HashMap<>();
+    for (int i = 0; i < elements.length; ++i) {
+      SmaxName expandedName = elements[i].getName().getExpandedName();
+      String qualifiedName = elements[i].getQualifiedName();
+      expandedCounts.get(expandedName)[expandedFill.computeIfAbsent(expandedName, name -> new int[1])[0]++] = i;
+      qualifiedCounts.get(qualifiedName)[qualifiedFill.computeIfAbsent(qualifiedName, name -> new int[1])[0]++] = i;
+    }
+    names = new NameIndex(expandedCounts, qualifiedCounts);
+    nameIndex = names;
+    return names;
+  }
+
+  /**
+   * Add an element and its ancestors to a list, in top-down order, starting at the first element that ends at or after {@code endPos}.
+   * @param index the index of the element, or -1 if there is none
+   * @param endPos relative end position
+   * @param result the list to add to
+   */
+  private void addAncestors(int index, int endPos, List<SmaxElement> result) {
+    while (index >= 0 && ends[index] < endPos) {
+      index = parents[index];
+    }
+    int resultStart = result.size();
+    for (; index >= 0; index = parents[index]) {
+      result.add(elements[index]);
+    }
+    // Reverse the added elements, so they are in top-down order.
+    for (int i = resultStart, j = result.size() - 1; i < j; ++i, --j) {
+      result.set(i, result.set(j, result.get(i)));
+    }
+  }
+
+  /**
+   * Find the first element in pre-order that starts at or after a position, using binary search.
+   * @param pos relative position
+   * @return the index of the element, or the number of elements if there is none
+   */
+  int firstStartingAtOrAfter(int pos) {
+    int low = 0;
+    int high = starts.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (starts[mid] < pos) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static void checkRange(int startPos, int endPos) {
+    if (startPos > endPos) {
+      throw new IndexOutOfBoundsException("The start position "+startPos+" is after the end position "+endPos);
+    }
+  }
+
+}
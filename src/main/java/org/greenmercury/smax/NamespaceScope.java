@@ -0,0 +1,95 @@
+package org.greenmercury.smax;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The namespace prefix mappings that are in scope on a {@code SmaxElement}.
+ *<p>
+ * A scope is immutable. An element that declares no namespaces shares the scope of its parent,
+ * so most elements of a document share a few scope objects.
+ * Lookups in a scope take constant time, instead of a walk up the markup tree.
+ *<p>
+ * An element keeps its scope until its namespace declarations or its parent change.
+ * Then the scopes of the element and its descendants are forgotten, and they are computed again when they are needed,
+ * see {@code SmaxElement.getNamespaceScope}.
+ *<p>
+ * @author Rakensi
+ */
+final class NamespaceScope {
+
+  private static final NamespaceScope EMPTY = new NamespaceScope(new HashMap<>(), new HashMap<>());
+
+  /**
+   * The namespace URI for each prefix, and the prefix for each namespace URI.
+   * These follow the rules of {@code SmaxElement.lookupNamespaceURI} and {@code SmaxElement.lookupPrefix}:
+   * The first mapping of an element wins, and mappings on an element hide those on its ancestors.
+   */
+  private final Map<String, String> uriByPrefix;
+  private final Map<String, String> prefixByUri;
+
+  private NamespaceScope(Map<String, String> uriByPrefix, Map<String, String> prefixByUri) {
+    this.uriByPrefix = uriByPrefix;
+    this.prefixByUri = prefixByUri;
+  }
+
+  /**
+   * @return the scope of the root of a markup tree, without namespace prefix mappings
+   */
+  static NamespaceScope empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Make the scope of a child element.
+   * @param mappings the namespace prefix mappings that are declared on the child element, or null
+   * @return the scope of the child element, which is this scope if the child declarations do not change any binding
+   */
+  NamespaceScope with(NamespacePrefixMapping[] mappings) {
+    if (mappings == null || !changesBindings(mappings)) {
+      return this;
+    }
+    Map<String, String> childUriByPrefix = new HashMap<>(uriByPrefix);
+    Map<String, String> childPrefixByUri = new HashMap<>(prefixByUri);
+    // Going backwards lets the first mapping for a prefix or URI win.
+    for (int i = mappings.length - 1; i >= 0; --i) {
+      childUriByPrefix.put(mappings[i].prefix, mappings[i].uri);
+      childPrefixByUri.put(mappings[i].uri, mappings[i].prefix);
+    }
+    return new NamespaceScope(childUriByPrefix, childPrefixByUri);
+  }
+
+  /**
+   * Parsers often declare the namespace of an element on the element itself, even when an ancestor already declares it.
+   * Such declarations do not need a new scope.
+   * @param mappings
+   * @return true if one of the mappings binds a prefix or a URI differently from this scope
+   */
+  private boolean changesBindings(NamespacePrefixMapping[] mappings) {
+    for (NamespacePrefixMapping mapping : mappings) {
+      if (!Objects.equals(mapping.uri, uriByPrefix.get(mapping.prefix)) || !Objects.equals(mapping.prefix, prefixByUri.get(mapping.uri))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param prefix
+   * @return the namespace URI bound to the prefix, or null if it has not been declared
+   */
+  String lookupNamespaceURI(String prefix) {
+    return uriByPrefix.get(prefix);
+  }
+
+  /**
+   * @param namespaceURI
+   * @return the prefix bound to the namespace URI, or null if it has not been declared or is bound to the default namespace
+   */
+  String lookupPrefix(String namespaceURI) {
+    String prefix = prefixByUri.get(namespaceURI);
+    return "".equals(prefix) ? null : prefix;
+  }
+
+}
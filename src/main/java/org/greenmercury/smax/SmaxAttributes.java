@@ -1,5 +1,7 @@
 package org.greenmercury.smax;
 
+import java.util.Objects;
+
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
@@ -13,6 +15,11 @@ import org.xml.sax.Attributes;
 
 /**
  * This class implements Attributes, AttributesImpl and NamedNodeMap, so it is compatible with those often used attributes implementations.
+ *<p>
+ * {@code AttributesImpl} finds attributes by comparing the names of all attributes.
+ * When there are {@value #INDEX_THRESHOLD} or more attributes, {@code getIndex} uses hash tables instead.
+ * The hash tables are made when they are first needed, extended when attributes are added,
+ * and thrown away when attributes are removed or renamed.
  */
 public class SmaxAttributes extends org.xml.sax.helpers.AttributesImpl implements Attributes, NamedNodeMap {
 
@@ -38,6 +45,20 @@ public class SmaxAttributes extends org.xml.sax.helpers.AttributesImpl implement
 
   private SmaxElement parent;
 
+  /**
+   * The number of attributes from which on attributes are found through the hash tables.
+   */
+  public static final int INDEX_THRESHOLD = 8;
+
+  /**
+   * Open addressing hash tables, containing the index plus one of every attribute, or 0 for an empty slot.
+   * The {@code nameIndex} is keyed by namespace URI and local name, and the {@code qNameIndex} by qualified name.
+   * When an attribute name occurs more than once, only the first attribute with that name is in the table, like in {@code getIndex}.
+   * The tables are null when they are not used or must be rebuilt.
+   */
+  private int[] nameIndex;
+  private int[] qNameIndex;
+
   @SuppressWarnings("unused")
   private SmaxAttributes() {
     // Don't use parameterless constructor.
@@ -303,4 +324,202 @@ public class SmaxAttributes extends org.xml.sax.helpers.AttributesImpl implement
     };
   }
 
+  /**
+   * Add an attribute.
+   * The names of the attribute are interned, so that attributes with the same name share the same strings.
+   * @see org.xml.sax.helpers.AttributesImpl#addAttribute(String, String, String, String, String)
+   */
+  @Override
+  public void addAttribute(String uri, String localName, String qName, String type, String value) {
+    if (localName != null && qName != null) {
+      SmaxName name = SmaxName.of(uri, localName, qName);
+      super.addAttribute(name.getNamespaceUri(), name.getLocalName(), name.getQualifiedName(), type, value);
+    } else {
+      super.addAttribute(uri, localName, qName, type, value);
+    }
+    if (nameIndex != null) {
+      int index = getLength() - 1;
+      if (2 * getLength() > nameIndex.length) {
+        dropIndex();
+      } else {
+        addToIndex(index);
+      }
+    }
+  }
+
+  /**
+   * Set an attribute.
+   * The names of the attribute are interned, like in {@code addAttribute}.
+   * @see org.xml.sax.helpers.AttributesImpl#setAttribute(int, String, String, String, String, String)
+   */
+  @Override
+  public void setAttribute(int index, String uri, String localName, String qName, String type, String value) {
+    if (nameIndex != null && index >= 0 && index < getLength() &&
+        !(Objects.equals(uri, getURI(index)) && Objects.equals(localName, getLocalName(index)) && Objects.equals(qName, getQName(index)))) {
+      dropIndex();
+    }
+    if (localName != null && qName != null) {
+      SmaxName name = SmaxName.of(uri, localName, qName);
+      super.setAttribute(index, name.getNamespaceUri(), name.getLocalName(), name.getQualifiedName(), type, value);
+    } else {
+      super.setAttribute(index, uri, localName, qName, type, value);
+    }
+  }
+
+  /**
+   * Copy a set of attributes, replacing the current attributes.
+   * The names of the attributes are interned, like in {@code addAttribute}.
+   * @see org.xml.sax.helpers.AttributesImpl#setAttributes(Attributes)
+   */
+  @Override
+  public void setAttributes(Attributes atts) {
+    clear();
+    for (int i = 0, length = atts.getLength(); i < length; ++i) {
+      addAttribute(atts.getURI(i), atts.getLocalName(i), atts.getQName(i), atts.getType(i), atts.getValue(i));
+    }
+  }
+
+  @Override
+  public void clear() {
+    dropIndex();
+    super.clear();
+  }
+
+  @Override
+  public void removeAttribute(int index) {
+    dropIndex();
+    super.removeAttribute(index);
+  }
+
+  @Override
+  public void setURI(int index, String uri) {
+    dropIndex();
+    super.setURI(index, uri);
+  }
+
+  @Override
+  public void setLocalName(int index, String localName) {
+    dropIndex();
+    super.setLocalName(index, localName);
+  }
+
+  @Override
+  public void setQName(int index, String qName) {
+    dropIndex();
+    super.setQName(index, qName);
+  }
+
+  /**
+   * Look up an attribute's index by namespace URI and local name.
+   * @see org.xml.sax.helpers.AttributesImpl#getIndex(String, String)
+   */
+  @Override
+  public int getIndex(String uri, String localName) {
+    if (!useIndex()) {
+      return super.getIndex(uri, localName);
+    }
+    int mask = nameIndex.length - 1;
+    for (int slot = nameHash(uri, localName) & mask; ; slot = (slot + 1) & mask) {
+      int entry = nameIndex[slot];
+      if (entry == 0) {
+        return -1;
+      } else if (Objects.equals(getLocalName(entry - 1), localName) && Objects.equals(getURI(entry - 1), uri)) {
+        return entry - 1;
+      }
+    }
+  }
+
+  /**
+   * Look up an attribute's index by qualified name.
+   * @see org.xml.sax.helpers.AttributesImpl#getIndex(String)
+   */
+  @Override
+  public int getIndex(String qName) {
+    if (!useIndex()) {
+      return super.getIndex(qName);
+    }
+    int mask = qNameIndex.length - 1;
+    for (int slot = spread(Objects.hashCode(qName)) & mask; ; slot = (slot + 1) & mask) {
+      int entry = qNameIndex[slot];
+      if (entry == 0) {
+        return -1;
+      } else if (Objects.equals(getQName(entry - 1), qName)) {
+        return entry - 1;
+      }
+    }
+  }
+
+  /**
+   * Give the attributes with a namespace prefix a new namespace URI.
+   * This is used when a namespace prefix is declared on the element after the attributes were set.
+   * @param prefix
+   * @param uri
+   */
+  void setPrefixNamespace(String prefix, String uri) {
+    int prefixLength = prefix.length();
+    for (int i = 0, length = getLength(); i < length; ++i) {
+      String qName = getQName(i);
+      if (qName != null && qName.length() > prefixLength && qName.charAt(prefixLength) == ':' && qName.startsWith(prefix)) {
+        setAttribute(i, uri, getLocalName(i), qName, getType(i), getValue(i));
+      }
+    }
+  }
+
+  /**
+   * Make the hash tables if there are enough attributes to use them.
+   * @return whether the hash tables are used
+   */
+  private boolean useIndex() {
+    int length = getLength();
+    if (length < INDEX_THRESHOLD) {
+      return false;
+    }
+    if (nameIndex == null) {
+      int capacity = Integer.highestOneBit(4 * length - 1) << 1;
+      nameIndex = new int[capacity];
+      qNameIndex = new int[capacity];
+      for (int i = 0; i < length; ++i) {
+        addToIndex(i);
+      }
+    }
+    return true;
+  }
+
+  private void addToIndex(int index) {
+    String uri = getURI(index);
+    String localName = getLocalName(index);
+    int mask = nameIndex.length - 1;
+    int slot = nameHash(uri, localName) & mask;
+    for (int entry; (entry = nameIndex[slot]) != 0; slot = (slot + 1) & mask) {
+      if (Objects.equals(getLocalName(entry - 1), localName) && Objects.equals(getURI(entry - 1), uri)) {
+        slot = -1;
+        break;
+      }
+    }
+    if (slot >= 0) {
+      nameIndex[slot] = index + 1;
+    }
+    String qName = getQName(index);
+    slot = spread(Objects.hashCode(qName)) & mask;
+    for (int entry; (entry = qNameIndex[slot]) != 0; slot = (slot + 1) & mask) {
+      if (Objects.equals(getQName(entry - 1), qName)) {
+        return;
+      }
+    }
+    qNameIndex[slot] = index + 1;
+  }
+
+  private void dropIndex() {
+    nameIndex = null;
+    qNameIndex = null;
+  }
+
+  private static int nameHash(String uri, String localName) {
+    return spread(31 * Objects.hashCode(uri) + Objects.hashCode(localName));
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
 }
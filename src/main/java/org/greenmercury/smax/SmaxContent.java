@@ -1,15 +1,16 @@
 package org.greenmercury.smax;
 
 /**
- * Representation of document content for SMAX, based on {@code StringBuffer},
- * which is final and cannot be extended, so {@code SmaxContent} wraps {@code StringBuffer}.
- * Because the text content is a {@code StringBuffer}, it cannot support very large (> 2^31-1 characters) documents.
+ * Representation of document content for SMAX, based on a {@code CharStore},
+ * which has the methods of {@code StringBuffer} that are needed for SMAX.
+ * Because the text content is indexed by int, it cannot support very large (> 2^31-1 characters) documents.
  *<p>
- * We use {@code StringBuffer} rather than {@code StringBuilder}, because it is thread-safe.
+ * By default, the {@code CharStore} wraps a {@code StringBuffer}, because it is thread-safe.
  * The {@code StringBuffer} may be used in different threads, so thread-safety may be needed.
+ * Content that is used by one thread at a time can use a faster {@code StringBuilderCharStore} or a smaller {@code CompactCharStore}.
  *<p>
  * When {@code SmaxContent} is used in a {@code SmaxDocument}, the start and end indexes point to
- * the wrapped {@code StringBuffer}, not to the zero-based view provided by {@code SmaxContent}.
+ * the underlying {@code CharStore}, not to the zero-based view provided by {@code SmaxContent}.
  * This makes it easier to create sub-documents of a {@code SmaxDocument} without changing start and end positions.
  *<p>
  * This class provides sub-document views with zero-based indexes on a document,
@@ -20,9 +21,9 @@ package org.greenmercury.smax;
 public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxContent> {
 
   /**
-   * We wrap a StringBuffer, because StringBuffer is final, so extending is not possible.
+   * The underlying storage of the text content.
    */
-  private StringBuffer buffer;
+  private CharStore buffer;
   private int start; // The start index within the buffer, for zero-based views.
   private int end; // The end index within the buffer, for zero-based views.
 
@@ -33,6 +34,16 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
    * @param end end position within {@code buffer}
    */
   public SmaxContent(StringBuffer buffer, int start, int end) {
+    this(new StringBufferCharStore(buffer), start, end);
+  }
+
+  /**
+   * Constructor for a {@code SmaxContent} view on a {@code CharStore}.
+   * @param buffer the underlying {@code CharStore}
+   * @param start start position within {@code buffer}
+   * @param end end position within {@code buffer}
+   */
+  public SmaxContent(CharStore buffer, int start, int end) {
     this.buffer = buffer;
     this.start = start;
     this.end = end;
@@ -55,6 +66,14 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
     this(buffer, 0, buffer.length());
   }
 
+  /**
+   * Constructor for a {@code SmaxContent} view on all text in a {@code CharStore}.
+   * @param buffer the underlying {@code CharStore}
+   */
+  public SmaxContent(CharStore buffer) {
+    this(buffer, 0, buffer.length());
+  }
+
   /**
    * Constructor for a sub-document view on a {@code SmaxContent}.
    * @param content
@@ -82,6 +101,7 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
 
   /**
    * Constructor equivalent to {@code StringBuffer}.
+   * The characters are copied. Use a {@code CharSequenceCharStore} to use a {@code CharSequence} without copying it.
    * @param seq
    */
   public SmaxContent(CharSequence seq) {
@@ -90,6 +110,7 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
 
   /**
    * Constructor for a sub-document view on a {@code StringBuffer}.
+   * The characters are copied. Use a {@code CharSequenceCharStore} to use a {@code CharSequence} without copying it.
    * @param seq
    * @param start
    * @param end
@@ -102,9 +123,24 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
    * Get the underlying buffer of the content.
    * This buffer is consistent with the {@code startPos} and {@code endPos}
    * of {@code SmaxElement}s in a {@code SmaxDocument}.
+   * This is only possible when the content is stored in a {@code StringBufferCharStore}. Otherwise, use {@code getUnderlyingStore()}.
    * @return the underlying {@code StringBuffer}
+   * @throws UnsupportedOperationException if the content is not stored in a {@code StringBuffer}
    */
   public StringBuffer getUnderlyingBuffer() {
+    if (buffer instanceof StringBufferCharStore) {
+      return ((StringBufferCharStore)buffer).getBuffer();
+    }
+    throw new UnsupportedOperationException("The content is stored in a "+buffer.getClass().getSimpleName()+", not in a StringBuffer.");
+  }
+
+  /**
+   * Get the underlying storage of the content.
+   * This storage is consistent with the {@code startPos} and {@code endPos}
+   * of {@code SmaxElement}s in a {@code SmaxDocument}.
+   * @return the underlying {@code CharStore}
+   */
+  public CharStore getUnderlyingStore() {
     return buffer;
   }
 
@@ -120,9 +156,38 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
 
   /* Comparable implementation */
 
+  /**
+   * Compare the content lexicographically, like {@code String.compareTo}, without copying the content.
+   */
   @Override
   public int compareTo(SmaxContent that) {
-    return toString().compareTo(that.toString());
+    int length = Math.min(this.length(), that.length());
+    for (int i = 0; i < length; ++i) {
+      char thisChar = this.charAt(i);
+      char thatChar = that.charAt(i);
+      if (thisChar != thatChar) {
+        return thisChar - thatChar;
+      }
+    }
+    return this.length() - that.length();
+  }
+
+  /**
+   * Compare the content to a {@code CharSequence}, like {@code String.contentEquals}, without copying the content.
+   * @param cs
+   * @return whether the content has the same characters as {@code cs}
+   */
+  public boolean contentEquals(CharSequence cs) {
+    int length = length();
+    if (cs.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; ++i) {
+      if (charAt(i) != cs.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /* CharSequence implementation */
@@ -137,9 +202,17 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
     return buffer.charAt(start + index);
   }
 
+  /**
+   * Get a sub-sequence, which is a view on the same {@code CharStore}, without copying characters.
+   * Like other views, it does not follow changes of the content outside the view. Use {@code toString} to get a copy.
+   * @return a {@code SmaxContent} view on the characters from {@code start} to {@code end}
+   */
   @Override
-  public CharSequence subSequence(int start, int end) {
-    return buffer.subSequence(this.start + start, this.start + end);
+  public SmaxContent subSequence(int start, int end) {
+    if (start < 0 || start > end || end > length()) {
+      throw new IndexOutOfBoundsException("start "+start+", end "+end+", length "+length());
+    }
+    return new SmaxContent(this, start, end);
   }
 
   /* Appendable implementation */
@@ -182,7 +255,7 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
   }
 
   public SmaxContent deleteCharAt(int index) {
-    buffer = buffer.deleteCharAt(start + index);
+    buffer = buffer.delete(start + index, start + index + 1);
     end = end - 1;
     return this;
   }
@@ -225,19 +298,46 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
     return this;
   }
 
+  /* Searching. These methods give the same results as the {@code String} methods, without copying the content into a {@code String}. */
+
   public int indexOf(String str) {
-    return toString().indexOf(str);
+    return indexOf(str, 0);
   }
 
   public int indexOf(String str, int fromIndex) {
-    return toString().indexOf(str, fromIndex);
+    int length = length();
+    int needleLength = str.length();
+    if (fromIndex < 0) {
+      fromIndex = 0;
+    }
+    if (fromIndex > length - needleLength) {
+      return (needleLength == 0 && fromIndex >= length) ? length : -1;
+    }
+    if (needleLength == 0) {
+      return fromIndex;
+    }
+    int found = buffer.indexOf(str, start + fromIndex, end);
+    return found < 0 ? -1 : found - start;
   }
 
   public int lastIndexOf(String str) {
-    return toString().lastIndexOf(str);
+    return lastIndexOf(str, length());
   }
 
   public int lastIndexOf(String str, int fromIndex) {
-    return toString().lastIndexOf(str, fromIndex);
+    int length = length();
+    int needleLength = str.length();
+    if (fromIndex > length - needleLength) {
+      fromIndex = length - needleLength;
+    }
+    if (fromIndex < 0) {
+      return -1;
+    }
+    if (needleLength == 0) {
+      return fromIndex;
+    }
+    int found = buffer.lastIndexOf(str, start + fromIndex, start);
+    return found < 0 ? -1 : found - start;
   }
+
 }
@@ -1,22 +1,23 @@
 package org.greenmercury.smax;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
-import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.stream.Stream;
 
 /**
  * Representation of a SMAX document with separated markup and content.
  *<p>
  * A SmaxDocument has markup (starting at the root-node) and text content.
- * The text content may be part of a larger {@code StringBuffer}, therefore it is a {@code SmaxContent}.
+ * The text content may be part of a larger {@code CharStore}, therefore it is a {@code SmaxContent}.
  * The {@code content} always corresponds to the content within the {@code markup},
  * and is the part of the underlying buffer between {@code markup.startPos} and {@code markup.endPos}.
  *<p>
  * The {@code startPos} and {@code endPos} of every {@code SmaxElement} in the markup
- * are relative to the underlying {@code StringBuffer} of the {@code SmaxContent} {@code content}.
+ * are relative to the underlying {@code CharStore} of the {@code SmaxContent} {@code content}.
  * This makes it easier to create sub-documents of a {@code SmaxDocument} without changing start and end indexes.
  * Because of this, the {@code startPos} of a root element does not have to be zero.
  *<p>
@@ -30,13 +31,33 @@ public class SmaxDocument {
   private SmaxElement markup;
   private SmaxContent content;
 
+  /**
+   * The index over the markup, which is built when it is needed.
+   */
+  private MarkupIndex markupIndex;
+
+  /**
+   * Whether this document is a sub-document view made by {@code subDocument}, which does not allow text edits.
+   */
+  private boolean isView = false;
+
   /**
    * Construct a {@code SmaxDocument}.
    * @param markup The markup of the document.
    * @param content The content of the document. Only the part pointed to by the markup is used.
    */
   public SmaxDocument(SmaxElement markup, SmaxContent content) {
-    this(markup, content.getUnderlyingBuffer());
+    this(markup, content.getUnderlyingStore());
+  }
+
+  /**
+   * Construct a {@code SmaxDocument}.
+   * @param markup The markup of the document.
+   * @param content The content of the document. Only the part pointed to by the markup is used.
+   */
+  public SmaxDocument(SmaxElement markup, CharStore content) {
+    this.markup = markup;
+    this.content = new SmaxContent(content, markup.getStartPos(), markup.getEndPos());
   }
 
   /**
@@ -51,6 +72,8 @@ public class SmaxDocument {
 
   /**
    * Construct a {@code SmaxDocument}.
+   * The content is copied into a {@code StringBuffer}.
+   * To use a {@code CharSequence} without copying it, wrap it in a {@code CharSequenceCharStore}.
    * @param markup The markup of the document.
    * @param content The content of the document. Only the part pointed to by the markup is used.
    */
@@ -70,7 +93,7 @@ public class SmaxDocument {
    * @return the content of the document as {@code SmaxContent}
    * Note that the character positions of {@code SmaxElement}s in the document are <em>not</em> valid
    * as indexes for the {@code StringBuffer} and {@code CharSequence} methods of the {@code SmaxContent}.
-   * These positions are valid for the underlying {@code StringBuffer}.
+   * These positions are valid for the underlying {@code CharStore}.
    */
   public SmaxContent getContent() {
     return content;
@@ -80,39 +103,72 @@ public class SmaxDocument {
    * @return the content buffer of the document
    * Note that the character positions of {@code SmaxElement}s in the document are valid
    * as indexes into the content buffer.
+   * @throws UnsupportedOperationException if the content is not stored in a {@code StringBuffer}
    */
   public StringBuffer getContentBuffer() {
     return content.getUnderlyingBuffer();
   }
 
+  /**
+   * @return the content storage of the document
+   * Note that the character positions of {@code SmaxElement}s in the document are valid
+   * as indexes into the content storage.
+   */
+  public CharStore getContentStore() {
+    return content.getUnderlyingStore();
+  }
+
+  /**
+   * Make a sub-document for an element in this document.
+   * The sub-document shares its markup and content with this document, so nothing is copied,
+   * and changes in the markup of one document are visible in the other.
+   * Text edits through the sub-document would not shift the positions of elements outside of it,
+   * so the text edit methods of the sub-document throw an {@code UnsupportedOperationException}.
+   * Edit the text through this document instead.
+   * @param element an element of this document, which becomes the root of the sub-document.
+   * @return a {@code SmaxDocument} view on {@code element}
+   * @throws SmaxException if {@code element} is not part of this document.
+   */
+  public SmaxDocument subDocument(SmaxElement element) throws SmaxException {
+    ancestorNodes(element, new AncestorList());
+    SmaxDocument subDocument = new SmaxDocument(element, getContentStore());
+    subDocument.isView = true;
+    return subDocument;
+  }
+
   /**
    * Determine the ancestor nodes in the document for a given node.
    * @param node
    * @return The ancestor nodes of {@code node}, in top-down order (starting at the root node).
    */
   public Stream<SmaxElement> ancestorNodes(SmaxElement node) throws SmaxException {
-    return ancestorNodesWithin(node, markup);
+    return ancestorNodes(node, new AncestorList()).stream();
   }
 
   /**
-   * Determine the ancestor nodes in the document for a given node, only in the sub-tree below {@code within}.
+   * Determine the ancestor nodes in the document for a given node, by following the parent nodes.
+   * This does not use recursion, and does not allocate memory if {@code ancestors} is large enough.
    * @param node
-   * @param within
-   * @return The nodes between {@code within} (included) and {@code node} (excluded),
-   *         in top-down order (starting at {@code within}).
-   */
-  private Stream<SmaxElement> ancestorNodesWithin(SmaxElement node, SmaxElement within) throws SmaxException {
-    int nodeStartPos = node.getStartPos();
-    if (within == node) {
-      // Stop when we have arrived at node.
-      return Stream.empty();
-    } else {
-      // Find the child of within that contains node.
-      SmaxElement next = within.getChildren().stream()
-          .filter(child -> nodeStartPos >= child.getStartPos() && nodeStartPos < child.getEndPos()).findAny()
-          .orElseThrow(() -> new SmaxException("The given node is not part of the document."));
-      return Stream.concat(Stream.of(within), ancestorNodesWithin(node, next));
+   * @param ancestors a list that will be filled with the ancestor nodes, replacing its contents.
+   * @return {@code ancestors}, containing the ancestor nodes of {@code node}, in top-down order (starting at the root node).
+   * @throws SmaxException if {@code node} is not part of the document.
+   */
+  public AncestorList ancestorNodes(SmaxElement node, AncestorList ancestors) throws SmaxException {
+    ancestors.clear();
+    if (node != markup) {
+      SmaxElement ancestor = node.getParentNode();
+      while (ancestor != markup) {
+        if (ancestor == null) {
+          ancestors.clear();
+          throw new SmaxException("The given node is not part of the document.");
+        }
+        ancestors.push(ancestor);
+        ancestor = ancestor.getParentNode();
+      }
+      ancestors.push(markup);
+      ancestors.reverse();
     }
+    return ancestors;
   }
 
   /**
@@ -121,68 +177,85 @@ public class SmaxDocument {
    * @return a stream of nodes starting at the root of the document.
    */
   public Stream<SmaxElement> ancestorNodes(int charPos) {
-    return ancestorNodesWithin(charPos + markup.getStartPos(), markup);
+    return ancestorNodes(charPos, new AncestorList()).stream();
   }
 
   /**
-   * Determine the ancestor nodes for a given character position, only in the sub-tree below {@code within}.
-   * @param charPos absolute character position
-   * @param within
-   * @return a stream of nodes starting at the root of the document.
+   * Determine the ancestor nodes in the document for a given character position.
+   * These are the root of the document, and the nodes that contain the character at {@code charPos}.
+   * The nodes are found top-down, with a binary search in the children of each node.
+   * This does not use recursion, and does not allocate memory if {@code ancestors} is large enough.
+   * @param charPos relative character position
+   * @param ancestors a list that will be filled with the ancestor nodes, replacing its contents.
+   * @return {@code ancestors}, containing the nodes starting at the root of the document.
+   */
+  public AncestorList ancestorNodes(int charPos, AncestorList ancestors) {
+    ancestors.clear();
+    int absolutePos = charPos + markup.getStartPos();
+    SmaxElement node = markup;
+    while (node != null) {
+      ancestors.push(node);
+      List<SmaxElement> children = node.childList();
+      SmaxElement next = null;
+      for (int i = firstChildEndingAtOrAfter(children, absolutePos + 1), nrChildren = children.size(); i < nrChildren; ++i) {
+        SmaxElement child = children.get(i);
+        if (child.getStartPos() > absolutePos) {
+          break;
+        } else if (absolutePos < child.getEndPos()) {
+          next = child;
+          break;
+        }
+      }
+      node = next;
+    }
+    return ancestors;
+  }
+
+  /**
+   * Get an index over the markup, for finding elements that cover, overlap or are contained in a range of characters.
+   * The index is built when it is first needed, and rebuilt completely by the first call after any change to the markup,
+   * because changes do not update it. The lists of elements by name are made again by the first query by name after a rebuild.
+   * Building the index takes O(n) time for n elements, after which queries take O(log n + k + d) time,
+   * for k elements in the result and a depth d of the markup tree.
+   * @return an up to date index over the markup of this document
    */
-  private Stream<SmaxElement> ancestorNodesWithin(int charPos, SmaxElement within) {
-    return Stream.concat(Stream.of(within),
-      within.getChildren().stream()
-        .filter(child -> charPos >= child.getStartPos() && charPos < child.getEndPos())
-        .flatMap(child -> ancestorNodesWithin(charPos, child)));
+  public MarkupIndex getMarkupIndex() {
+    if (markupIndex == null || !markupIndex.isUpToDate()) {
+      markupIndex = new MarkupIndex(markup);
+    }
+    return markupIndex;
   }
 
   /**
    * Make an iterator over all {@code SmaxElement}s in the document that conform to a given pattern.
+   * Elements inside a matching element are not included.
+   * The matching elements are found through the element names in the markup index (see {@code getMarkupIndex}),
+   * so the markup tree is not scanned, unless the markup has changed since the index was built.
+   * The iterator does not follow changes to the markup that are made after it has been created.
    * @param pattern pattern as a {@code SmaxElement} without children
-   * @return an {@code Iterable} of the matching nodes, in no document order.
+   * @return an {@code Iterable} of the matching nodes, in document order.
    */
   public Iterable<SmaxElement> matchingNodes(SmaxElement pattern) {
-    return () -> {
-      // A set of nodes to consider. This will be empty when the iterator is exhausted
-      Deque<SmaxElement> currentSet = new ArrayDeque<SmaxElement>();
-      // Start at the root node.
-      currentSet.push(markup);
-      return new Iterator<SmaxElement>() {
-        // This will be the next node, or null if we don't know yet.
-        SmaxElement willBeNext = null;
-
-        @Override
-        public boolean hasNext() {
-         // If willBeNext exists, it is the next node, otherwise we will have to find the next node.
-          return willBeNext != null ? true : (willBeNext = next()) != null;
-        }
+    return () -> getMarkupIndex().matching(pattern).iterator();
+  }
 
-        @Override
-        public SmaxElement next() {
-          // If willBeNext exists, it is already the next node.
-          if (willBeNext == null) {
-            // Look for the next node.
-            while ((willBeNext = currentSet.poll()) != null) {
-              if (willBeNext.matches(pattern)) {
-                // The next node has been found.
-                break;
-              }
-              // Add children of a node that does not match the pattern to the front of the list.
-              for (SmaxElement child : willBeNext.getChildren()) {
-                currentSet.add(child);
-              }
-            }
-            // When the while loop runs out, the tree has been scanned completely.
-          }
-          // If there are more matching nodes, the first one is now in willBeNext.
-          SmaxElement next = willBeNext;
-          // The next node is returned, so we do not know the next next node.
-          willBeNext = null;
-          return next;
-        } // next()
-      }; // new Iterator()
-    }; // Iterable.iterator()
+  /**
+   * Find all elements in the document with a qualified name, in document order, including the root element.
+   * @param qualifiedName the qualified name, or "*" for all elements
+   * @return the elements with the qualified name
+   */
+  public List<SmaxElement> getElementsByTagName(String qualifiedName) {
+    return getMarkupIndex().named(qualifiedName);
+  }
+
+  /**
+   * Find all elements in the document with a namespace URI and local name, in document order, including the root element.
+   * @param namespaceUri the namespace URI, "" or null for no namespace, or "*" for any namespace
+   * @param localName the local name, or "*" for any local name
+   * @return the elements with the namespace URI and local name
+   */
+  public List<SmaxElement> getElementsByTagNameNS(String namespaceUri, String localName) {
+    return getMarkupIndex().named(namespaceUri, localName);
   }
 
   /**
@@ -237,24 +310,10 @@ public class SmaxDocument {
    */
   public SmaxElement insertMarkup(SmaxElement newNode, Balancing balancing, int startPos, int endPos, Collection<SmaxElement> sameRangeReverseBalancing) {
     // Make a shallow copy so the children of the original newNode are not changed.
-    newNode = newNode.shallowCopy();
-    // Set the absolute start and end positions.
-    newNode.setStartPos(markup.getStartPos() + startPos).setEndPos(markup.getStartPos() + endPos);
-    // Collapse the newNode character span for START or END markers.
-    if (balancing == Balancing.START) {
-      newNode.setEndPos(newNode.getStartPos());
-    } else if (balancing == Balancing.END) {
-      newNode.setStartPos(newNode.getEndPos());
-    }
+    newNode = newInsertedNode(newNode, balancing, startPos, endPos);
     // Insert the node.
     insertMarkupInto(newNode, markup, balancing, sameRangeReverseBalancing);
-    // Adjust namespace prefix.
-    if (newNode.getNamespaceUri() != null && !newNode.hasNamespacePrefix()) {
-      String prefix = newNode.lookupPrefix(newNode.getNamespaceUri());
-      if (prefix != null) {
-        newNode.setName(newNode.getNamespaceUri(), newNode.getLocalName(), prefix+":"+newNode.getLocalName());
-      }
-    }
+    adjustNamespacePrefix(newNode);
     return newNode;
   }
 
@@ -271,24 +330,10 @@ public class SmaxDocument {
    */
   public SmaxElement insertMarkup(SmaxElement newNode, SmaxElement subRoot, Balancing balancing, int startPos, int endPos) {
     // Make a shallow copy so the children of the original newNode are not changed.
-    newNode = newNode.shallowCopy();
-    // Set the absolute start and end positions.
-    newNode.setStartPos(markup.getStartPos() + startPos).setEndPos(markup.getStartPos() + endPos);
-    // Collapse the newNode character span for START or END markers.
-    if (balancing == Balancing.START) {
-      newNode.setEndPos(newNode.getStartPos());
-    } else if (balancing == Balancing.END) {
-      newNode.setStartPos(newNode.getEndPos());
-    }
+    newNode = newInsertedNode(newNode, balancing, startPos, endPos);
     // Insert the node.
     insertMarkupInto(newNode, subRoot, balancing, null);
-    // Adjust namespace prefix.
-    if (newNode.getNamespaceUri() != null && !newNode.hasNamespacePrefix()) {
-      String prefix = newNode.lookupPrefix(newNode.getNamespaceUri());
-      if (prefix != null) {
-        newNode.setName(newNode.getNamespaceUri(), newNode.getLocalName(), prefix+":"+newNode.getLocalName());
-      }
-    }
+    adjustNamespacePrefix(newNode);
     return newNode;
   }
 
@@ -307,6 +352,83 @@ public class SmaxDocument {
    * @return A shallow copy of {@code newNode} is returned, because some of its properties are changed.
    */
   public SmaxElement insertMarkup(SmaxElement newNode, SmaxElement subRoot, Balancing balancing, int startPos, int endPos, Collection<SmaxElement> sameRangeReverseBalancing) {
+    // Make a shallow copy so the children of the original newNode are not changed.
+    newNode = newInsertedNode(newNode, balancing, startPos, endPos);
+    // Insert the node.
+    insertMarkupInto(newNode, subRoot, balancing, sameRangeReverseBalancing);
+    adjustNamespacePrefix(newNode);
+    return newNode;
+  }
+
+  /**
+   * Insert a list of {@code SmaxElement}s that have no child elements into the markup tree of a {@code SmaxDocument}.
+   * The result is the same as calling {@code insertMarkup(newNode, balancing)} for every node, in the order of the list.
+   * @param newNodes SmaxElements that should not have children.
+   * @param balancing the balancing strategy for intersecting nodes.
+   * The start and end positions of the {@code newNodes} must be relative to the content of {@code this} SmaxDocument.
+   * @return Shallow copies of the {@code newNodes}, in the same order, because some of their properties are changed.
+   */
+  public List<SmaxElement> insertMarkupAll(List<SmaxElement> newNodes, Balancing balancing) {
+    return insertMarkupAll(newNodes, balancing, null);
+  }
+
+  /**
+   * Insert a list of {@code SmaxElement}s that have no child elements into the markup tree of a {@code SmaxDocument}.
+   * The result is the same as calling {@code insertMarkup(newNode, balancing, sameRangeReverseBalancing)} for every node, in the order of the list.
+   *<p>
+   * Instead of descending from the root for every node, each insertion starts at the nearest ancestor of the previously inserted node
+   * that strictly contains the new node. Every ancestor of that element strictly contains the new node as well,
+   * so descending from the root would arrive at the same element.
+   * When the nodes are in document order, which is usual for the results of text matching, this is much faster than separate insertions.
+   * @param newNodes SmaxElements that should not have children.
+   * @param balancing the balancing strategy for intersecting nodes.
+   * @param sameRangeReverseBalancing A set of {@code SmaxElement}s.
+   *   If a new node has the same character range as a node in {@code sameRangeReverseBalancing},
+   *   the {@code balancing} is changed from OUTER to INNER, or from INNER to OUTER.
+   * The start and end positions of the {@code newNodes} must be relative to the content of {@code this} SmaxDocument.
+   * @return Shallow copies of the {@code newNodes}, in the same order, because some of their properties are changed.
+   */
+  public List<SmaxElement> insertMarkupAll(List<SmaxElement> newNodes, Balancing balancing, Collection<SmaxElement> sameRangeReverseBalancing) {
+    List<SmaxElement> insertedNodes = new ArrayList<>(newNodes.size());
+    SmaxElement previousNode = markup;
+    for (SmaxElement node : newNodes) {
+      SmaxElement newNode = newInsertedNode(node, balancing, node.getStartPos(), node.getEndPos());
+      SmaxElement subRoot = strictlyContainingAncestor(previousNode, newNode.getStartPos(), newNode.getEndPos());
+      insertMarkupInto(newNode, subRoot, balancing, sameRangeReverseBalancing);
+      adjustNamespacePrefix(newNode);
+      insertedNodes.add(newNode);
+      previousNode = newNode;
+    }
+    return insertedNodes;
+  }
+
+  /**
+   * Find the nearest ancestor-or-self of an element in the markup that strictly contains a character range.
+   * @param element an element in the markup of {@code this} SmaxDocument.
+   * @param startPos absolute start position of the range.
+   * @param endPos absolute end position of the range.
+   * @return the nearest ancestor-or-self that starts before {@code startPos} and ends after {@code endPos},
+   *   or the root of the markup if there is none.
+   */
+  private SmaxElement strictlyContainingAncestor(SmaxElement element, int startPos, int endPos) {
+    while (element != null && element != markup) {
+      if (element.getStartPos() < startPos && endPos < element.getEndPos()) {
+        return element;
+      }
+      element = element.getParentNode();
+    }
+    return markup;
+  }
+
+  /**
+   * Make the node that will be inserted into the markup by one of the {@code insertMarkup} methods.
+   * @param newNode the SmaxElement that is given to {@code insertMarkup}.
+   * @param balancing the balancing strategy for intersecting nodes.
+   * @param startPos start position of the content within {@code newNode}, relative to the content of the SmaxDocument.
+   * @param endPos end position of the content within {@code newNode}, relative to the content of the SmaxDocument.
+   * @return A shallow copy of {@code newNode}, with absolute positions.
+   */
+  private SmaxElement newInsertedNode(SmaxElement newNode, Balancing balancing, int startPos, int endPos) {
     // Make a shallow copy so the children of the original newNode are not changed.
     newNode = newNode.shallowCopy();
     // Set the absolute start and end positions.
@@ -317,16 +439,20 @@ public class SmaxDocument {
     } else if (balancing == Balancing.END) {
       newNode.setStartPos(newNode.getEndPos());
     }
-    // Insert the node.
-    insertMarkupInto(newNode, subRoot, balancing, sameRangeReverseBalancing);
-    // Adjust namespace prefix.
+    return newNode;
+  }
+
+  /**
+   * Give an inserted node the namespace prefix that is declared for its namespace, if it does not have a prefix.
+   * @param newNode a node that has been inserted into the markup.
+   */
+  private void adjustNamespacePrefix(SmaxElement newNode) {
     if (newNode.getNamespaceUri() != null && !newNode.hasNamespacePrefix()) {
       String prefix = newNode.lookupPrefix(newNode.getNamespaceUri());
       if (prefix != null) {
         newNode.setName(newNode.getNamespaceUri(), newNode.getLocalName(), prefix+":"+newNode.getLocalName());
       }
     }
-    return newNode;
   }
 
   /**
@@ -357,10 +483,13 @@ public class SmaxDocument {
     // Index in children of subRoot of the left-most node that will be contained in newNode (if any) or -1 (if not (yet) found).
     int firstContainedIndex = -1;
     // Index in children of subRoot of the left-most node that comes after newNode, which is the insert index.
-    int newNodeInsertIndex = 0;
-    // Go through the list of children once, from first to last and collect special nodes and indexes.
+    // Children that end before the start of newNode can not contain, intersect or be contained in newNode, so they are skipped.
+    List<SmaxElement> children = subRoot.childList();
+    int newNodeInsertIndex = firstChildEndingAtOrAfter(children, newNodeStartPos);
+    // Go through the remaining children once, from first to last and collect special nodes and indexes.
     // The newNodeInsertIndex points to the current child.
-    for (SmaxElement child : subRoot.getChildren()) {
+    for (int nrChildren = children.size(); newNodeInsertIndex < nrChildren; ) {
+      SmaxElement child = children.get(newNodeInsertIndex);
       int childStartPos = child.getStartPos();
       int childEndPos = child.getEndPos();
       boolean childIsEmpty = childEndPos == childStartPos;
@@ -482,6 +611,182 @@ public class SmaxDocument {
     }
   }
 
+  /**
+   * Find the first child that ends at or after a given position, using binary search.
+   * Children are in document order and do not overlap, so their end positions are non-decreasing.
+   * @param children the children of an element, in document order.
+   * @param pos absolute character position
+   * @return the index of the first child whose {@code endPos} is not before {@code pos}, or the number of children if there is none.
+   */
+  private static int firstChildEndingAtOrAfter(List<SmaxElement> children, int pos) {
+    if (!(children instanceof RandomAccess)) {
+      // Binary search would be slower than a linear scan.
+      return 0;
+    }
+    int low = 0;
+    int high = children.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (children.get(mid).getEndPos() < pos) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Insert text into the content of the document, and shift the positions of the markup.
+   * The text is inserted after elements that end at {@code pos}, and at the start of elements that start at {@code pos}.
+   * The root element always contains all of the content.
+   * @param pos position of the inserted text, relative to the content of the SmaxDocument.
+   * @param text the inserted text.
+   */
+  public void insertText(int pos, CharSequence text) {
+    applyTextEdits(new TextEdits().insert(pos, text));
+  }
+
+  /**
+   * Delete text from the content of the document, and shift the positions of the markup.
+   * Elements that are completely within the deleted text become empty.
+   * @param startPos start position of the deleted text, relative to the content of the SmaxDocument.
+   * @param endPos end position of the deleted text, relative to the content of the SmaxDocument.
+   */
+  public void deleteText(int startPos, int endPos) {
+    applyTextEdits(new TextEdits().delete(startPos, endPos));
+  }
+
+  /**
+   * Replace text in the content of the document, and shift the positions of the markup.
+   * @param startPos start position of the replaced text, relative to the content of the SmaxDocument.
+   * @param endPos end position of the replaced text, relative to the content of the SmaxDocument.
+   * @param text the replacement text.
+   */
+  public void replaceText(int startPos, int endPos, CharSequence text) {
+    applyTextEdits(new TextEdits().replace(startPos, endPos, text));
+  }
+
+  /**
+   * Apply text edits to the content of the document, and shift the positions of the markup.
+   *<p>
+   * The content is changed once, for the range from the first to the last edit.
+   * The positions in the markup are changed by a monotone mapping from old to new positions:
+   * A position before an edit does not change, a position after an edit shifts by the change in length,
+   * and a position inside a replaced range keeps its offset in the replacement text, as far as the replacement text goes.
+   * Elements that end before the first edit are not visited.
+   * Applying many edits together is much faster than applying them one by one,
+   * because the content and the markup are traversed only once.
+   * @param edits the text edits.
+   * @throws IndexOutOfBoundsException if an edit is not within the content of the document.
+   * @throws IllegalArgumentException if edits overlap.
+   * @throws UnsupportedOperationException if this document is a sub-document view, made by {@code subDocument}.
+   */
+  public void applyTextEdits(TextEdits edits) {
+    if (isView) {
+      throw new UnsupportedOperationException("The text of a sub-document cannot be edited, because the positions of elements outside of it would not be shifted.");
+    }
+    List<TextEdits.Edit> sortedEdits = edits.sortedEdits();
+    int nrEdits = sortedEdits.size();
+    if (nrEdits == 0) {
+      return;
+    }
+    int firstStart = sortedEdits.get(0).startPos;
+    int lastEnd = sortedEdits.get(nrEdits - 1).endPos;
+    if (lastEnd > content.length()) {
+      throw new IndexOutOfBoundsException("The text edit at "+sortedEdits.get(nrEdits - 1).startPos+".."+lastEnd+
+          " is outside the content, which has length "+content.length());
+    }
+    // Build the new text between the start of the first edit and the end of the last edit.
+    StringBuilder replacement = new StringBuilder();
+    PositionMap positionMap = new PositionMap(nrEdits);
+    int offset = markup.getStartPos();
+    int delta = 0;
+    for (int i = 0; i < nrEdits; ++i) {
+      TextEdits.Edit edit = sortedEdits.get(i);
+      if (i > 0) {
+        replacement.append(content.substring(sortedEdits.get(i - 1).endPos, edit.startPos));
+      }
+      replacement.append(edit.text);
+      delta += edit.text.length() - (edit.endPos - edit.startPos);
+      positionMap.starts[i] = offset + edit.startPos;
+      positionMap.ends[i] = offset + edit.endPos;
+      positionMap.newLengths[i] = edit.text.length();
+      positionMap.deltas[i] = delta;
+    }
+    content.replace(firstStart, lastEnd, replacement.toString());
+    // Shift the positions in the markup. The root element always contains the complete content.
+    shiftPositions(markup, positionMap);
+    markup.setEndPos(markup.getEndPos() + delta);
+  }
+
+  /**
+   * Shift the positions of the descendants of an element, without recursion.
+   * Children that end at or before the first edit are skipped, because none of their positions change.
+   * @param element
+   * @param positionMap
+   */
+  private static void shiftPositions(SmaxElement element, PositionMap positionMap) {
+    int minEndPos = positionMap.starts[0] + 1;
+    Deque<SmaxElement> stack = new ArrayDeque<>();
+    stack.push(element);
+    while (!stack.isEmpty()) {
+      SmaxElement next = stack.pop();
+      List<SmaxElement> children = next.childList();
+      // The children still have their old positions, because they are shifted when they are popped.
+      for (int i = firstChildEndingAtOrAfter(children, minEndPos), nrChildren = children.size(); i < nrChildren; ++i) {
+        stack.push(children.get(i));
+      }
+      if (next != element) {
+        next.shiftPositions(positionMap.map(next.getStartPos()), positionMap.map(next.getEndPos()));
+      }
+    }
+  }
+
+  /**
+   * The mapping from old to new positions for a set of sorted, non-overlapping text edits.
+   */
+  private static final class PositionMap {
+    final int[] starts; // Absolute start positions of the edits.
+    final int[] ends; // Absolute end positions of the edits.
+    final int[] newLengths; // Lengths of the replacement texts.
+    final int[] deltas; // The total change in length, up to and including each edit.
+
+    PositionMap(int nrEdits) {
+      starts = new int[nrEdits];
+      ends = new int[nrEdits];
+      newLengths = new int[nrEdits];
+      deltas = new int[nrEdits];
+    }
+
+    /**
+     * @param pos an absolute position before the edits.
+     * @return the absolute position after the edits.
+     */
+    int map(int pos) {
+      // Find the last edit that starts before pos, using binary search.
+      int low = 0;
+      int high = starts.length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (starts[mid] < pos) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      int i = low - 1;
+      if (i < 0) {
+        return pos;
+      } else if (pos >= ends[i]) {
+        return pos + deltas[i];
+      } else {
+        int deltaBefore = i == 0 ? 0 : deltas[i - 1];
+        return starts[i] + deltaBefore + Math.min(pos - starts[i], newLengths[i]);
+      }
+    }
+  }
+
   /**
    * Merge the markup from the {@code newMarkup} document into the markup of the {@code oldMarkup} document.
    * This only works if both documents have exactly the same {@code SmaxContent}, so their text content is the same.
@@ -499,14 +804,54 @@ public class SmaxDocument {
   }
 
   /**
-   * Recursively insert {@code newElement} and its children into {@code oldMarkup}.
+   * Insert {@code newElement} and its descendants into the markup.
+   * The result is the same as calling {@code insertMarkup(element, balancing)} for every element, in document order.
+   * The elements are inserted by {@code insertMarkupAll}, so each insertion starts near the previously inserted element,
+   * instead of descending from the root.
    * @param newElement the new markup that will be merged into the existing markup.
    * @param balancing the balancing strategy for intersecting nodes.
    * The caller is responsible for ensuring that newElement is defined on the same content as the current document.
    */
   public void mergeMarkup(SmaxElement newElement, Balancing balancing) {
-    this.insertMarkup(newElement, balancing);
-    newElement.getChildren().forEach(child -> mergeMarkup(child, balancing));
+    List<SmaxElement> newElements = new ArrayList<>();
+    addInPreOrder(newElement, newElements);
+    insertMarkupAll(newElements, balancing);
+  }
+
+  /**
+   * Insert several layers of markup into the markup, such as the outputs of several annotators over the same content.
+   * The result is the same as calling {@code mergeMarkup(layer, balancing)} for every layer, in the order of the list,
+   * but all elements are inserted in one pass by {@code insertMarkupAll}.
+   * The elements of the layers are not interleaved by start position, because the balancing of an element depends on the markup
+   * that is already there, so the result would depend on the order in which the elements of different layers are inserted.
+   * @param newLayers the roots of the new markup layers.
+   * @param balancing the balancing strategy for intersecting nodes.
+   * The caller is responsible for ensuring that the layers are defined on the same content as the current document.
+   */
+  public void mergeMarkupLayers(List<SmaxElement> newLayers, Balancing balancing) {
+    List<SmaxElement> newElements = new ArrayList<>();
+    for (SmaxElement layer : newLayers) {
+      addInPreOrder(layer, newElements);
+    }
+    insertMarkupAll(newElements, balancing);
+  }
+
+  /**
+   * Add an element and its descendants to a list, in document order, without recursion.
+   * @param element
+   * @param elements
+   */
+  private static void addInPreOrder(SmaxElement element, List<SmaxElement> elements) {
+    Deque<SmaxElement> stack = new ArrayDeque<>();
+    stack.push(element);
+    while (!stack.isEmpty()) {
+      SmaxElement next = stack.pop();
+      elements.add(next);
+      List<SmaxElement> children = next.childList();
+      for (int i = children.size() - 1; i >= 0; --i) {
+        stack.push(children.get(i));
+      }
+    }
   }
 
 }
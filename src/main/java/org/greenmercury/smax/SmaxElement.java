@@ -1,11 +1,16 @@
 package org.greenmercury.smax;
 
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
 
-import org.greenmercury.smax.SmaxAttributes.SmaxAttr;
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
@@ -25,11 +30,10 @@ import org.xml.sax.Attributes;
 public class SmaxElement implements org.w3c.dom.Element {
   /**
    * The usual properties of an XML element.
+   * The name is interned, so elements with the same name share it.
+   * The attributes are null until they are needed, because most elements in a SMAX document have no attributes.
    */
-  private String namespaceUri;
-  private String namespacePrefix;
-  private String localName;
-  private String qualifiedName;
+  private SmaxName name;
   private SmaxAttributes attributes;
 
   /**
@@ -38,6 +42,12 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   private NamespacePrefixMapping[] namespacePrefixMappings;
 
+  /**
+   * The namespace prefix mappings that are in scope on this element, or null if they have not been looked up.
+   * If an element has a scope, so do all of its ancestors. This lets {@code forgetNamespaceScopes} skip sub-trees without scopes.
+   */
+  private NamespaceScope namespaceScope;
+
   /**
    * The start and end character position of the node.
    * These are int, because the capacity of a StringBuffer (used for text content in SmaxDocument) is int.
@@ -57,8 +67,30 @@ public class SmaxElement implements org.w3c.dom.Element {
    * There are no other children in the markup tree, such as text nodes or comments.
    * They are ordered according to document order.
    * Their startPos - endPos ranges do not overlap.
+   * An element without children shares the immutable {@code NO_CHILDREN} list, which is replaced when the first child is added.
    */
   private List<SmaxElement> children;
+  private static final List<SmaxElement> NO_CHILDREN = Collections.emptyList();
+
+  /**
+   * The index of this element in the children of its parent, or -1 if it is not known.
+   * This is a hint, which is checked by {@code getIndexInParent}.
+   * When children are inserted or removed, the hints of the following siblings are not updated,
+   * but they will be repaired all at once when one of them is found to be out of date.
+   */
+  private int indexInParent = -1;
+
+  /**
+   * The number of changes in the sub-tree of this element.
+   * This is used to find out if an index over the markup is out of date.
+   */
+  private int modCount = 0;
+
+  /**
+   * Whether a change in the sub-tree of this element has been counted since the element was last indexed.
+   * A new element has not been indexed, so it counts as changed.
+   */
+  private boolean changed = true;
 
   /**
    * Constructor for a {@code SmaxElement} without namespace, and without attributes.
@@ -105,11 +137,20 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @param attributes
    */
   public SmaxElement(String namespaceUri, String localName, String qualifiedName, Attributes attributes) {
-    setName(namespaceUri, localName, qualifiedName);
+    this(SmaxName.of(namespaceUri, localName, qualifiedName), attributes);
+  }
+
+  /**
+   * Constructor for a {@code SmaxElement} with an interned name.
+   * @param name
+   * @param attributes
+   */
+  public SmaxElement(SmaxName name, Attributes attributes) {
+    this.name = name;
     setAttributes(attributes);
     startPos = 0;
     endPos = 0;
-    children = new ArrayList<>();
+    children = NO_CHILDREN;
   }
 
   /**
@@ -118,7 +159,7 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @return a copy of the {@code SmaxElement} that can be changed without affecting the original.
    */
   public SmaxElement shallowCopy() {
-    return new SmaxElement(namespaceUri, localName, qualifiedName, attributes);
+    return new SmaxElement(name, attributes);
   }
 
   /**
@@ -135,6 +176,7 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   public SmaxElement setStartPos(int startPos) {
     this.startPos = startPos;
+    markModified();
     return this;
   }
 
@@ -152,21 +194,70 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   public SmaxElement setEndPos(int endPos) {
     this.endPos = endPos;
+    markModified();
     return this;
   }
 
+  /**
+   * Set the start and end position of an element whose ancestors will all be changed as well.
+   * This only counts a change in this element, which saves walking up the tree for every element in a bulk change.
+   * @param startPos
+   * @param endPos
+   */
+  void shiftPositions(int startPos, int endPos) {
+    this.startPos = startPos;
+    this.endPos = endPos;
+    ++this.modCount;
+  }
+
+  /**
+   * Get the modification count of this element, for {@code MarkupIndex}.
+   * After an index over this element has been built, the modification count changes when the positions, the name or the children
+   * of this element or of one of its descendants are changed by methods of {@code SmaxElement} or {@code SmaxDocument}.
+   * Changes made directly to the list returned by {@code getChildren} are not counted.
+   * @return the modification count
+   */
+  int getModCount() {
+    return modCount;
+  }
+
+  /**
+   * Note that this element has been indexed, so that the next change in its sub-tree will be counted by its ancestors.
+   */
+  void markIndexed() {
+    changed = false;
+  }
+
+  /**
+   * Count a change in this element, for this element and its ancestors.
+   * The walk up the tree stops at an element that has counted a change since it was last indexed.
+   * The first change after an index was built has gone all the way up to the root of the index, so the index knows it is out of date.
+   * This makes a series of changes cost little more than one walk up the tree, and building a tree top-down costs no walks at all.
+   */
+  private void markModified() {
+    for (SmaxElement element = this; element != null; element = element.parentNode) {
+      ++element.modCount;
+      if (element.changed) {
+        break;
+      }
+      element.changed = true;
+    }
+  }
+
   /**
    * @return the namespaceUri of this element, or "" (not null) if it is unspecified
    */
   public String getNamespaceUri() {
-    return this.namespaceUri != null ? this.namespaceUri : "";
+    String namespaceUri = name.getNamespaceUri();
+    return namespaceUri != null ? namespaceUri : "";
   }
 
   /**
    * @return the namespacePrefix of this element, or "" (not null) if it is unspecified
    */
   public String getNamespacePrefix() {
-    return this.namespacePrefix != null ? this.namespacePrefix : "";
+    String namespacePrefix = name.getPrefix();
+    return namespacePrefix != null ? namespacePrefix : "";
   }
 
   /**
@@ -174,6 +265,7 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @return whether the element has a namespace prefix.
    */
   public boolean hasNamespacePrefix() {
+    String namespacePrefix = name.getPrefix();
     return namespacePrefix != null && namespacePrefix.length() > 0;
   }
 
@@ -182,14 +274,21 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   @Override
   public String getLocalName() {
-    return localName;
+    return name.getLocalName();
   }
 
   /**
    * @return the qualified name
    */
   public String getQualifiedName() {
-    return qualifiedName;
+    return name.getQualifiedName();
+  }
+
+  /**
+   * @return the interned name
+   */
+  public SmaxName getName() {
+    return name;
   }
 
   /**
@@ -200,10 +299,17 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @return the {@code SmaxElement} itself
    */
   public SmaxElement setName(String namespaceUri, String localName, String qualifiedName) {
-    this.namespaceUri = namespaceUri;
-    this.namespacePrefix = qualifiedName.contains(":") ? qualifiedName.substring(0, qualifiedName.indexOf(':')) : "";
-    this.localName = localName;
-    this.qualifiedName = qualifiedName;
+    return setName(SmaxName.of(namespaceUri, localName, qualifiedName));
+  }
+
+  /**
+   * Set the name of the SmaxElement.
+   * @param name an interned name
+   * @return the {@code SmaxElement} itself
+   */
+  public SmaxElement setName(SmaxName name) {
+    this.name = name;
+    markModified();
     return this;
   }
 
@@ -211,9 +317,14 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @return the attributes
    * Note: An empty namespaceUri, localName or qualifiedName of an attribute is "" rather than null.
    * Some attribute implementations, such as the on in Xerces, would rather have null.
+   * The attributes of an element without attributes are created by the first call of this method.
+   * Use {@code hasAttributes} to avoid that when the attributes are only read.
    */
   @Override
   public SmaxAttributes getAttributes() {
+    if (attributes == null) {
+      attributes = new SmaxAttributes(this);
+    }
     return attributes;
   }
 
@@ -222,8 +333,12 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @return the {@code SmaxElement} itself
    */
   public SmaxElement setAttributes(Attributes attributes) {
-    this.attributes = new SmaxAttributes(this);
-    if (attributes != null) this.attributes.setAttributes(attributes);
+    if (attributes == null || attributes.getLength() == 0) {
+      this.attributes = null;
+    } else {
+      this.attributes = new SmaxAttributes(this);
+      this.attributes.setAttributes(attributes);
+    }
     return this;
   }
 
@@ -253,6 +368,7 @@ public class SmaxElement implements org.w3c.dom.Element {
     if (type == null || type.length() == 0) type = "CDATA";
     if (value == null) value = "";
     // If this attribute already exists, give it another value. Otherwise create it.
+    SmaxAttributes attributes = getAttributes();
     int attrIndex = attributes.getIndex(namespaceUri, localName);
     if (attrIndex < 0) {
       attributes.addAttribute(namespaceUri, localName, qualifiedName, type, value);
@@ -292,12 +408,10 @@ public class SmaxElement implements org.w3c.dom.Element {
           int namespaceCount = this.getNamespacePrefixMappings().length;
           this.namespacePrefixMappings = Arrays.copyOf(namespacePrefixMappings, namespaceCount + 1);
           this.namespacePrefixMappings[namespaceCount] = new NamespacePrefixMapping(localName, value);
+          forgetNamespaceScopes();
           // If this is a new namespace, there may already be an attribute using its prefix.
-          for (int i = 0; i < attributes.getLength(); ++i) {
-            SmaxAttr attr = attributes.item(i);
-            if (localName.equals(attr.getPrefix())) {
-              attr.setNamespaceURI(value);
-            }
+          if (attributes != null) {
+            attributes.setPrefixNamespace(localName, value);
           }
         } else if (!currentNamespaceUri.equals(value)) {
           throw new RuntimeException("The namespace URIs for the prefix '"+prefix+"' are different: '"+currentNamespaceUri+"' and '"+value+"'.");
@@ -332,6 +446,8 @@ public class SmaxElement implements org.w3c.dom.Element {
 
   /**
    * Get the namespace prefix mappings.
+   * If the returned array or its mappings are changed, the changed array must be set with {@code setNamespacePrefixMappings},
+   * so that namespace lookups see the change.
    * @return an array of namespace prefix mappings
    */
   public NamespacePrefixMapping[] getNamespacePrefixMappings() {
@@ -348,9 +464,32 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   public SmaxElement setNamespacePrefixMappings(NamespacePrefixMapping[] namespacePrefixMappings) {
     this.namespacePrefixMappings = namespacePrefixMappings;
+    forgetNamespaceScopes();
     return this;
   }
 
+  /**
+   * Forget the namespace scopes of this element and its descendants, after a change that may alter them.
+   * Descendants of an element without a scope have no scope either, so only elements that have a scope are visited.
+   */
+  private void forgetNamespaceScopes() {
+    Deque<SmaxElement> stack = new ArrayDeque<>();
+    if (namespaceScope != null) {
+      stack.push(this);
+    }
+    while (!stack.isEmpty()) {
+      SmaxElement element = stack.pop();
+      element.namespaceScope = null;
+      if (element.children != null) {
+        for (SmaxElement child : element.children) {
+          if (child.namespaceScope != null) {
+            stack.push(child);
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Look up the prefix associated to the given namespace URI, starting from this node and moving up in the node tree.
    * @param namespaceURI
@@ -358,19 +497,8 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   @Override
   public String lookupPrefix(String namespaceURI) {
-    if (namespacePrefixMappings != null) {
-      for (NamespacePrefixMapping nspMapping : namespacePrefixMappings) {
-        if (namespaceURI.equals(nspMapping.uri)) {
-          // Never allow an empty namespace prefix.
-          return ("".equals(nspMapping.prefix)) ? null : nspMapping.prefix;
-        }
-      }
-    }
-    if (parentNode != null) {
-      return parentNode.lookupPrefix(namespaceURI);
-    } else {
-      return null;
-    }
+    // Never allow an empty namespace prefix.
+    return getNamespaceScope().lookupPrefix(namespaceURI);
   }
 
   /**
@@ -380,18 +508,37 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   @Override
   public String lookupNamespaceURI(String prefix) {
-    if (namespacePrefixMappings != null) {
-      for (NamespacePrefixMapping nspMapping : namespacePrefixMappings) {
-        if (nspMapping.prefix.equals(prefix)) {
-          return nspMapping.uri;
-        }
+    return getNamespaceScope().lookupNamespaceURI(prefix);
+  }
+
+  /**
+   * Get the namespace prefix mappings that are in scope on this element.
+   * If this element has no scope, the scopes of this element and its ancestors are computed downwards
+   * from the nearest ancestor that has a scope, without recursion.
+   * @return the namespace scope
+   */
+  private NamespaceScope getNamespaceScope() {
+    if (namespaceScope != null) {
+      return namespaceScope;
+    }
+    List<SmaxElement> path = new ArrayList<>();
+    NamespaceScope scope = null;
+    for (SmaxElement element = this; element != null && scope == null; element = element.parentNode) {
+      if (element.namespaceScope != null) {
+        scope = element.namespaceScope;
+      } else {
+        path.add(element);
       }
     }
-    if (parentNode != null) {
-      return parentNode.lookupNamespaceURI(prefix);
-    } else {
-      return null;
+    if (scope == null) {
+      scope = NamespaceScope.empty();
+    }
+    for (int i = path.size() - 1; i >= 0; --i) {
+      SmaxElement element = path.get(i);
+      scope = scope.with(element.namespacePrefixMappings);
+      element.namespaceScope = scope;
     }
+    return scope;
   }
 
   /**
@@ -410,24 +557,109 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @return the {@code SmaxElement} itself
    */
   protected SmaxElement setParentNode(SmaxElement parentNode) {
+    if (this.namespaceScope != null && this.parentNode != parentNode) {
+      // This element, and maybe its descendants, have a namespace scope that may depend on the old parent.
+      forgetNamespaceScopes();
+    }
     this.parentNode = parentNode;
     return this;
   }
 
   /**
-   * Get the index of this node in its parent.
-   * @return the index of this node in its parent, or -1 if it has no parent.
+   * Get the index of this node in its parent.
+   * This takes constant time, except after children of the parent have been inserted or removed.
+   * @return the index of this node in its parent, or -1 if it has no parent.
    */
   public int getIndexInParent() {
     if (this.parentNode == null) return -1;
-    return this.parentNode.children.indexOf(this);
+    List<SmaxElement> siblings = this.parentNode.children;
+    if (indexInParent < 0 || indexInParent >= siblings.size() || siblings.get(indexInParent) != this) {
+      // The index hint is out of date, so renumber all siblings.
+      this.parentNode.renumberChildren();
+      if (indexInParent < 0 || indexInParent >= siblings.size() || siblings.get(indexInParent) != this) {
+        return -1;
+      }
+    }
+    return indexInParent;
+  }
+
+  /**
+   * Set the index hints of all children of this node.
+   */
+  private void renumberChildren() {
+    int index = 0;
+    for (SmaxElement child : this.children) {
+      child.indexInParent = index++;
+    }
+  }
+
+  /**
+   * Get the index of a child node.
+   * @param child a node, which may or may not be a child of this element.
+   * @return the index of {@code child} in the children of this element, or -1 if it is not a child.
+   */
+  private int indexOfChild(Node child) {
+    if (child instanceof SmaxElement && ((SmaxElement)child).parentNode == this) {
+      return ((SmaxElement)child).getIndexInParent();
+    }
+    return -1;
   }
 
   /**
    * @return the children of this node in document order
    * Note that this is not a deep copy of the children. If the children change, the result of this function changes.
+   * For an element without children, this makes a new view, so traversals that only read can check {@code hasChildNodes} first.
    */
   public List<SmaxElement> getChildren() {
+    if (this.children == NO_CHILDREN) {
+      return new ChildrenView();
+    }
+    return this.children;
+  }
+
+  /**
+   * Get the children for reading, without making a view for an element without children.
+   * This is for traversals of the markup in this package, which call it for every element.
+   * @return the children of this node in document order, which must not be changed through this list
+   */
+  List<SmaxElement> childList() {
+    return this.children;
+  }
+
+  /**
+   * The children of an element that had no children when {@code getChildren} was called.
+   * Reading goes to the current children, and the first change replaces {@code NO_CHILDREN} by a modifiable list.
+   */
+  private final class ChildrenView extends AbstractList<SmaxElement> implements RandomAccess {
+    @Override
+    public SmaxElement get(int index) {
+      return children.get(index);
+    }
+    @Override
+    public int size() {
+      return children.size();
+    }
+    @Override
+    public SmaxElement set(int index, SmaxElement element) {
+      return modifiableChildren().set(index, element);
+    }
+    @Override
+    public void add(int index, SmaxElement element) {
+      modifiableChildren().add(index, element);
+    }
+    @Override
+    public SmaxElement remove(int index) {
+      return modifiableChildren().remove(index);
+    }
+  }
+
+  /**
+   * @return the children of this element, in a list that can be changed
+   */
+  private List<SmaxElement> modifiableChildren() {
+    if (this.children == NO_CHILDREN) {
+      this.children = new ArrayList<>();
+    }
     return this.children;
   }
 
@@ -446,10 +678,13 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @return the {@code SmaxElement} itself
    */
   public SmaxElement setChildren(List<SmaxElement> children) {
+    int index = 0;
     for (SmaxElement child : children) {
       child.setParentNode(this);
+      child.indexInParent = index++;
     }
     this.children = children;
+    markModified();
     return this;
   }
 
@@ -460,7 +695,9 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   public SmaxElement appendChild(SmaxElement child) {
     child.setParentNode(this);
-    this.children.add(child);
+    child.indexInParent = this.children.size();
+    modifiableChildren().add(child);
+    markModified();
     return this;
   }
 
@@ -472,7 +709,9 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   public SmaxElement insertChild(int index, SmaxElement child) {
     child.setParentNode(this);
-    children.add(index, child);
+    child.indexInParent = index;
+    modifiableChildren().add(index, child);
+    markModified();
     return this;
   }
 
@@ -487,7 +726,9 @@ public class SmaxElement implements org.w3c.dom.Element {
     children.subList(fromIndex, toIndex).clear();
     for (SmaxElement orphan : orphans) {
       orphan.setParentNode(null);
+      orphan.indexInParent = -1;
     }
+    markModified();
     return orphans;
   }
 
@@ -498,9 +739,12 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @param fromIndex
    * @param toIndex
    */
-  public void insertAdoptingChild(SmaxElement child, int fromIndex, int toIndex) {
-    child.setChildren(this.removeChildren(fromIndex, toIndex));
-    this.insertChild(fromIndex, child);
+  public void insertAdoptingChild(SmaxElement child, int fromIndex, int toIndex) {
+    // The adopted children move directly to their new parent, without being detached in between.
+    List<SmaxElement> adopted = modifiableChildren().subList(fromIndex, toIndex);
+    child.setChildren(new ArrayList<>(adopted));
+    adopted.clear();
+    this.insertChild(fromIndex, child);
   }
 
   /** Get the next sibling element in document order.
@@ -548,7 +792,7 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   @Override
   public String toString() {
-    return "<" + qualifiedName + " @" + startPos + ".." + endPos + ">";
+    return "<" + name.getQualifiedName() + " @" + startPos + ".." + endPos + ">";
   }
 
   /**
@@ -576,10 +820,11 @@ public class SmaxElement implements org.w3c.dom.Element {
    * @return whether the name and attributes of this element match with those of the {@code pattern}.
    */
   public boolean matches(SmaxElement pattern) {
-    Attributes na = getAttributes();
-    return this.getNamespaceUri().equals(pattern.getNamespaceUri()) &&
-           this.getLocalName().equals(pattern.getLocalName()) &&
-           Attribute.stream(pattern.getAttributes())
+    if (!this.name.hasSameExpandedName(pattern.name)) return false;
+    if (!pattern.hasAttributes()) return true;
+    if (!this.hasAttributes()) return false;
+    Attributes na = this.attributes;
+    return Attribute.stream(pattern.attributes)
              .allMatch(pa -> pa.getValue().equals(na.getValue(pa.getURI(), pa.getLocalName())));
   }
 
@@ -588,7 +833,7 @@ public class SmaxElement implements org.w3c.dom.Element {
 
   @Override
   public String getNodeName() {
-    return qualifiedName;
+    return name.getQualifiedName();
   }
 
   @Override
@@ -620,11 +865,13 @@ public class SmaxElement implements org.w3c.dom.Element {
 
   @Override
   public Node getFirstChild() {
+    if (this.children.isEmpty()) return null;
     return this.children.get(0);
   }
 
   @Override
   public Node getLastChild() {
+    if (this.children.isEmpty()) return null;
     return this.children.get(this.children.size() - 1);
   }
 
@@ -656,7 +903,10 @@ public class SmaxElement implements org.w3c.dom.Element {
 
   @Override
   public Node insertBefore(Node newChild, Node refChild) throws DOMException {
-    int refIndex = this.children.indexOf(refChild);
+    if (refChild == null) {
+      return this.appendChild(newChild);
+    }
+    int refIndex = this.indexOfChild(refChild);
     if (refIndex < 0) throw new DOMException(DOMException.NOT_FOUND_ERR, "The reference child is not a child of this element.");
     if (newChild instanceof SmaxElement) {
       this.insertChild(refIndex, (SmaxElement)newChild);
@@ -668,10 +918,10 @@ public class SmaxElement implements org.w3c.dom.Element {
 
   @Override
   public Node replaceChild(Node newChild, Node oldChild) throws DOMException {
-    int refIndex = this.children.indexOf(oldChild);
+    int refIndex = this.indexOfChild(oldChild);
     if (refIndex < 0) throw new DOMException(DOMException.NOT_FOUND_ERR, "The old child is not a child of this element.");
     if (newChild instanceof SmaxElement) {
-      this.removeChildren(refIndex, refIndex);
+      this.removeChildren(refIndex, refIndex + 1);
       this.insertChild(refIndex, (SmaxElement)newChild);
       return oldChild;
     } else {
@@ -681,9 +931,9 @@ public class SmaxElement implements org.w3c.dom.Element {
 
   @Override
   public Node removeChild(Node oldChild) throws DOMException {
-    int refIndex = this.children.indexOf(oldChild);
+    int refIndex = this.indexOfChild(oldChild);
     if (refIndex < 0) throw new DOMException(DOMException.NOT_FOUND_ERR, "The old child is not a child of this element.");
-    this.removeChildren(refIndex, refIndex);
+    this.removeChildren(refIndex, refIndex + 1);
     return oldChild;
   }
 
@@ -705,7 +955,7 @@ public class SmaxElement implements org.w3c.dom.Element {
   @Override
   public Node cloneNode(boolean deep) {
     if (deep) throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Not implemented.");
-    return new SmaxElement(this.namespaceUri, this.localName, this.qualifiedName, this.attributes);
+    return new SmaxElement(this.name, this.attributes);
   }
 
   @Override
@@ -723,7 +973,7 @@ public class SmaxElement implements org.w3c.dom.Element {
    */
   @Override
   public String getNamespaceURI() {
-    return this.namespaceUri;
+    return name.getNamespaceUri();
   }
 
   @Override
@@ -733,12 +983,12 @@ public class SmaxElement implements org.w3c.dom.Element {
 
   @Override
   public void setPrefix(String prefix) throws DOMException {
-    this.namespacePrefix = prefix;
+    this.name = name.withPrefix(prefix);
   }
 
   @Override
   public boolean hasAttributes() {
-    return this.attributes.getLength() > 0;
+    return this.attributes != null && this.attributes.getLength() > 0;
   }
 
   @Override
@@ -793,42 +1043,43 @@ public class SmaxElement implements org.w3c.dom.Element {
 
   @Override
   public String getTagName() {
-    return this.qualifiedName;
+    return name.getQualifiedName();
   }
 
   @Override
   public String getAttribute(String name) {
-    return this.attributes.getValue(name);
+    return this.attributes == null ? null : this.attributes.getValue(name);
   }
 
   @Override
   public void removeAttribute(String name) throws DOMException {
-    this.attributes.removeNamedItem(name);
+    getAttributes().removeNamedItem(name);
   }
 
   @Override
   public Attr getAttributeNode(String name) {
-    return this.attributes.getNamedItem(name);
+    return this.attributes == null ? null : this.attributes.getNamedItem(name);
   }
 
   @Override
   public Attr setAttributeNode(Attr newAttr) throws DOMException {
-    return this.attributes.setNamedItem(newAttr);
+    return getAttributes().setNamedItem(newAttr);
   }
 
   @Override
   public Attr removeAttributeNode(Attr oldAttr) throws DOMException {
-    return this.attributes.removeNamedItemNS(oldAttr.getNamespaceURI(), oldAttr.getLocalName());
+    return getAttributes().removeNamedItemNS(oldAttr.getNamespaceURI(), oldAttr.getLocalName());
   }
 
   @Override
   public NodeList getElementsByTagName(String name) {
-    throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Not implemented.");
+    boolean any = "*".equals(name);
+    return descendantsMatching(element -> any || element.name.getQualifiedName().equals(name));
   }
 
   @Override
   public String getAttributeNS(String namespaceURI, String localName) throws DOMException {
-    return this.attributes.getValue(namespaceURI, localName);
+    return this.attributes == null ? null : this.attributes.getValue(namespaceURI, localName);
   }
 
   @Override
@@ -846,32 +1097,73 @@ public class SmaxElement implements org.w3c.dom.Element {
 
   @Override
   public void removeAttributeNS(String namespaceURI, String localName) throws DOMException {
-    this.attributes.removeNamedItemNS(namespaceURI, localName);
+    getAttributes().removeNamedItemNS(namespaceURI, localName);
   }
 
   @Override
   public Attr getAttributeNodeNS(String namespaceURI, String localName) throws DOMException {
-    return this.attributes.getNamedItemNS(namespaceURI, localName);
+    return this.attributes == null ? null : this.attributes.getNamedItemNS(namespaceURI, localName);
   }
 
   @Override
   public Attr setAttributeNodeNS(Attr newAttr) throws DOMException {
-    return this.attributes.setNamedItemNS(newAttr);
+    return getAttributes().setNamedItemNS(newAttr);
   }
 
   @Override
   public NodeList getElementsByTagNameNS(String namespaceURI, String localName) throws DOMException {
-    throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Not implemented.");
+    boolean anyNamespace = "*".equals(namespaceURI);
+    boolean anyLocalName = "*".equals(localName);
+    boolean anyName = anyNamespace || anyLocalName;
+    // A name that is not in the pool is not the name of any element, and is not added to the pool.
+    SmaxName expandedName = anyName ? null : SmaxName.findExpandedName(namespaceURI, localName);
+    String uri = namespaceURI == null ? "" : namespaceURI;
+    return descendantsMatching(element -> !anyName ? element.name.getExpandedName() == expandedName :
+      (anyNamespace || uri.equals(element.getNamespaceUri())) && (anyLocalName || localName.equals(element.getLocalName())));
+  }
+
+  /**
+   * Find the descendants of this element that satisfy a condition, in document order.
+   * Unlike the DOM, the resulting {@code NodeList} is not live. It does not follow changes to the markup.
+   * An element has no reference to its document, so this walks the sub-tree. Use {@code SmaxDocument.getElementsByTagName}
+   * to find elements in a whole document through its markup index.
+   * @param condition
+   * @return the descendants that satisfy {@code condition}
+   */
+  private NodeList descendantsMatching(Predicate<SmaxElement> condition) {
+    List<SmaxElement> result = new ArrayList<>();
+    Deque<SmaxElement> stack = new ArrayDeque<>();
+    for (int i = this.children.size() - 1; i >= 0; --i) {
+      stack.push(this.children.get(i));
+    }
+    while (!stack.isEmpty()) {
+      SmaxElement element = stack.pop();
+      if (condition.test(element)) {
+        result.add(element);
+      }
+      for (int i = element.children.size() - 1; i >= 0; --i) {
+        stack.push(element.children.get(i));
+      }
+    }
+    return new NodeList() {
+      @Override
+      public Node item(int index) {
+        return index >= 0 && index < result.size() ? result.get(index) : null;
+      }
+      @Override
+      public int getLength() {
+        return result.size();
+      }};
   }
 
   @Override
   public boolean hasAttribute(String name) {
-    return this.attributes.getIndex(name) > 0;
+    return this.attributes != null && this.attributes.getIndex(name) >= 0;
   }
 
   @Override
   public boolean hasAttributeNS(String namespaceURI, String localName) throws DOMException {
-    return this.attributes.getIndex(namespaceURI, localName) > 0;
+    return this.attributes != null && this.attributes.getIndex(namespaceURI, localName) >= 0;
   }
 
   @Override
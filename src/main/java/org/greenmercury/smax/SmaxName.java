@@ -0,0 +1,196 @@
+package org.greenmercury.smax;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The name of an element or attribute, with its namespace URI, namespace prefix, local name and qualified name.
+ *<p>
+ * Names are interned in a pool that is shared by all documents: there is only one {@code SmaxName} for every combination of
+ * namespace URI, prefix, local name and qualified name, so names can be compared with {@code ==}.
+ * Elements and attributes with the same name share the same strings, which saves a lot of memory for repetitive markup.
+ * Names are never removed from the pool, which is fine for the limited set of names in an XML vocabulary.
+ *<p>
+ * Names with different prefixes may have the same expanded name, which is the combination of namespace URI and local name.
+ * The expanded name is also interned, so {@code hasSameExpandedName} only compares references.
+ *<p>
+ * @author Rakensi
+ */
+public final class SmaxName {
+
+  private static final ConcurrentMap<SmaxName, SmaxName> pool = new ConcurrentHashMap<>();
+
+  /**
+   * Recently used names, by the hash code of their qualified name, which are found without looking in the pool.
+   * Threads may overwrite each other's entries, which is harmless because names are immutable.
+   */
+  private static final int RECENT_SIZE = 256;
+  private static final SmaxName[] recent = new SmaxName[RECENT_SIZE];
+
+  private final String namespaceUri;
+  private final String prefix;
+  private final String localName;
+  private final String qualifiedName;
+  private final int hashCode;
+
+  /**
+   * The name without prefix, with "" instead of a null namespace URI, that represents the expanded name.
+   */
+  private final SmaxName expandedName;
+
+  private SmaxName(String namespaceUri, String prefix, String localName, String qualifiedName, SmaxName expandedName) {
+    this.namespaceUri = namespaceUri;
+    this.prefix = prefix;
+    this.localName = localName;
+    this.qualifiedName = qualifiedName;
+    this.hashCode = hashCode(namespaceUri, prefix, localName, qualifiedName);
+    this.expandedName = expandedName != null ? expandedName : this;
+  }
+
+  /**
+   * Get the interned name with a namespace URI, a local name and a qualified name.
+   * The prefix is the part of the qualified name before the colon, or "" if there is no colon.
+   * @param namespaceUri the namespace URI, which may be null
+   * @param localName
+   * @param qualifiedName
+   * @return the interned {@code SmaxName}
+   */
+  public static SmaxName of(String namespaceUri, String localName, String qualifiedName) {
+    int colon = qualifiedName.indexOf(':');
+    return of(namespaceUri, colon >= 0 ? qualifiedName.substring(0, colon) : "", localName, qualifiedName);
+  }
+
+  /**
+   * Get the interned name with a namespace URI and a qualified name.
+   * The local name is the part of the qualified name after the colon.
+   * @param namespaceUri the namespace URI, which may be null
+   * @param qualifiedName
+   * @return the interned {@code SmaxName}
+   */
+  public static SmaxName of(String namespaceUri, String qualifiedName) {
+    int colon = qualifiedName.indexOf(':');
+    return colon >= 0 ? of(namespaceUri, qualifiedName.substring(0, colon), qualifiedName.substring(colon + 1), qualifiedName)
+                      : of(namespaceUri, "", qualifiedName, qualifiedName);
+  }
+
+  /**
+   * Find the interned expanded name of a namespace URI and local name, without adding it to the pool.
+   * This is for looking up names that come from a caller, which should not fill the pool with names that are not used.
+   * @param namespaceUri the namespace URI, which may be null
+   * @param localName
+   * @return the interned expanded name, or null if no name with this expanded name has been interned
+   */
+  static SmaxName findExpandedName(String namespaceUri, String localName) {
+    return pool.get(new SmaxName(namespaceUri != null ? namespaceUri : "", "", localName, localName, null));
+  }
+
+  private static SmaxName of(String namespaceUri, String prefix, String localName, String qualifiedName) {
+    int slot = qualifiedName.hashCode() & (RECENT_SIZE - 1);
+    SmaxName name = recent[slot];
+    if (name != null && name.is(namespaceUri, prefix, localName, qualifiedName)) {
+      return name;
+    }
+    SmaxName probe = new SmaxName(namespaceUri, prefix, localName, qualifiedName, null);
+    name = pool.get(probe);
+    if (name == null) {
+      boolean isExpandedName = namespaceUri != null && "".equals(prefix) && localName.equals(qualifiedName);
+      name = isExpandedName ? probe : new SmaxName(namespaceUri, prefix, localName, qualifiedName,
+          of(namespaceUri != null ? namespaceUri : "", "", localName, localName));
+      SmaxName existing = pool.putIfAbsent(name, name);
+      if (existing != null) {
+        name = existing;
+      }
+    }
+    recent[slot] = name;
+    return name;
+  }
+
+  private boolean is(String namespaceUri, String prefix, String localName, String qualifiedName) {
+    return this.qualifiedName.equals(qualifiedName) && this.localName.equals(localName) &&
+        Objects.equals(this.namespaceUri, namespaceUri) && Objects.equals(this.prefix, prefix);
+  }
+
+  private static int hashCode(String namespaceUri, String prefix, String localName, String qualifiedName) {
+    int hash = Objects.hashCode(namespaceUri);
+    hash = 31 * hash + Objects.hashCode(prefix);
+    hash = 31 * hash + localName.hashCode();
+    return 31 * hash + qualifiedName.hashCode();
+  }
+
+  /**
+   * @return the namespace URI, which may be null
+   */
+  public String getNamespaceUri() {
+    return namespaceUri;
+  }
+
+  /**
+   * @return the namespace prefix, which may be null
+   */
+  public String getPrefix() {
+    return prefix;
+  }
+
+  /**
+   * @return the local name
+   */
+  public String getLocalName() {
+    return localName;
+  }
+
+  /**
+   * @return the qualified name
+   */
+  public String getQualifiedName() {
+    return qualifiedName;
+  }
+
+  /**
+   * Get the same name with a different prefix. The qualified name is not changed.
+   * @param prefix the new prefix
+   * @return the interned {@code SmaxName}
+   */
+  public SmaxName withPrefix(String prefix) {
+    return Objects.equals(prefix, this.prefix) ? this : of(namespaceUri, prefix, localName, qualifiedName);
+  }
+
+  /**
+   * @return the interned name without prefix and with a non-null namespace URI, which stands for the expanded name of this name
+   */
+  public SmaxName getExpandedName() {
+    return expandedName;
+  }
+
+  /**
+   * Find out if this name has the same namespace URI and local name as another name, where a null namespace URI is the same as "".
+   * @param other
+   * @return whether the expanded names are the same
+   */
+  public boolean hasSameExpandedName(SmaxName other) {
+    return expandedName == other.expandedName;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof SmaxName)) {
+      return false;
+    }
+    SmaxName name = (SmaxName) other;
+    return hashCode == name.hashCode && is(name.namespaceUri, name.prefix, name.localName, name.qualifiedName);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    return namespaceUri != null && namespaceUri.length() > 0 ? "{" + namespaceUri + "}" + qualifiedName : qualifiedName;
+  }
+
+}
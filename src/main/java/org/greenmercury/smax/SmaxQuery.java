@@ -0,0 +1,707 @@
+package org.greenmercury.smax;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled query that selects elements from the markup of a {@code SmaxDocument}.
+ *<p>
+ * The query language is a subset of XPath, with predicates for the character ranges of SMAX elements. For example,
+ * <pre>
+ *   //section[@type = 'x']//term[overlaps($start, $end)]
+ * </pre>
+ * selects all {@code term} elements inside a {@code section} with {@code type="x"} that overlap the range from {@code $start} to {@code $end}.
+ * The supported syntax is:
+ * <ul>
+ *   <li>Paths of steps separated by {@code /} (child axis) or {@code //} (descendant axis). A path starting with {@code /} or {@code //} is absolute.</li>
+ *   <li>Steps that are a name test, or {@code .} for the context element itself.
+ *     A name test is {@code *}, {@code name}, {@code prefix:name} or {@code prefix:*}.</li>
+ *   <li>Predicates in square brackets after a step, containing
+ *     <ul>
+ *       <li>{@code @name}, which is true if the element has the attribute, {@code @name = 'value'} and {@code @name != 'value'},
+ *         which are false if the element does not have the attribute;</li>
+ *       <li>{@code covers(s, e)}, true if the element contains the range from {@code s} to {@code e}, and {@code covers(p)} for the range from {@code p} to {@code p+1};</li>
+ *       <li>{@code overlaps(s, e)}, true if the element has at least one character in common with the range from {@code s} to {@code e};</li>
+ *       <li>{@code within(s, e)}, true if the element is contained in the range from {@code s} to {@code e};</li>
+ *       <li>a path, which is true if it selects at least one element;</li>
+ *       <li>{@code and}, {@code or}, {@code not(...)} and parentheses.</li>
+ *     </ul>
+ *     The arguments of the range functions are integers or variables, like {@code $start}, of which the values are given when the query is evaluated.
+ *     Positions are relative to the content of the document, like in {@code MarkupIndex}.</li>
+ * </ul>
+ * Other axes, positional predicates and functions are not supported.
+ *<p>
+ * Name prefixes are resolved when the query is compiled, from a map of prefixes to namespace URIs.
+ * The map may bind the "" prefix to a namespace URI for unprefixed element names. Unprefixed attribute names are never in a namespace.
+ *<p>
+ * A query is compiled once, and can be evaluated on many documents, also by several threads at the same time.
+ * It is evaluated on the {@code MarkupIndex} of a document. Descendant steps with a name use the element lists for that name,
+ * and range predicates limit the elements that are considered to those with a start position that can satisfy them.
+ * The selected elements are returned in document order, without duplicates.
+ *<p>
+ * @author Rakensi
+ */
+public final class SmaxQuery {
+
+  /**
+   * The index that stands for the document itself, the parent of the root element, as the context of an absolute path.
+   */
+  private static final int DOCUMENT = -1;
+
+  private final String text;
+  private final Path path;
+
+  private SmaxQuery(String text, Path path) {
+    this.text = text;
+    this.path = path;
+  }
+
+  /**
+   * Compile a query in which no namespace prefixes are used.
+   * @param query the text of the query
+   * @return the compiled query
+   * @throws SmaxException if the query is not valid
+   */
+  public static SmaxQuery compile(String query) throws SmaxException {
+    return compile(query, Collections.emptyMap());
+  }
+
+  /**
+   * Compile a query.
+   * @param query the text of the query
+   * @param namespaces the namespace URI for each prefix that is used in the query
+   * @return the compiled query
+   * @throws SmaxException if the query is not valid, or uses a prefix that is not in {@code namespaces}
+   */
+  public static SmaxQuery compile(String query, Map<String, String> namespaces) throws SmaxException {
+    return new SmaxQuery(query, new Parser(query, namespaces).parseQuery());
+  }
+
+  /**
+   * Select elements from a document, for a query without variables.
+   * A relative path is evaluated with the root element of the document as its context.
+   * @param document
+   * @return the selected elements, in document order
+   */
+  public List<SmaxElement> select(SmaxDocument document) {
+    return select(document, Collections.emptyMap());
+  }
+
+  /**
+   * Select elements from a document.
+   * A relative path is evaluated with the root element of the document as its context.
+   * @param document
+   * @param variables the value of each variable in the query, without the '$'
+   * @return the selected elements, in document order
+   * @throws IllegalArgumentException if a variable that is used in the query has no value
+   */
+  public List<SmaxElement> select(SmaxDocument document, Map<String, Integer> variables) {
+    return select(document, document.getMarkup(), variables);
+  }
+
+  /**
+   * Select elements from a document, starting at a context element.
+   * @param document
+   * @param context the context element for a relative path, which must be in the markup of {@code document}
+   * @param variables the value of each variable in the query, without the '$'
+   * @return the selected elements, in document order
+   * @throws IllegalArgumentException if {@code context} is not in the document, or a variable that is used in the query has no value
+   */
+  public List<SmaxElement> select(SmaxDocument document, SmaxElement context, Map<String, Integer> variables) {
+    MarkupIndex index = document.getMarkupIndex();
+    int contextIndex = index.indexOf(context);
+    if (contextIndex < 0) {
+      throw new IllegalArgumentException("The context element is not in the markup of the document.");
+    }
+    int[] selected = path.evaluate(index, contextIndex, variables);
+    List<SmaxElement> result = new ArrayList<>(selected.length);
+    for (int i : selected) {
+      result.add(index.element(i));
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+
+
+  /* The compiled form of a query. */
+
+  /**
+   * A path of steps, which selects a sorted array of element indexes.
+   */
+  private static final class Path {
+
+    private final boolean absolute;
+    private final Step[] steps;
+
+    Path(boolean absolute, Step[] steps) {
+      this.absolute = absolute;
+      this.steps = steps;
+    }
+
+    int[] evaluate(MarkupIndex index, int contextIndex, Map<String, Integer> variables) {
+      int[] selected = new int[] {absolute ? DOCUMENT : contextIndex};
+      for (int s = 0; s < steps.length && selected.length > 0; ++s) {
+        selected = steps[s].apply(index, selected, variables);
+      }
+      return selected;
+    }
+
+  }
+
+  private enum Axis { SELF, CHILD, DESCENDANT }
+
+  private static final class Step {
+
+    private final Axis axis;
+    private final NameTest nameTest; // null for the self axis.
+    private final Condition[] predicates;
+
+    Step(Axis axis, NameTest nameTest, Condition[] predicates) {
+      this.axis = axis;
+      this.nameTest = nameTest;
+      this.predicates = predicates;
+    }
+
+    /**
+     * @param index
+     * @param context the indexes of the context elements, in document order
+     * @param variables
+     * @return the indexes of the selected elements, in document order
+     */
+    int[] apply(MarkupIndex index, int[] context, Map<String, Integer> variables) {
+      IntList result = new IntList();
+      switch (axis) {
+        case SELF:
+          for (int c : context) {
+            if (c != DOCUMENT && accepts(index, c, variables)) {
+              result.add(c);
+            }
+          }
+          break;
+        case CHILD:
+          for (int c : context) {
+            for (int i = c + 1, end = subtreeEnd(index, c); i < end; i = index.subtreeEnd(i)) {
+              if (accepts(index, i, variables)) {
+                result.add(i);
+              }
+            }
+          }
+          // The children of an element come between the children of its ancestors.
+          if (context.length > 1) {
+            result.sort();
+          }
+          break;
+        case DESCENDANT:
+          descendants(index, context, variables, result);
+          break;
+      }
+      return result.toArray();
+    }
+
+    /**
+     * Select the descendants of the context elements.
+     * The sub-trees of the context elements are ranges of indexes, which are disjoint or nested.
+     */
+    private void descendants(MarkupIndex index, int[] context, Map<String, Integer> variables, IntList result) {
+      int[] startBounds = {Integer.MIN_VALUE, Integer.MAX_VALUE};
+      for (Condition predicate : predicates) {
+        predicate.narrow(startBounds, variables);
+      }
+      if (startBounds[0] >= startBounds[1]) {
+        return;
+      }
+      // Elements in pre-order have non-decreasing start positions, so the bounds on the start position are a range of indexes.
+      int low = startBounds[0] == Integer.MIN_VALUE ? 0 : index.firstStartingAtOrAfter(startBounds[0]);
+      int high = startBounds[1] == Integer.MAX_VALUE ? index.size() : index.firstStartingAtOrAfter(startBounds[1]);
+      int[] named = nameTest.expandedName != null ? index.namedIndexes(nameTest.expandedName) : null;
+      int covered = DOCUMENT;
+      for (int c : context) {
+        if (c < covered) {
+          continue; // The sub-tree of c is inside the sub-tree of an earlier context element.
+        }
+        covered = subtreeEnd(index, c);
+        int from = Math.max(c + 1, low);
+        int to = Math.min(covered, high);
+        if (named != null) {
+          int k = Arrays.binarySearch(named, from);
+          for (k = k < 0 ? -k - 1 : k; k < named.length && named[k] < to; ++k) {
+            if (acceptsPredicates(index, named[k], variables)) {
+              result.add(named[k]);
+            }
+          }
+        } else {
+          for (int i = from; i < to; ++i) {
+            if (accepts(index, i, variables)) {
+              result.add(i);
+            }
+          }
+        }
+      }
+    }
+
+    private static int subtreeEnd(MarkupIndex index, int i) {
+      return i == DOCUMENT ? index.size() : index.subtreeEnd(i);
+    }
+
+    private boolean accepts(MarkupIndex index, int i, Map<String, Integer> variables) {
+      return (nameTest == null || nameTest.matches(index.element(i))) && acceptsPredicates(index, i, variables);
+    }
+
+    private boolean acceptsPredicates(MarkupIndex index, int i, Map<String, Integer> variables) {
+      for (Condition predicate : predicates) {
+        if (!predicate.test(index, i, variables)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+  /**
+   * A test on the name of an element. If both fields are null, any name matches.
+   */
+  private static final class NameTest {
+
+    final SmaxName expandedName;
+    final String namespaceUri; // For a test like prefix:*
+
+    NameTest(SmaxName expandedName, String namespaceUri) {
+      this.expandedName = expandedName;
+      this.namespaceUri = namespaceUri;
+    }
+
+    boolean matches(SmaxElement element) {
+      if (expandedName != null) {
+        return element.getName().getExpandedName() == expandedName;
+      }
+      return namespaceUri == null || namespaceUri.equals(element.getNamespaceUri());
+    }
+
+  }
+
+  /**
+   * A predicate on an element.
+   */
+  private interface Condition {
+
+    boolean test(MarkupIndex index, int i, Map<String, Integer> variables);
+
+    /**
+     * Narrow the range of start positions of elements that can satisfy this condition.
+     * @param startBounds the lowest start position, and the position after the highest start position
+     * @param variables
+     */
+    default void narrow(int[] startBounds, Map<String, Integer> variables) {
+    }
+
+  }
+
+  private static final class And implements Condition {
+
+    private final Condition left;
+    private final Condition right;
+
+    And(Condition left, Condition right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public boolean test(MarkupIndex index, int i, Map<String, Integer> variables) {
+      return left.test(index, i, variables) && right.test(index, i, variables);
+    }
+
+    @Override
+    public void narrow(int[] startBounds, Map<String, Integer> variables) {
+      left.narrow(startBounds, variables);
+      right.narrow(startBounds, variables);
+    }
+
+  }
+
+  private enum RangeFunction {
+    COVERS, OVERLAPS, WITHIN;
+
+    boolean test(int start, int end, int rangeStart, int rangeEnd) {
+      switch (this) {
+        case COVERS: return start <= rangeStart && rangeEnd <= end;
+        case OVERLAPS: return start < rangeEnd && rangeStart < end;
+        default: return rangeStart <= start && end <= rangeEnd;
+      }
+    }
+
+    void narrow(int[] startBounds, int rangeStart, int rangeEnd) {
+      switch (this) {
+        case COVERS:
+          startBounds[1] = Math.min(startBounds[1], rangeStart + 1);
+          break;
+        case OVERLAPS:
+          startBounds[1] = Math.min(startBounds[1], rangeEnd);
+          break;
+        default:
+          startBounds[0] = Math.max(startBounds[0], rangeStart);
+          startBounds[1] = Math.min(startBounds[1], rangeEnd + 1);
+      }
+    }
+  }
+
+  private static final class RangeCondition implements Condition {
+
+    private final RangeFunction function;
+    private final Value rangeStart;
+    private final Value rangeEnd;
+
+    RangeCondition(RangeFunction function, Value rangeStart, Value rangeEnd) {
+      this.function = function;
+      this.rangeStart = rangeStart;
+      this.rangeEnd = rangeEnd;
+    }
+
+    @Override
+    public boolean test(MarkupIndex index, int i, Map<String, Integer> variables) {
+      return function.test(index.start(i), index.end(i), rangeStart.get(variables), rangeEnd.get(variables));
+    }
+
+    @Override
+    public void narrow(int[] startBounds, Map<String, Integer> variables) {
+      function.narrow(startBounds, rangeStart.get(variables), rangeEnd.get(variables));
+    }
+
+  }
+
+  /**
+   * An integer argument of a range function.
+   */
+  private interface Value {
+    int get(Map<String, Integer> variables);
+  }
+
+
+  /* Compiling a query. */
+
+  private static final class Parser {
+
+    private final String text;
+    private final Map<String, String> namespaces;
+    private int pos = 0;
+
+    Parser(String text, Map<String, String> namespaces) {
+      this.text = text;
+      this.namespaces = namespaces;
+    }
+
+    Path parseQuery() throws SmaxException {
+      Path path = parsePath();
+      skipSpace();
+      if (pos < text.length()) {
+        throw error("Unexpected '"+text.charAt(pos)+"'");
+      }
+      return path;
+    }
+
+    private Path parsePath() throws SmaxException {
+      skipSpace();
+      boolean absolute = false;
+      Axis axis = Axis.CHILD;
+      if (consume("//")) {
+        absolute = true;
+        axis = Axis.DESCENDANT;
+      } else if (consume("/")) {
+        absolute = true;
+      }
+      List<Step> steps = new ArrayList<>();
+      while (true) {
+        steps.add(parseStep(axis));
+        skipSpace();
+        if (consume("//")) {
+          axis = Axis.DESCENDANT;
+        } else if (consume("/")) {
+          axis = Axis.CHILD;
+        } else {
+          return new Path(absolute, steps.toArray(new Step[steps.size()]));
+        }
+      }
+    }
+
+    private Step parseStep(Axis axis) throws SmaxException {
+      skipSpace();
+      NameTest nameTest = null;
+      if (consume("..")) {
+        throw error("The parent axis is not supported");
+      } else if (consume(".")) {
+        if (axis == Axis.DESCENDANT) {
+          throw error("'//.' is not supported");
+        }
+        axis = Axis.SELF;
+      } else {
+        nameTest = parseElementNameTest();
+      }
+      List<Condition> predicates = new ArrayList<>();
+      while (skipSpace() && consume("[")) {
+        predicates.add(parseOr());
+        expect("]");
+      }
+      return new Step(axis, nameTest, predicates.toArray(new Condition[predicates.size()]));
+    }
+
+    private NameTest parseElementNameTest() throws SmaxException {
+      if (consume("*")) {
+        return new NameTest(null, null);
+      }
+      String prefix = "";
+      String localName = parseName();
+      if (consume(":")) {
+        prefix = localName;
+        if (consume("*")) {
+          return new NameTest(null, namespaceUri(prefix));
+        }
+        localName = parseName();
+      }
+      String namespaceUri = prefix.isEmpty() ? namespaces.getOrDefault("", "") : namespaceUri(prefix);
+      return new NameTest(SmaxName.of(namespaceUri, localName, localName).getExpandedName(), null);
+    }
+
+    private Condition parseOr() throws SmaxException {
+      Condition left = parseAnd();
+      while (keyword("or")) {
+        Condition l = left;
+        Condition r = parseAnd();
+        left = (index, i, variables) -> l.test(index, i, variables) || r.test(index, i, variables);
+      }
+      return left;
+    }
+
+    private Condition parseAnd() throws SmaxException {
+      Condition left = parseUnary();
+      while (keyword("and")) {
+        left = new And(left, parseUnary());
+      }
+      return left;
+    }
+
+    private Condition parseUnary() throws SmaxException {
+      skipSpace();
+      if (consume("(")) {
+        Condition condition = parseOr();
+        expect(")");
+        return condition;
+      }
+      if (consume("@")) {
+        return parseAttributeTest();
+      }
+      int nameStart = pos;
+      if (pos < text.length() && isNameStart(text.charAt(pos))) {
+        String name = parseName();
+        if (skipSpace() && consume("(")) {
+          Condition condition = parseFunction(name);
+          expect(")");
+          return condition;
+        }
+        pos = nameStart;
+      }
+      Path path = parsePath();
+      return (index, i, variables) -> path.evaluate(index, i, variables).length > 0;
+    }
+
+    private Condition parseFunction(String name) throws SmaxException {
+      if (name.equals("not")) {
+        Condition condition = parseOr();
+        return (index, i, variables) -> !condition.test(index, i, variables);
+      }
+      RangeFunction function;
+      switch (name) {
+        case "covers": function = RangeFunction.COVERS; break;
+        case "overlaps": function = RangeFunction.OVERLAPS; break;
+        case "within": function = RangeFunction.WITHIN; break;
+        default: throw error("Unknown function '"+name+"'");
+      }
+      Value rangeStart = parseValue();
+      Value rangeEnd;
+      if (function == RangeFunction.COVERS && skipSpace() && text.startsWith(")", pos)) {
+        rangeEnd = variables -> rangeStart.get(variables) + 1;
+      } else {
+        expect(",");
+        rangeEnd = parseValue();
+      }
+      return new RangeCondition(function, rangeStart, rangeEnd);
+    }
+
+    private Condition parseAttributeTest() throws SmaxException {
+      String namespaceUri = "";
+      String localName = parseName();
+      if (consume(":")) {
+        namespaceUri = namespaceUri(localName);
+        localName = parseName();
+      }
+      String uri = namespaceUri;
+      String name = localName;
+      skipSpace();
+      if (consume("!=")) {
+        String value = parseString();
+        // Like in XPath, the comparison is false if the element does not have the attribute.
+        return (index, i, variables) -> {
+          String v = attributeValue(index.element(i), uri, name);
+          return v != null && !value.equals(v);
+        };
+      } else if (consume("=")) {
+        String value = parseString();
+        return (index, i, variables) -> value.equals(attributeValue(index.element(i), uri, name));
+      }
+      return (index, i, variables) -> attributeValue(index.element(i), uri, name) != null;
+    }
+
+    private static String attributeValue(SmaxElement element, String namespaceUri, String localName) {
+      return element.hasAttributes() ? element.getAttributes().getValue(namespaceUri, localName) : null;
+    }
+
+    private Value parseValue() throws SmaxException {
+      skipSpace();
+      if (consume("$")) {
+        String name = parseName();
+        return variables -> {
+          Integer value = variables.get(name);
+          if (value == null) {
+            throw new IllegalArgumentException("The variable $"+name+" in the query has no value.");
+          }
+          return value;
+        };
+      }
+      int start = pos;
+      if (pos < text.length() && text.charAt(pos) == '-') {
+        ++pos;
+      }
+      while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+        ++pos;
+      }
+      try {
+        int value = Integer.parseInt(text.substring(start, pos));
+        return variables -> value;
+      } catch (NumberFormatException e) {
+        pos = start;
+        throw error("Expected an integer or a variable");
+      }
+    }
+
+    private String parseString() throws SmaxException {
+      skipSpace();
+      char quote = pos < text.length() ? text.charAt(pos) : 0;
+      if (quote != '\'' && quote != '"') {
+        throw error("Expected a string");
+      }
+      int end = text.indexOf(quote, pos + 1);
+      if (end < 0) {
+        throw error("Unterminated string");
+      }
+      String value = text.substring(pos + 1, end);
+      pos = end + 1;
+      return value;
+    }
+
+    private String parseName() throws SmaxException {
+      int start = pos;
+      if (pos < text.length() && isNameStart(text.charAt(pos))) {
+        ++pos;
+        while (pos < text.length() && isNameChar(text.charAt(pos))) {
+          ++pos;
+        }
+      }
+      if (start == pos) {
+        throw error("Expected a name");
+      }
+      return text.substring(start, pos);
+    }
+
+    private String namespaceUri(String prefix) throws SmaxException {
+      String namespaceUri = namespaces.get(prefix);
+      if (namespaceUri == null) {
+        throw error("The namespace prefix '"+prefix+"' is not declared");
+      }
+      return namespaceUri;
+    }
+
+    private static boolean isNameStart(char c) {
+      return Character.isLetter(c) || c == '_';
+    }
+
+    private static boolean isNameChar(char c) {
+      return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+    }
+
+    /**
+     * Consume a keyword, which must not be the start of a longer name.
+     */
+    private boolean keyword(String word) {
+      skipSpace();
+      int end = pos + word.length();
+      if (text.startsWith(word, pos) && (end == text.length() || !isNameChar(text.charAt(end)))) {
+        pos = end;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean consume(String token) {
+      if (text.startsWith(token, pos)) {
+        pos += token.length();
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(String token) throws SmaxException {
+      skipSpace();
+      if (!consume(token)) {
+        throw error("Expected '"+token+"'");
+      }
+    }
+
+    /**
+     * @return true, so that it can be used in conditions
+     */
+    private boolean skipSpace() {
+      while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+        ++pos;
+      }
+      return true;
+    }
+
+    private SmaxException error(String message) {
+      return new SmaxException(message+" at position "+pos+" in the query '"+text+"'");
+    }
+
+  }
+
+  /**
+   * A growing array of ints.
+   */
+  private static final class IntList {
+
+    private int[] values = new int[16];
+    private int size = 0;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      values[size++] = value;
+    }
+
+    void sort() {
+      Arrays.sort(values, 0, size);
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+
+  }
+
+}
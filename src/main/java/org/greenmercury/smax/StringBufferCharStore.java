@@ -0,0 +1,138 @@
+package org.greenmercury.smax;
+
+/**
+ * A {@code CharStore} that wraps a {@code StringBuffer}.
+ * This is thread-safe, but every access takes the lock of the {@code StringBuffer}.
+ * It is used for content that is given as a {@code StringBuffer}, and can be obtained through {@code SmaxContent.getUnderlyingBuffer()}.
+ *<p>
+ * @author Rakensi
+ */
+public class StringBufferCharStore implements CharStore {
+
+  private final StringBuffer buffer;
+
+  public StringBufferCharStore() {
+    this(new StringBuffer());
+  }
+
+  public StringBufferCharStore(StringBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * @return the wrapped {@code StringBuffer}
+   */
+  public StringBuffer getBuffer() {
+    return buffer;
+  }
+
+  @Override
+  public int length() {
+    return buffer.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    return buffer.charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return buffer.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return buffer.toString();
+  }
+
+  @Override
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    buffer.getChars(srcBegin, srcEnd, dst, dstBegin);
+  }
+
+  @Override
+  public void setCharAt(int index, char ch) {
+    buffer.setCharAt(index, ch);
+  }
+
+  @Override
+  public CharStore append(CharSequence csq) {
+    buffer.append(csq);
+    return this;
+  }
+
+  @Override
+  public CharStore append(char[] str, int offset, int len) {
+    buffer.append(str, offset, len);
+    return this;
+  }
+
+  @Override
+  public CharStore append(char c) {
+    buffer.append(c);
+    return this;
+  }
+
+  @Override
+  public CharStore insert(int offset, CharSequence csq) {
+    buffer.insert(offset, csq);
+    return this;
+  }
+
+  @Override
+  public CharStore insert(int offset, CharSequence csq, int start, int end) {
+    buffer.insert(offset, csq, start, end);
+    return this;
+  }
+
+  @Override
+  public CharStore insert(int offset, char c) {
+    buffer.insert(offset, c);
+    return this;
+  }
+
+  @Override
+  public CharStore delete(int start, int end) {
+    buffer.delete(start, end);
+    return this;
+  }
+
+  @Override
+  public CharStore replace(int start, int end, String str) {
+    buffer.replace(start, end, str);
+    return this;
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    return buffer.substring(start, end);
+  }
+
+  /**
+   * {@code StringBuffer.indexOf} searches in place, but does not stop at {@code endIndex}.
+   * It is used when the part of the buffer after the range is not longer than the range itself.
+   */
+  @Override
+  public int indexOf(String str, int fromIndex, int endIndex) {
+    if (buffer.length() - endIndex > endIndex - fromIndex) {
+      return CharStore.super.indexOf(str, fromIndex, endIndex);
+    }
+    int found = buffer.indexOf(str, fromIndex);
+    return (found >= 0 && found + str.length() <= endIndex) ? found : -1;
+  }
+
+  /**
+   * {@code StringBuffer.lastIndexOf} searches in place, but does not stop at {@code startIndex}.
+   * It is used when the part of the buffer before the range is not longer than the range itself.
+   */
+  @Override
+  public int lastIndexOf(String str, int fromIndex, int startIndex) {
+    if (startIndex > fromIndex - startIndex) {
+      return CharStore.super.lastIndexOf(str, fromIndex, startIndex);
+    }
+    int found = buffer.lastIndexOf(str, fromIndex);
+    return (found >= startIndex) ? found : -1;
+  }
+
+}
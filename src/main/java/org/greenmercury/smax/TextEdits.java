@@ -0,0 +1,97 @@
+package org.greenmercury.smax;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A set of changes to the text content of a {@code SmaxDocument}, which are applied together by {@code SmaxDocument.applyTextEdits}.
+ *<p>
+ * Every edit replaces the text between a start and end position by a new text.
+ * Positions are relative to the content of the {@code SmaxDocument}, and refer to the text before any of the edits is applied.
+ * The replaced ranges of different edits must not overlap, but they may touch.
+ * Several insertions at the same position are applied in the order in which they were added.
+ *<p>
+ * @author Rakensi
+ */
+public class TextEdits {
+
+  /**
+   * A single replacement of text.
+   */
+  static final class Edit {
+    final int startPos;
+    final int endPos;
+    final CharSequence text;
+
+    Edit(int startPos, int endPos, CharSequence text) {
+      this.startPos = startPos;
+      this.endPos = endPos;
+      this.text = text != null ? text : "";
+    }
+  }
+
+  private final List<Edit> edits = new ArrayList<>();
+
+  /**
+   * Add an insertion of text.
+   * @param pos the position where the text is inserted.
+   * @param text the inserted text.
+   * @return the {@code TextEdits} itself
+   */
+  public TextEdits insert(int pos, CharSequence text) {
+    return replace(pos, pos, text);
+  }
+
+  /**
+   * Add a deletion of text.
+   * @param startPos start position of the deleted text.
+   * @param endPos end position of the deleted text.
+   * @return the {@code TextEdits} itself
+   */
+  public TextEdits delete(int startPos, int endPos) {
+    return replace(startPos, endPos, "");
+  }
+
+  /**
+   * Add a replacement of text.
+   * @param startPos start position of the replaced text.
+   * @param endPos end position of the replaced text.
+   * @param text the replacement text.
+   * @return the {@code TextEdits} itself
+   */
+  public TextEdits replace(int startPos, int endPos, CharSequence text) {
+    if (startPos < 0 || endPos < startPos) {
+      throw new IndexOutOfBoundsException("Illegal text range "+startPos+".."+endPos);
+    }
+    edits.add(new Edit(startPos, endPos, text));
+    return this;
+  }
+
+  /**
+   * @return the number of edits
+   */
+  public int size() {
+    return edits.size();
+  }
+
+  /**
+   * Get the edits in document order.
+   * Insertions come before a replacement or deletion that starts at the same position.
+   * @return the sorted edits
+   * @throws IllegalArgumentException if edits overlap.
+   */
+  List<Edit> sortedEdits() {
+    List<Edit> sorted = new ArrayList<>(edits);
+    // List.sort is stable, so insertions at the same position keep their order.
+    sorted.sort(Comparator.<Edit>comparingInt(edit -> edit.startPos).thenComparingInt(edit -> edit.endPos));
+    for (int i = 1; i < sorted.size(); ++i) {
+      if (sorted.get(i - 1).endPos > sorted.get(i).startPos) {
+        throw new IllegalArgumentException("The text edits at "+sorted.get(i - 1).startPos+".."+sorted.get(i - 1).endPos+
+            " and "+sorted.get(i).startPos+".."+sorted.get(i).endPos+" overlap.");
+      }
+    }
+    return sorted;
+  }
+
+}
@@ -0,0 +1,170 @@
+package org.greenmercury.smax;
+
+import java.util.Arrays;
+
+/**
+ * Searching for a string in a range of a {@code CharStore}, without copying the range into a {@code String}.
+ *<p>
+ * The characters are copied from the store in windows of at most {@value #WINDOW_SIZE} characters, which are searched in turn.
+ * Consecutive windows overlap by the length of the needle minus one, so that no occurrence is missed.
+ * A search therefore takes time proportional to the distance to the occurrence, not to the length of the store.
+ * Needles of {@value #HORSPOOL_THRESHOLD} or more characters are found with the Boyer-Moore-Horspool algorithm,
+ * shorter needles by comparing at every position.
+ *<p>
+ * @author Rakensi
+ */
+final class TextSearch {
+
+  /**
+   * The maximum number of characters that a search copies from the store in one go, unless the needle is longer.
+   */
+  private static final int WINDOW_SIZE = 8192;
+
+  /**
+   * The needle length from which on searches use the Boyer-Moore-Horspool algorithm.
+   */
+  private static final int HORSPOOL_THRESHOLD = 4;
+
+  private TextSearch() {
+  }
+
+  /**
+   * Find the first occurrence of a non-empty string in a range of a {@code CharStore}.
+   * @param store
+   * @param str the non-empty string to find
+   * @param fromIndex the first index where an occurrence may start
+   * @param endIndex the index where an occurrence must end, at the latest
+   * @return the index of the first occurrence, or -1 if there is none
+   */
+  static int indexOf(CharStore store, String str, int fromIndex, int endIndex) {
+    int needleLength = str.length();
+    if (fromIndex > endIndex - needleLength) {
+      return -1;
+    }
+    char[] needle = str.toCharArray();
+    int[] skip = needleLength >= HORSPOOL_THRESHOLD ? forwardSkipTable(needle) : null;
+    char[] window = new char[Math.min(endIndex - fromIndex, Math.max(WINDOW_SIZE, 2 * needleLength))];
+    for (int windowStart = fromIndex; windowStart <= endIndex - needleLength; windowStart += window.length - needleLength + 1) {
+      int windowLength = Math.min(window.length, endIndex - windowStart);
+      store.getChars(windowStart, windowStart + windowLength, window, 0);
+      int found = skip == null ? naiveIndexOf(window, windowLength, needle) : horspoolIndexOf(window, windowLength, needle, skip);
+      if (found >= 0) {
+        return windowStart + found;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Find the last occurrence of a non-empty string in a range of a {@code CharStore}.
+   * @param store
+   * @param str the non-empty string to find
+   * @param fromIndex the last index where an occurrence may start
+   * @param startIndex the first index where an occurrence may start
+   * @return the index of the last occurrence, or -1 if there is none
+   */
+  static int lastIndexOf(CharStore store, String str, int fromIndex, int startIndex) {
+    int needleLength = str.length();
+    if (fromIndex < startIndex) {
+      return -1;
+    }
+    char[] needle = str.toCharArray();
+    int[] skip = needleLength >= HORSPOOL_THRESHOLD ? backwardSkipTable(needle) : null;
+    int searchEnd = fromIndex + needleLength;
+    char[] window = new char[Math.min(searchEnd - startIndex, Math.max(WINDOW_SIZE, 2 * needleLength))];
+    for (int windowEnd = searchEnd; windowEnd - startIndex >= needleLength; windowEnd -= window.length - needleLength + 1) {
+      int windowStart = Math.max(startIndex, windowEnd - window.length);
+      int windowLength = windowEnd - windowStart;
+      store.getChars(windowStart, windowEnd, window, 0);
+      int found = skip == null ? naiveLastIndexOf(window, windowLength, needle) : horspoolLastIndexOf(window, windowLength, needle, skip);
+      if (found >= 0) {
+        return windowStart + found;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Make the shift table for a forward Boyer-Moore-Horspool search.
+   * The table is indexed by the low byte of a character. Characters with the same low byte share the smallest shift.
+   * @param needle
+   * @return the shift for each character under the last position of the needle
+   */
+  private static int[] forwardSkipTable(char[] needle) {
+    int[] skip = new int[256];
+    Arrays.fill(skip, needle.length);
+    for (int i = 0; i < needle.length - 1; ++i) {
+      skip[needle[i] & 0xFF] = needle.length - 1 - i;
+    }
+    return skip;
+  }
+
+  /**
+   * Make the shift table for a backward Boyer-Moore-Horspool search, the mirror image of {@code forwardSkipTable}.
+   * @param needle
+   * @return the shift for each character under the first position of the needle
+   */
+  private static int[] backwardSkipTable(char[] needle) {
+    int[] skip = new int[256];
+    Arrays.fill(skip, needle.length);
+    for (int i = needle.length - 1; i > 0; --i) {
+      skip[needle[i] & 0xFF] = i;
+    }
+    return skip;
+  }
+
+  private static int naiveIndexOf(char[] window, int windowLength, char[] needle) {
+    char first = needle[0];
+    for (int pos = 0, last = windowLength - needle.length; pos <= last; ++pos) {
+      if (window[pos] == first && matchesAt(window, pos, needle)) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  private static int naiveLastIndexOf(char[] window, int windowLength, char[] needle) {
+    char first = needle[0];
+    for (int pos = windowLength - needle.length; pos >= 0; --pos) {
+      if (window[pos] == first && matchesAt(window, pos, needle)) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  private static int horspoolIndexOf(char[] window, int windowLength, char[] needle, int[] skip) {
+    int lastInNeedle = needle.length - 1;
+    char lastChar = needle[lastInNeedle];
+    for (int pos = 0, last = windowLength - needle.length; pos <= last; ) {
+      char c = window[pos + lastInNeedle];
+      if (c == lastChar && matchesAt(window, pos, needle)) {
+        return pos;
+      }
+      pos += skip[c & 0xFF];
+    }
+    return -1;
+  }
+
+  private static int horspoolLastIndexOf(char[] window, int windowLength, char[] needle, int[] skip) {
+    char firstChar = needle[0];
+    for (int pos = windowLength - needle.length; pos >= 0; ) {
+      char c = window[pos];
+      if (c == firstChar && matchesAt(window, pos, needle)) {
+        return pos;
+      }
+      pos -= skip[c & 0xFF];
+    }
+    return -1;
+  }
+
+  private static boolean matchesAt(char[] window, int pos, char[] needle) {
+    for (int i = 0; i < needle.length; ++i) {
+      if (window[pos + i] != needle[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
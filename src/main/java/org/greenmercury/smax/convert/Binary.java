@@ -0,0 +1,465 @@
+package org.greenmercury.smax.convert;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.greenmercury.smax.CharStore;
+import org.greenmercury.smax.CompactMarkup;
+import org.greenmercury.smax.NamespacePrefixMapping;
+import org.greenmercury.smax.SmaxAttributes;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.StringBufferCharStore;
+
+/**
+ * SmaxDocument conversion to and from a compact binary format.
+ *<p>
+ * A document that has been parsed once can be stored in this format, and loaded again without parsing,
+ * because the loader reads flat arrays of numbers, and every distinct string only once.
+ * Loading takes a third to half of the time of parsing the XML text, not much less,
+ * because reading and decoding the strings and the text content takes most of that time.
+ * Use {@link #toCompactMarkup(InputStream, CharStore)} to load a snapshot without making a {@code SmaxElement} for every element.
+ * It takes about as long as {@link #toSmax(InputStream)}, but much less memory.
+ * The format consists of the following parts, with all numbers written as big-endian 32-bit integers.
+ * <ol>
+ *  <li>The magic number {@value #MAGIC} ("SMAX") and the format version {@value #VERSION}.</li>
+ *  <li>The string table: the number of strings, followed by the length and the UTF-8 bytes of each string.
+ *      All names, namespace URIs, prefixes, attribute types and attribute values are stored as indexes in this table.
+ *      The index -1 stands for {@code null}.</li>
+ *  <li>The text content: the number of characters, followed by the characters as UTF-16BE.</li>
+ *  <li>The number of elements, followed by one array for each of the namespace URIs, local names, qualified names,
+ *      start positions, end positions and parent indexes of the elements, in pre-order.
+ *      The root element has parent index -1.</li>
+ *  <li>The number of attributes of each element, followed by the namespace URI, local name, qualified name, type and value
+ *      of every attribute.</li>
+ *  <li>The number of namespace prefix mappings of each element, followed by the prefix and URI of every mapping.</li>
+ * </ol>
+ * Only the part of the text content that is covered by the root element is stored,
+ * and the character positions are relative to the start of the root element.
+ *<p>
+ * @author Rakensi
+ */
+public class Binary {
+
+  /**
+   * The first 4 bytes of the binary format, which are "SMAX" in ASCII.
+   */
+  public static final int MAGIC = 0x534D4158;
+
+  /**
+   * The version of the binary format.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * The number of characters or integers that are converted to and from bytes in one go.
+   */
+  private static final int CHUNK_SIZE = 8192;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Write a SMAX document in the binary format.
+   * @param smaxDocument
+   * @param outputStream the {@code OutputStream} receiving the binary document. It is flushed, but not closed.
+   * @throws IOException
+   */
+  public static void fromSmax(SmaxDocument smaxDocument, OutputStream outputStream) throws IOException {
+    SmaxElement root = smaxDocument.getMarkup();
+    int offset = root.getStartPos();
+    // List the elements in pre-order, and remember the index of their parents.
+    List<SmaxElement> elements = new ArrayList<>();
+    List<Integer> parents = new ArrayList<>();
+    Deque<SmaxElement> stack = new ArrayDeque<>();
+    Deque<Integer> parentStack = new ArrayDeque<>();
+    stack.push(root);
+    parentStack.push(-1);
+    while (!stack.isEmpty()) {
+      SmaxElement element = stack.pop();
+      int index = elements.size();
+      elements.add(element);
+      parents.add(parentStack.pop());
+      if (element.hasChildNodes()) {
+        List<SmaxElement> children = element.getChildren();
+        for (int i = children.size() - 1; i >= 0; --i) {
+          stack.push(children.get(i));
+          parentStack.push(index);
+        }
+      }
+    }
+    int nrElements = elements.size();
+    // Fill the string table and the arrays.
+    StringTable strings = new StringTable();
+    int[] namespaceUris = new int[nrElements];
+    int[] localNames = new int[nrElements];
+    int[] qualifiedNames = new int[nrElements];
+    int[] startPositions = new int[nrElements];
+    int[] endPositions = new int[nrElements];
+    int[] parentIndexes = new int[nrElements];
+    int[] attributeCounts = new int[nrElements];
+    int[] mappingCounts = new int[nrElements];
+    IntArray attributeFields = new IntArray();
+    IntArray mappingFields = new IntArray();
+    for (int i = 0; i < nrElements; ++i) {
+      SmaxElement element = elements.get(i);
+      namespaceUris[i] = strings.index(element.getNamespaceUri());
+      localNames[i] = strings.index(element.getLocalName());
+      qualifiedNames[i] = strings.index(element.getQualifiedName());
+      startPositions[i] = element.getStartPos() - offset;
+      endPositions[i] = element.getEndPos() - offset;
+      parentIndexes[i] = parents.get(i);
+      SmaxAttributes attributes = element.hasAttributes() ? element.getAttributes() : null;
+      int nrAttributes = attributes == null ? 0 : attributes.getLength();
+      attributeCounts[i] = nrAttributes;
+      for (int a = 0; a < nrAttributes; ++a) {
+        attributeFields.add(strings.index(attributes.getURI(a)));
+        attributeFields.add(strings.index(attributes.getLocalName(a)));
+        attributeFields.add(strings.index(attributes.getQName(a)));
+        attributeFields.add(strings.index(attributes.getType(a)));
+        attributeFields.add(strings.index(attributes.getValue(a)));
+      }
+      NamespacePrefixMapping[] mappings = element.getNamespacePrefixMappings();
+      mappingCounts[i] = mappings.length;
+      for (NamespacePrefixMapping mapping : mappings) {
+        mappingFields.add(strings.index(mapping.prefix));
+        mappingFields.add(strings.index(mapping.uri));
+      }
+    }
+    // Write everything.
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(strings.size());
+    for (String string : strings.strings) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+    writeContent(out, smaxDocument.getContentStore(), offset, root.getEndPos());
+    out.writeInt(nrElements);
+    writeInts(out, namespaceUris, nrElements);
+    writeInts(out, localNames, nrElements);
+    writeInts(out, qualifiedNames, nrElements);
+    writeInts(out, startPositions, nrElements);
+    writeInts(out, endPositions, nrElements);
+    writeInts(out, parentIndexes, nrElements);
+    writeInts(out, attributeCounts, nrElements);
+    writeInts(out, attributeFields.values, attributeFields.size);
+    writeInts(out, mappingCounts, nrElements);
+    writeInts(out, mappingFields.values, mappingFields.size);
+    out.flush();
+  }
+
+  /**
+   * Write a SMAX document in the binary format to a file.
+   * @param smaxDocument
+   * @param file
+   * @throws IOException
+   */
+  public static void fromSmax(SmaxDocument smaxDocument, Path file) throws IOException {
+    try (OutputStream outputStream = Files.newOutputStream(file)) {
+      fromSmax(smaxDocument, outputStream);
+    }
+  }
+
+  /**
+   * Read a SMAX document in the binary format.
+   * @param inputStream the {@code InputStream} containing the binary document. It is not closed.
+   * @throws IOException if the input cannot be read, or if it is not a valid binary SMAX document
+   */
+  public static SmaxDocument toSmax(InputStream inputStream) throws IOException {
+    return toSmax(inputStream, new StringBufferCharStore());
+  }
+
+  /**
+   * Read a SMAX document in the binary format, with the text content in a given {@code CharStore}.
+   * @param inputStream the {@code InputStream} containing the binary document. It is not closed.
+   * @param content An empty {@code CharStore} that will receive the text content.
+   * @throws IOException if the input cannot be read, or if it is not a valid binary SMAX document
+   */
+  public static SmaxDocument toSmax(InputStream inputStream, CharStore content) throws IOException {
+    Snapshot snapshot = new Snapshot(inputStream, content);
+    int nrElements = snapshot.nrElements;
+    // Make the elements.
+    SmaxElement[] elements = new SmaxElement[nrElements];
+    int[] childCounts = new int[nrElements];
+    int attributeField = 0;
+    int mappingField = 0;
+    for (int i = 0; i < nrElements; ++i) {
+      SmaxElement element = new SmaxElement(snapshot.string(snapshot.namespaceUris[i]), snapshot.string(snapshot.localNames[i]),
+          snapshot.string(snapshot.qualifiedNames[i]));
+      element.setStartPos(snapshot.startPositions[i]).setEndPos(snapshot.endPositions[i]);
+      SmaxAttributes attributes = snapshot.attributeCounts[i] > 0 ? element.getAttributes() : null;
+      for (int a = snapshot.attributeCounts[i]; a > 0; --a, attributeField += 5) {
+        attributes.addAttribute(snapshot.string(snapshot.attributeFields[attributeField]), snapshot.string(snapshot.attributeFields[attributeField + 1]),
+            snapshot.string(snapshot.attributeFields[attributeField + 2]), snapshot.string(snapshot.attributeFields[attributeField + 3]),
+            snapshot.string(snapshot.attributeFields[attributeField + 4]));
+      }
+      if (snapshot.mappingCounts[i] > 0) {
+        NamespacePrefixMapping[] mappings = new NamespacePrefixMapping[snapshot.mappingCounts[i]];
+        for (int m = 0; m < mappings.length; ++m, mappingField += 2) {
+          mappings[m] = new NamespacePrefixMapping(snapshot.string(snapshot.mappingFields[mappingField]),
+              snapshot.string(snapshot.mappingFields[mappingField + 1]));
+        }
+        element.setNamespacePrefixMappings(mappings);
+      }
+      elements[i] = element;
+      if (i > 0) {
+        ++childCounts[snapshot.parentIndexes[i]];
+      }
+    }
+    /* Give every element its children, from the last element to the first.
+     * The children of an element are collected first, so that each element gets its list of children in one call.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    List<SmaxElement>[] children = new List[nrElements];
+    for (int i = 1; i < nrElements; ++i) {
+      int parent = snapshot.parentIndexes[i];
+      if (children[parent] == null) {
+        children[parent] = new ArrayList<>(childCounts[parent]);
+      }
+      children[parent].add(elements[i]);
+    }
+    for (int i = nrElements - 1; i >= 0; --i) {
+      if (children[i] != null) {
+        elements[i].setChildren(children[i]);
+      }
+    }
+    return new SmaxDocument(elements[0], content);
+  }
+
+  /**
+   * Read the markup of a SMAX document in the binary format as {@code CompactMarkup}, and its text content into a given {@code CharStore}.
+   * This does not make a {@code SmaxElement} for every element, so it takes much less memory than {@code toSmax}.
+   * @param inputStream the {@code InputStream} containing the binary document. It is not closed.
+   * @param content An empty {@code CharStore} that will receive the text content.
+   * @return the markup, with character positions in {@code content}
+   * @throws IOException if the input cannot be read, or if it is not a valid binary SMAX document
+   */
+  public static CompactMarkup toCompactMarkup(InputStream inputStream, CharStore content) throws IOException {
+    Snapshot snapshot = new Snapshot(inputStream, content);
+    CompactMarkup.Builder builder = new CompactMarkup.Builder(snapshot.nrElements);
+    int attributeField = 0;
+    int mappingField = 0;
+    try {
+      for (int i = 0; i < snapshot.nrElements; ++i) {
+        builder.addElement(snapshot.parentIndexes[i], snapshot.string(snapshot.namespaceUris[i]), snapshot.string(snapshot.localNames[i]),
+            snapshot.string(snapshot.qualifiedNames[i]), snapshot.startPositions[i], snapshot.endPositions[i]);
+        for (int a = snapshot.attributeCounts[i]; a > 0; --a, attributeField += 5) {
+          builder.addAttribute(snapshot.string(snapshot.attributeFields[attributeField]), snapshot.string(snapshot.attributeFields[attributeField + 1]),
+              snapshot.string(snapshot.attributeFields[attributeField + 2]), snapshot.string(snapshot.attributeFields[attributeField + 3]),
+              snapshot.string(snapshot.attributeFields[attributeField + 4]));
+        }
+        for (int m = snapshot.mappingCounts[i]; m > 0; --m, mappingField += 2) {
+          builder.addNamespacePrefixMapping(snapshot.string(snapshot.mappingFields[mappingField]), snapshot.string(snapshot.mappingFields[mappingField + 1]));
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Corrupt binary SMAX document: "+e.getMessage(), e);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Read a SMAX document in the binary format from a file.
+   * @param file
+   * @throws IOException if the file cannot be read, or if it is not a valid binary SMAX document
+   */
+  public static SmaxDocument toSmax(Path file) throws IOException {
+    try (InputStream inputStream = Files.newInputStream(file)) {
+      return toSmax(inputStream);
+    }
+  }
+
+  private static void writeContent(DataOutputStream out, CharStore content, int start, int end) throws IOException {
+    out.writeInt(end - start);
+    char[] chars = new char[CHUNK_SIZE];
+    byte[] bytes = new byte[2 * CHUNK_SIZE];
+    while (start < end) {
+      int length = Math.min(CHUNK_SIZE, end - start);
+      content.getChars(start, start + length, chars, 0);
+      ByteBuffer.wrap(bytes).asCharBuffer().put(chars, 0, length);
+      out.write(bytes, 0, 2 * length);
+      start += length;
+    }
+  }
+
+  private static int readContent(DataInputStream in, CharStore content) throws IOException {
+    int length = checkCount(in.readInt());
+    char[] chars = new char[CHUNK_SIZE];
+    byte[] bytes = new byte[2 * CHUNK_SIZE];
+    for (int remaining = length; remaining > 0; ) {
+      int n = Math.min(CHUNK_SIZE, remaining);
+      in.readFully(bytes, 0, 2 * n);
+      ByteBuffer.wrap(bytes).asCharBuffer().get(chars, 0, n);
+      content.append(chars, 0, n);
+      remaining -= n;
+    }
+    return length;
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values, int length) throws IOException {
+    byte[] bytes = new byte[4 * Math.min(CHUNK_SIZE, length)];
+    for (int start = 0; start < length; start += CHUNK_SIZE) {
+      int n = Math.min(CHUNK_SIZE, length - start);
+      ByteBuffer.wrap(bytes).asIntBuffer().put(values, start, n);
+      out.write(bytes, 0, 4 * n);
+    }
+  }
+
+  private static int[] readInts(DataInputStream in, int length) throws IOException {
+    int[] values = new int[length];
+    byte[] bytes = new byte[4 * Math.min(CHUNK_SIZE, length)];
+    for (int start = 0; start < length; start += CHUNK_SIZE) {
+      int n = Math.min(CHUNK_SIZE, length - start);
+      in.readFully(bytes, 0, 4 * n);
+      ByteBuffer.wrap(bytes).asIntBuffer().get(values, start, n);
+    }
+    return values;
+  }
+
+  private static int checkCount(int count) throws IOException {
+    if (count < 0) {
+      throw new IOException("Corrupt binary SMAX document: negative count "+count+".");
+    }
+    return count;
+  }
+
+  private static int sum(int[] counts) throws IOException {
+    long sum = 0;
+    for (int count : counts) {
+      sum += checkCount(count);
+    }
+    if (sum > Integer.MAX_VALUE / 5) {
+      throw new IOException("Corrupt binary SMAX document: too many attributes or namespace prefix mappings.");
+    }
+    return (int) sum;
+  }
+
+  /**
+   * The strings and arrays of a binary SMAX document, after the text content has been read into a {@code CharStore}.
+   */
+  private static final class Snapshot {
+    private final String[] strings;
+    private final int nrElements;
+    private final int[] namespaceUris;
+    private final int[] localNames;
+    private final int[] qualifiedNames;
+    private final int[] startPositions;
+    private final int[] endPositions;
+    private final int[] parentIndexes;
+    private final int[] attributeCounts;
+    private final int[] attributeFields;
+    private final int[] mappingCounts;
+    private final int[] mappingFields;
+
+    Snapshot(InputStream inputStream, CharStore content) throws IOException {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a binary SMAX document.");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported binary SMAX version "+version+".");
+      }
+      strings = new String[checkCount(in.readInt())];
+      byte[] bytes = new byte[0];
+      for (int i = 0; i < strings.length; ++i) {
+        int length = checkCount(in.readInt());
+        if (bytes.length < length) {
+          bytes = new byte[Math.max(length, 2 * bytes.length)];
+        }
+        in.readFully(bytes, 0, length);
+        strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+      }
+      int contentLength = readContent(in, content);
+      nrElements = checkCount(in.readInt());
+      if (nrElements == 0) {
+        throw new IOException("Corrupt binary SMAX document: there is no root element.");
+      }
+      namespaceUris = readInts(in, nrElements);
+      localNames = readInts(in, nrElements);
+      qualifiedNames = readInts(in, nrElements);
+      startPositions = readInts(in, nrElements);
+      endPositions = readInts(in, nrElements);
+      parentIndexes = readInts(in, nrElements);
+      attributeCounts = readInts(in, nrElements);
+      attributeFields = readInts(in, 5 * sum(attributeCounts));
+      mappingCounts = readInts(in, nrElements);
+      mappingFields = readInts(in, 2 * sum(mappingCounts));
+      for (int i = 0; i < nrElements; ++i) {
+        int parent = parentIndexes[i];
+        if (i == 0 ? parent != -1 : parent < 0 || parent >= i) {
+          throw new IOException("Corrupt binary SMAX document: element "+i+" has parent index "+parent+".");
+        }
+        if (startPositions[i] < 0 || startPositions[i] > endPositions[i] || endPositions[i] > contentLength) {
+          throw new IOException("Corrupt binary SMAX document: element "+i+" has positions "+startPositions[i]+"-"+endPositions[i]+".");
+        }
+      }
+    }
+
+    String string(int index) throws IOException {
+      if (index == -1) {
+        return null;
+      }
+      if (index < 0 || index >= strings.length) {
+        throw new IOException("Corrupt binary SMAX document: string index "+index+" is out of range.");
+      }
+      return strings[index];
+    }
+  }
+
+  /**
+   * The distinct strings of a document, in the order in which they were first seen.
+   */
+  private static class StringTable {
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    int index(String string) {
+      if (string == null) {
+        return -1;
+      }
+      Integer index = indexes.get(string);
+      if (index == null) {
+        index = strings.size();
+        indexes.put(string, index);
+        strings.add(string);
+      }
+      return index;
+    }
+    int size() {
+      return strings.size();
+    }
+  }
+
+  /**
+   * A growable array of {@code int}s.
+   */
+  private static class IntArray {
+    private int[] values = new int[16];
+    private int size = 0;
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      values[size++] = value;
+    }
+  }
+
+}
@@ -4,11 +4,13 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.greenmercury.smax.Attribute;
+import org.greenmercury.smax.CharStore;
 import org.greenmercury.smax.NamespacePrefixMapping;
 import org.greenmercury.smax.SmaxContent;
 import org.greenmercury.smax.SmaxDocument;
 import org.greenmercury.smax.SmaxElement;
 import org.greenmercury.smax.SmaxException;
+import org.greenmercury.smax.StringBufferCharStore;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -16,7 +18,6 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
-import org.w3c.dom.bootstrap.DOMImplementationRegistry;
 import org.xml.sax.Attributes;
 
 /**
@@ -31,17 +32,23 @@ public class Dom {
    * @param element
    */
   public static SmaxDocument toSmax(Element element) throws SmaxException {
+    /* The text content of the parsed document up to the current parse position.
+     * A StringBuffer is used by default, because it is thread-safe. A StringBuilder is faster, but not thread-safe.
+     */
+    return toSmax(element, new StringBufferCharStore());
+  }
+
+  /**
+   * Construct a SMAX document from a DOM element.
+   * @param element
+   * @param currentContent An empty {@code CharStore} that will receive the text content.
+   */
+  public static SmaxDocument toSmax(Element element, CharStore currentContent) throws SmaxException {
     /* A map from prefixes to namespace-URIs that are declared in a DOM element.
      * We use one instance to avoid making a new one for every element.
      */
     Map<String, String> namespaces = new HashMap<String, String>();
 
-    /* The text content of the parsed document up to the current parse position.
-     * For very large documents, something else than a StringBuffer must be used to hold text content.
-     * A StringBuffer is used, because it is thread-safe. A StringBuilder is faster, but not thread-safe.
-     */
-    StringBuffer currentContent = new StringBuffer();
-
     SmaxElement markup = domToSmax(element, currentContent, namespaces);
     return new SmaxDocument(markup, currentContent);
   }
@@ -51,24 +58,19 @@ public class Dom {
    * @param element
    */
   public static SmaxDocument toSmax(Document document) throws SmaxException {
-    /* The root element of the document.
-     * This is the element that will be converted to SMAX.
+    /* The root element of the document.
+     * This is the element that will be converted to SMAX.
      */
-    Element element = document.getDocumentElement();
-
-    /* A map from prefixes to namespace-URIs that are declared in a DOM element.
-     * We use one instance to avoid making a new one for every element.
-     */
-    Map<String, String> namespaces = new HashMap<String, String>();
-
-    /* The text content of the parsed document up to the current parse position.
-     * For very large documents, something else than a StringBuffer must be used to hold text content.
-     * A StringBuffer is used, because it is thread-safe. A StringBuilder is faster, but not thread-safe.
-     */
-    StringBuffer currentContent = new StringBuffer();
+    return toSmax(document.getDocumentElement());
+  }
 
-    SmaxElement markup = domToSmax(element, currentContent, namespaces);
-    return new SmaxDocument(markup, currentContent);
+  /**
+   * Construct a SMAX document from a DOM document.
+   * @param document
+   * @param currentContent An empty {@code CharStore} that will receive the text content.
+   */
+  public static SmaxDocument toSmax(Document document, CharStore currentContent) throws SmaxException {
+    return toSmax(document.getDocumentElement(), currentContent);
   }
 
   /**
@@ -78,7 +80,7 @@ public class Dom {
    * @param namespaces A list of namespace prefix mappings. This is passed to avoid making new lists recursively.
    * @return The converted SMAX element.
    */
-  private static SmaxElement domToSmax(Element domElement, StringBuffer currentContent, Map<String, String> namespaces)
+  private static SmaxElement domToSmax(Element domElement, CharStore currentContent, Map<String, String> namespaces)
     throws SmaxException
   {
     namespaces.clear();
@@ -187,7 +189,7 @@ public class Dom {
   public static Document documentFromSmax(SmaxDocument smaxDocument, boolean elementNSDecl)
       throws DOMException, ClassNotFoundException, InstantiationException, IllegalAccessException, ClassCastException
 {
-    Document domDocument = DOMImplementationRegistry.newInstance().getDOMImplementation("XML 3.0").createDocument(null, null, null);
+    Document domDocument = XmlFactories.domImplementation().createDocument(null, null, null);
     Element rootElement = smaxToDom(domDocument, smaxDocument.getMarkup(), smaxDocument.getContent(), elementNSDecl);
     domDocument.appendChild(rootElement);
     return domDocument;
@@ -216,8 +218,8 @@ public class Dom {
       }
     }
     // Set the attributes.
-    Attributes attributes = smaxElement.getAttributes();
-    for (int i = 0, nrAttrs = attributes.getLength(); i < nrAttrs; ++i) {
+    Attributes attributes = smaxElement.hasAttributes() ? smaxElement.getAttributes() : null;
+    for (int i = 0, nrAttrs = attributes == null ? 0 : attributes.getLength(); i < nrAttrs; ++i) {
       String attributeNamespace = attributes.getURI(i);
       String attributeLocalName = attributes.getLocalName(i);
       String attributeName = attributes.getQName(i);
@@ -237,14 +239,16 @@ public class Dom {
     }
     // Add the content.
     int contentPosition = smaxElement.getStartPos();
-    for (SmaxElement child : smaxElement.getChildren()) {
-      int childStartPos = child.getStartPos();
-      if (contentPosition < childStartPos) {
-        domElement.appendChild(domDocument.createTextNode(content.substring(contentPosition, childStartPos)));
-        contentPosition = childStartPos;
+    if (smaxElement.hasChildNodes()) {
+      for (SmaxElement child : smaxElement.getChildren()) {
+        int childStartPos = child.getStartPos();
+        if (contentPosition < childStartPos) {
+          domElement.appendChild(domDocument.createTextNode(content.substring(contentPosition, childStartPos)));
+          contentPosition = childStartPos;
+        }
+        domElement.appendChild(smaxToDom(domDocument, child, content, elementNSDecl));
+        contentPosition = child.getEndPos();
       }
-      domElement.appendChild(smaxToDom(domDocument, child, content, elementNSDecl));
-      contentPosition = child.getEndPos();
     }
     int endPosition = smaxElement.getEndPos();
     if (contentPosition < endPosition) {
@@ -0,0 +1,135 @@
+package org.greenmercury.smax.convert;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@code Reader} for a UTF-8 encoded file, which maps the file into memory one window at a time and decodes it incrementally.
+ *<p>
+ * Only one window of the file is mapped at any time, so files larger than the maximum size of a {@code MappedByteBuffer} can be read.
+ * A UTF-8 byte order mark at the start of the file is skipped. Malformed input is reported as a {@code CharacterCodingException}.
+ *<p>
+ * @author Rakensi
+ */
+class MappedFileReader extends Reader {
+
+  /**
+   * The number of bytes that are mapped at a time.
+   */
+  static final int WINDOW_SIZE = 1 << 24;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final FileChannel channel;
+  private final long size;
+  private final int windowSize;
+  private final CharsetDecoder decoder;
+  private final CharBuffer chars;
+  private ByteBuffer bytes;
+  private long windowStart;
+  private boolean finished;
+
+  MappedFileReader(Path file) throws IOException {
+    this(file, WINDOW_SIZE);
+  }
+
+  MappedFileReader(Path file, int windowSize) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    this.windowSize = Math.max(16, windowSize);
+    this.decoder = StandardCharsets.UTF_8.newDecoder().
+        onMalformedInput(CodingErrorAction.REPORT).
+        onUnmappableCharacter(CodingErrorAction.REPORT);
+    this.chars = CharBuffer.allocate(BUFFER_SIZE);
+    /* The buffers are cast to Buffer for flip, clear and position(int), which return a CharBuffer or ByteBuffer since Java 9.
+     * Compiled on a later JDK with target 1.8, those methods would not be found on a Java 8 runtime.
+     */
+    ((Buffer)this.chars).flip();
+    try {
+      this.size = channel.size();
+      map(0);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    // Skip a byte order mark.
+    if (bytes.remaining() >= 3 && bytes.get(0) == (byte)0xEF && bytes.get(1) == (byte)0xBB && bytes.get(2) == (byte)0xBF) {
+      ((Buffer)bytes).position(3);
+    }
+  }
+
+  /**
+   * Map the window of the file that starts at a given position.
+   * @param start
+   * @throws IOException
+   */
+  private void map(long start) throws IOException {
+    windowStart = start;
+    bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+  }
+
+  /**
+   * Decode the next characters into the character buffer.
+   * A multi-byte sequence at the end of a window is left in the byte buffer, and is decoded from the start of the next window.
+   * @return false at the end of the file
+   * @throws IOException
+   */
+  private boolean fill() throws IOException {
+    ((Buffer)chars).clear();
+    while (chars.position() == 0 && !finished) {
+      boolean endOfInput = windowStart + bytes.limit() >= size;
+      CoderResult result = decoder.decode(bytes, chars, endOfInput);
+      if (result.isError()) {
+        result.throwException();
+      }
+      if (result.isUnderflow()) {
+        if (endOfInput) {
+          result = decoder.flush(chars);
+          if (result.isError()) {
+            result.throwException();
+          }
+          finished = true;
+        } else {
+          map(windowStart + bytes.position());
+        }
+      }
+    }
+    ((Buffer)chars).flip();
+    return chars.hasRemaining();
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!chars.hasRemaining() && !fill()) {
+      return -1;
+    }
+    int n = Math.min(len, chars.remaining());
+    chars.get(cbuf, off, n);
+    return n;
+  }
+
+  @Override
+  public boolean ready() {
+    return chars.hasRemaining();
+  }
+
+  @Override
+  public void close() throws IOException {
+    // The mapped buffer is released when it is garbage collected.
+    bytes = null;
+    channel.close();
+  }
+
+}
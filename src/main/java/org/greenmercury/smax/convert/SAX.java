@@ -1,10 +1,15 @@
 package org.greenmercury.smax.convert;
 
+import java.util.List;
+
+import org.greenmercury.smax.CharStore;
 import org.greenmercury.smax.NamespacePrefixMapping;
 import org.greenmercury.smax.SmaxDocument;
 import org.greenmercury.smax.SmaxElement;
+import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
 
 /**
  * SmaxDocument conversion to (not yet from) org.xml.sax.*.ContentHandler.
@@ -13,57 +18,93 @@ import org.xml.sax.SAXException;
  */
 public class SAX {
 
+  /**
+   * The maximum number of characters that is sent in one {@code characters} event.
+   * Longer text is sent in several events, so the character window does not grow with the size of the text.
+   */
+  private static final int WINDOW_SIZE = 8192;
+
+  /**
+   * The attributes that are sent for elements without attributes, so those elements do not need to create their attributes.
+   */
+  private static final Attributes NO_ATTRIBUTES = new AttributesImpl();
+
+  private final CharStore content;
+  private final ContentHandler saxHandler;
+
+  /**
+   * The character window that is used for all {@code characters} events.
+   * SAX handlers may not use the characters outside the {@code characters} event, so the window can be re-used.
+   */
+  private final char[] window;
+
+  private SAX(CharStore content, ContentHandler saxHandler) {
+    this.content = content;
+    this.saxHandler = saxHandler;
+    this.window = new char[Math.max(1, Math.min(WINDOW_SIZE, content.length()))];
+  }
+
   public static void fromSMAX(SmaxDocument smaxDocument, ContentHandler saxHandler)
     throws SAXException
   {
     SmaxElement root = smaxDocument.getMarkup();
+    SAX sax = new SAX(smaxDocument.getContentStore(), saxHandler);
     saxHandler.startDocument();
-    SmaxElementToSax(root, smaxDocument.getContentBuffer(), root.getStartPos(), saxHandler);
+    sax.smaxElementToSax(root, root.getStartPos());
     saxHandler.endDocument();
   }
 
-  private static int SmaxElementToSax(SmaxElement smaxElement, CharSequence content, int currentCharPos, ContentHandler saxHandler)
+  private int smaxElementToSax(SmaxElement smaxElement, int currentCharPos)
     throws SAXException
   {
     int startPos = smaxElement.getStartPos();
     int endPos = smaxElement.getEndPos();
     // Send text before element.
     if (startPos > currentCharPos) {
-      sendCharacters(content, currentCharPos, startPos - currentCharPos, saxHandler);
+      sendCharacters(currentCharPos, startPos);
       currentCharPos = startPos;
     }
     // Start namespace prefix mappings. See https://sourceforge.net/p/saxon/mailman/message/35548184/
-    for (NamespacePrefixMapping nspMapping : smaxElement.getNamespacePrefixMappings()) {
-      saxHandler.startPrefixMapping(nspMapping.prefix, nspMapping.uri);
+    NamespacePrefixMapping[] nspMappings = smaxElement.getNamespacePrefixMappings();
+    for (int i = 0; i < nspMappings.length; ++i) {
+      saxHandler.startPrefixMapping(nspMappings[i].prefix, nspMappings[i].uri);
     }
-    // Send element and its content.
-    saxHandler.startElement(smaxElement.getNamespaceUri(), smaxElement.getLocalName(), smaxElement.getQualifiedName(), smaxElement.getAttributes());
-    for (SmaxElement child : smaxElement.getChildren()) {
-      currentCharPos = SmaxElementToSax(child, content, currentCharPos, saxHandler);
+    // Send element and its content. The children are accessed by index, to avoid making an iterator for every element.
+    String namespaceUri = smaxElement.getNamespaceUri();
+    String localName = smaxElement.getLocalName();
+    String qualifiedName = smaxElement.getQualifiedName();
+    saxHandler.startElement(namespaceUri, localName, qualifiedName, smaxElement.hasAttributes() ? smaxElement.getAttributes() : NO_ATTRIBUTES);
+    if (smaxElement.hasChildNodes()) {
+      List<SmaxElement> children = smaxElement.getChildren();
+      for (int i = 0, nrChildren = children.size(); i < nrChildren; ++i) {
+        currentCharPos = smaxElementToSax(children.get(i), currentCharPos);
+      }
     }
     if (endPos > currentCharPos) {
-      sendCharacters(content, currentCharPos, endPos - currentCharPos, saxHandler);
+      sendCharacters(currentCharPos, endPos);
       currentCharPos = endPos;
     }
-    saxHandler.endElement(smaxElement.getNamespaceUri(), smaxElement.getLocalName(), smaxElement.getQualifiedName());
+    saxHandler.endElement(namespaceUri, localName, qualifiedName);
     // End namespace prefix mappings.
-    for (NamespacePrefixMapping nspMapping : smaxElement.getNamespacePrefixMappings()) {
-      saxHandler.endPrefixMapping(nspMapping.prefix);
+    for (int i = 0; i < nspMappings.length; ++i) {
+      saxHandler.endPrefixMapping(nspMappings[i].prefix);
     }
     return currentCharPos;
   }
 
   /**
-   * Convert content from the SMAX document into a SAX event.
+   * Convert content from the SMAX document into SAX events.
+   * The characters are copied into the window in bulk, at most one window at a time.
    * @param start
-   * @param length
+   * @param end
    */
-  private static void sendCharacters(CharSequence content, int start, int length, ContentHandler saxHandler) throws SAXException {
-    char[] out = new char[length];
-    for (int i = 0; i < length; ++i) {
-      out[i] = content.charAt(start+i);
+  private void sendCharacters(int start, int end) throws SAXException {
+    while (start < end) {
+      int length = Math.min(end - start, window.length);
+      content.getChars(start, start + length, window, 0);
+      saxHandler.characters(window, 0, length);
+      start += length;
     }
-    saxHandler.characters(out, 0, length);
   }
 
 }
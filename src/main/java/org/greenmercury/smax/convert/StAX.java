@@ -0,0 +1,234 @@
+package org.greenmercury.smax.convert;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.greenmercury.smax.Attribute;
+import org.greenmercury.smax.CharStore;
+import org.greenmercury.smax.NamespacePrefixMapping;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.SmaxException;
+import org.greenmercury.smax.StringBufferCharStore;
+
+/**
+ * SmaxDocument conversion from a StAX {@code javax.xml.stream.XMLStreamReader}.
+ *<p>
+ * The SMAX markup and text content are built while the XML is pulled from the reader,
+ * so no intermediate DOM tree is made.
+ *
+ * @author Rakensi
+ */
+public class StAX {
+
+  /**
+   * Construct a SMAX document from a character stream containing serialized XML.
+   * @param xmlReader
+   * @throws XMLStreamException
+   * @throws SmaxException
+   */
+  public static SmaxDocument toSmax(Reader xmlReader) throws XMLStreamException, SmaxException {
+    return toSmax(xmlReader, new StringBufferCharStore());
+  }
+
+  /**
+   * Construct a SMAX document from a character stream containing serialized XML.
+   * @param xmlReader
+   * @param content An empty {@code CharStore} that will receive the text content.
+   * @throws XMLStreamException
+   * @throws SmaxException
+   */
+  public static SmaxDocument toSmax(Reader xmlReader, CharStore content) throws XMLStreamException, SmaxException {
+    XMLStreamReader reader = XmlFactories.xmlInputFactory().createXMLStreamReader(xmlReader);
+    try {
+      return toSmax(reader, content);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Construct a SMAX document from a byte stream containing serialized XML.
+   * The encoding is determined by the XML parser.
+   * @param xmlStream
+   * @throws XMLStreamException
+   * @throws SmaxException
+   */
+  public static SmaxDocument toSmax(InputStream xmlStream) throws XMLStreamException, SmaxException {
+    return toSmax(xmlStream, new StringBufferCharStore());
+  }
+
+  /**
+   * Construct a SMAX document from a byte stream containing serialized XML.
+   * The encoding is determined by the XML parser.
+   * @param xmlStream
+   * @param content An empty {@code CharStore} that will receive the text content.
+   * @throws XMLStreamException
+   * @throws SmaxException
+   */
+  public static SmaxDocument toSmax(InputStream xmlStream, CharStore content) throws XMLStreamException, SmaxException {
+    XMLStreamReader reader = XmlFactories.xmlInputFactory().createXMLStreamReader(xmlStream);
+    try {
+      return toSmax(reader, content);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Construct a SMAX document from a StAX reader.
+   * The reader must be namespace aware, and positioned before or at the start of the root element.
+   * Reading stops after the end of the root element.
+   * @param reader
+   * @throws XMLStreamException
+   * @throws SmaxException
+   */
+  public static SmaxDocument toSmax(XMLStreamReader reader) throws XMLStreamException, SmaxException {
+    return toSmax(reader, new StringBufferCharStore());
+  }
+
+  /**
+   * Construct a SMAX document from a StAX reader.
+   * The reader must be namespace aware, and positioned before or at the start of the root element.
+   * Reading stops after the end of the root element.
+   * @param reader
+   * @param currentContent An empty {@code CharStore} that will receive the text content.
+   * @throws XMLStreamException
+   * @throws SmaxException
+   */
+  public static SmaxDocument toSmax(XMLStreamReader reader, CharStore currentContent) throws XMLStreamException, SmaxException {
+    /* A map from prefixes to namespace-URIs that are declared in an element.
+     * We use one instance to avoid making a new one for every element.
+     */
+    Map<String, String> namespaces = new HashMap<String, String>();
+
+    /* The open elements, with the innermost element on top.
+     * An element is appended to its parent when it is closed, so the parent is still detached when its children are added.
+     */
+    Deque<SmaxElement> openElements = new ArrayDeque<SmaxElement>();
+    SmaxElement markup = null;
+
+    int eventType = reader.getEventType();
+    while (markup == null) {
+      switch (eventType) {
+      case XMLStreamConstants.START_ELEMENT:
+        SmaxElement smaxElement = startElement(reader, currentContent, namespaces);
+        openElements.push(smaxElement);
+        break;
+      case XMLStreamConstants.END_ELEMENT:
+        SmaxElement closedElement = openElements.pop();
+        // Set end position after all text content has been processed.
+        closedElement.setEndPos(currentContent.length());
+        if (openElements.isEmpty()) {
+          markup = closedElement;
+        } else {
+          openElements.peek().appendChild(closedElement);
+        }
+        break;
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.CDATA:
+      case XMLStreamConstants.SPACE:
+        // Text outside the root element is not part of the content.
+        if (!openElements.isEmpty()) {
+          currentContent.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+        break;
+      case XMLStreamConstants.ENTITY_REFERENCE:
+        // This only happens when the reader does not replace entity references. The text characters are not available for this event.
+        if (!openElements.isEmpty()) {
+          String replacement = reader.getText();
+          if (replacement != null) {
+            currentContent.append(replacement);
+          }
+        }
+        break;
+      case XMLStreamConstants.END_DOCUMENT:
+        throw new SmaxException("The XML stream does not contain a root element.");
+      default:
+        // Comments, processing instructions and DTDs are ignored.
+        break;
+      }
+      if (markup == null) {
+        eventType = reader.next();
+      }
+    }
+    return new SmaxDocument(markup, currentContent);
+  }
+
+  /**
+   * Make a SMAX element for the start tag at the current position of the reader.
+   * Namespaces are handled in the same way as in {@code Dom.toSmax}.
+   * @param reader The reader, positioned at a START_ELEMENT event.
+   * @param currentContent The text content of the SMAX document.
+   * @param namespaces A map of namespace prefix mappings. This is passed to avoid making new maps for every element.
+   * @return The SMAX element, without children and end position.
+   */
+  private static SmaxElement startElement(XMLStreamReader reader, CharStore currentContent, Map<String, String> namespaces)
+    throws SmaxException
+  {
+    namespaces.clear();
+    String elementPrefix = nonNull(reader.getPrefix());
+    String elementName = qualifiedName(elementPrefix, reader.getLocalName());
+    // If the element is in a namespace, add it to the namespaces declared on this element.
+    String elementNamespace = reader.getNamespaceURI();
+    if ("".equals(elementNamespace)) {
+      // The DOM uses null for elements without a namespace.
+      elementNamespace = null;
+    }
+    if (elementNamespace != null) {
+      namespaces.put(elementPrefix, elementNamespace);
+    }
+    // Make a SMAX element.
+    SmaxElement smaxElement = new SmaxElement(elementNamespace, elementName);
+    smaxElement.setStartPos(currentContent.length());
+    // Handle namespace declarations.
+    for (int i = 0, nrNamespaces = reader.getNamespaceCount(); i < nrNamespaces; ++i) {
+      String declaredPrefix = nonNull(reader.getNamespacePrefix(i)); // xmlns="..." or xmlns:prefix="..."
+      if (! namespaces.containsKey(declaredPrefix)) {
+        namespaces.put(declaredPrefix, nonNull(reader.getNamespaceURI(i)));
+      }
+    }
+    // Handle attributes.
+    for (int i = 0, nrAttributes = reader.getAttributeCount(); i < nrAttributes; ++i) {
+      String attributeLocalName = reader.getAttributeLocalName(i);
+      String attributePrefix = nonNull(reader.getAttributePrefix(i));
+      String attributeName = qualifiedName(attributePrefix, attributeLocalName);
+      String attributeNamespace = reader.getAttributeNamespace(i);
+      if ("xml".equals(attributePrefix)) {
+        // This is a special XML attribute, with an implicit namespace URI.
+        smaxElement.setAttribute(Attribute.XML_URI, attributeLocalName, attributeName, "CDATA", reader.getAttributeValue(i));
+      } else {
+        if (! "".equals(attributePrefix) && ! namespaces.containsKey(attributePrefix)) {
+          namespaces.put(attributePrefix, attributeNamespace);
+        }
+        smaxElement.setAttribute(attributeNamespace, attributeLocalName, attributeName, "CDATA", reader.getAttributeValue(i));
+      }
+    }
+    // Collect the namespaces and make them into namespace prefix mappings on the SMAX element.
+    if (namespaces.size() > 0) {
+      NamespacePrefixMapping[] namespacePrefixMappings =
+          namespaces.entrySet().stream().
+          map((entry) -> new NamespacePrefixMapping(entry.getKey(), entry.getValue())).
+          toArray(NamespacePrefixMapping[]::new);
+      smaxElement.setNamespacePrefixMappings(namespacePrefixMappings);
+    }
+    return smaxElement;
+  }
+
+  private static String qualifiedName(String prefix, String localName) {
+    return prefix.length() > 0 ? prefix + ":" + localName : localName;
+  }
+
+  private static String nonNull(String s) {
+    return s != null ? s : "";
+  }
+
+}
@@ -0,0 +1,268 @@
+package org.greenmercury.smax.convert;
+
+import java.util.function.Supplier;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.bootstrap.DOMImplementationRegistry;
+import org.xml.sax.SAXException;
+
+/**
+ * Cached XML parsers, transformers and factories for the conversions in this package.
+ *<p>
+ * Making a JAXP factory involves a service lookup, which costs much more than converting a small document.
+ * The parsers and transformers made by the factories are not thread-safe, so every thread gets its own instances,
+ * which are reset before they are handed out again.
+ * An instance is in use from the moment it is handed out until it is given back by one of the {@code release} methods.
+ * While it is in use, for example when a SAX handler parses another document during a parse, a new instance is made,
+ * so a parse is never reset while it is running. The new instance replaces the cached instance of the thread,
+ * so a thread where an instance is not given back only pays for making one new instance, after which caching goes on.
+ * The DOM implementation is thread-safe, and is looked up only once.
+ *<p>
+ * The factories can be replaced by setting a supplier, for example to use a specific XML parser.
+ * Factories from a supplier get the same settings as the default factories, including the protection against well-known XML attacks.
+ * Setting a supplier discards the cached instances of all threads.
+ *<p>
+ * @author Rakensi
+ */
+public final class XmlFactories {
+
+  private static volatile Supplier<DocumentBuilderFactory> documentBuilderFactorySupplier = DocumentBuilderFactory::newInstance;
+  private static volatile Supplier<SAXParserFactory> saxParserFactorySupplier = SAXParserFactory::newInstance;
+  private static volatile Supplier<TransformerFactory> transformerFactorySupplier = TransformerFactory::newInstance;
+  private static volatile Supplier<XMLInputFactory> xmlInputFactorySupplier = XMLInputFactory::newInstance;
+
+  private static volatile ThreadLocal<Cached<DocumentBuilder>> documentBuilders = new ThreadLocal<>();
+  private static volatile ThreadLocal<Cached<SAXParser>> saxParsers = new ThreadLocal<>();
+  private static volatile ThreadLocal<Cached<Transformer>> transformers = new ThreadLocal<>();
+  private static volatile ThreadLocal<XMLInputFactory> xmlInputFactories = new ThreadLocal<>();
+
+  private static volatile DOMImplementation domImplementation;
+
+  /**
+   * The cached instance of a thread, and whether it has been handed out and not released.
+   */
+  private static final class Cached<T> {
+    final T instance;
+    boolean inUse = true;
+    Cached(T instance) {
+      this.instance = instance;
+    }
+  }
+
+  private XmlFactories() {
+  }
+
+  /**
+   * Set the supplier of {@code DocumentBuilderFactory} instances, which are used by {@link #documentBuilder()}.
+   * @param supplier
+   */
+  public static void setDocumentBuilderFactorySupplier(Supplier<DocumentBuilderFactory> supplier) {
+    documentBuilderFactorySupplier = supplier;
+    documentBuilders = new ThreadLocal<>();
+  }
+
+  /**
+   * Set the supplier of {@code SAXParserFactory} instances, which are used by {@link #saxParser()}.
+   * @param supplier
+   */
+  public static void setSaxParserFactorySupplier(Supplier<SAXParserFactory> supplier) {
+    saxParserFactorySupplier = supplier;
+    saxParsers = new ThreadLocal<>();
+  }
+
+  /**
+   * Set the supplier of {@code TransformerFactory} instances, which are used by {@link #transformer()}.
+   * @param supplier
+   */
+  public static void setTransformerFactorySupplier(Supplier<TransformerFactory> supplier) {
+    transformerFactorySupplier = supplier;
+    transformers = new ThreadLocal<>();
+  }
+
+  /**
+   * Set the supplier of {@code XMLInputFactory} instances, which are used by {@link #xmlInputFactory()}.
+   * @param supplier
+   */
+  public static void setXmlInputFactorySupplier(Supplier<XMLInputFactory> supplier) {
+    xmlInputFactorySupplier = supplier;
+    xmlInputFactories = new ThreadLocal<>();
+  }
+
+  /**
+   * Get a namespace aware DOM document builder for the current thread.
+   * Give it back with {@link #release(DocumentBuilder)} when parsing is finished, so that it can be used again.
+   * @return a {@code DocumentBuilder} that has been reset
+   * @throws ParserConfigurationException
+   */
+  public static DocumentBuilder documentBuilder() throws ParserConfigurationException {
+    ThreadLocal<Cached<DocumentBuilder>> cache = documentBuilders;
+    DocumentBuilder builder = take(cache);
+    if (builder == null) {
+      DocumentBuilderFactory factory = documentBuilderFactorySupplier.get();
+      try {
+        // Make the parser namespace aware.
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://xml.org/sax/features/namespaces", true);
+        factory.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+        // Protect against well-known XML attacks.
+        factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      } catch (ParserConfigurationException pce) {}
+      builder = factory.newDocumentBuilder();
+      keep(cache, builder);
+    } else {
+      builder.reset();
+    }
+    return builder;
+  }
+
+  /**
+   * Give back a document builder from {@link #documentBuilder()}, which is no longer used.
+   * @param builder
+   */
+  public static void release(DocumentBuilder builder) {
+    release(documentBuilders, builder);
+  }
+
+  /**
+   * Get a namespace aware SAX parser for the current thread.
+   * Give it back with {@link #release(SAXParser)} when parsing is finished, so that it can be used again.
+   * @return a {@code SAXParser} that has been reset
+   * @throws ParserConfigurationException
+   * @throws SAXException
+   */
+  public static SAXParser saxParser() throws ParserConfigurationException, SAXException {
+    ThreadLocal<Cached<SAXParser>> cache = saxParsers;
+    SAXParser parser = take(cache);
+    if (parser == null) {
+      SAXParserFactory factory = saxParserFactorySupplier.get();
+      factory.setNamespaceAware(true);
+      try {
+        // Protect against well-known XML attacks.
+        factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      } catch (ParserConfigurationException | SAXException e) {}
+      parser = factory.newSAXParser();
+      keep(cache, parser);
+    } else {
+      parser.reset();
+    }
+    return parser;
+  }
+
+  /**
+   * Give back a SAX parser from {@link #saxParser()}, which is no longer used.
+   * @param parser
+   */
+  public static void release(SAXParser parser) {
+    release(saxParsers, parser);
+  }
+
+  /**
+   * Get an identity transformer for the current thread.
+   * Give it back with {@link #release(Transformer)} when transforming is finished, so that it can be used again.
+   * @return a {@code Transformer} that has been reset
+   * @throws TransformerConfigurationException
+   */
+  public static Transformer transformer() throws TransformerConfigurationException {
+    ThreadLocal<Cached<Transformer>> cache = transformers;
+    Transformer transformer = take(cache);
+    if (transformer == null) {
+      transformer = transformerFactorySupplier.get().newTransformer();
+      keep(cache, transformer);
+    } else {
+      transformer.reset();
+    }
+    return transformer;
+  }
+
+  /**
+   * Give back a transformer from {@link #transformer()}, which is no longer used.
+   * @param transformer
+   */
+  public static void release(Transformer transformer) {
+    release(transformers, transformer);
+  }
+
+  /**
+   * @param cache
+   * @return the cached instance of the current thread, which is now in use, or null if there is none or it is in use
+   */
+  private static <T> T take(ThreadLocal<Cached<T>> cache) {
+    Cached<T> cached = cache.get();
+    if (cached == null || cached.inUse) {
+      return null;
+    }
+    cached.inUse = true;
+    return cached.instance;
+  }
+
+  /**
+   * Cache a new instance, which is in use, for the current thread.
+   * It replaces the cached instance, which is in use if there is one. That instance is not cached again when it is released.
+   */
+  private static <T> void keep(ThreadLocal<Cached<T>> cache, T instance) {
+    cache.set(new Cached<>(instance));
+  }
+
+  private static <T> void release(ThreadLocal<Cached<T>> cache, T instance) {
+    Cached<T> cached = cache.get();
+    if (cached != null && cached.instance == instance) {
+      cached.inUse = false;
+    }
+  }
+
+  /**
+   * Get a StAX input factory for the current thread, that is namespace aware and protected against well-known XML attacks.
+   * @return an {@code XMLInputFactory}
+   */
+  public static XMLInputFactory xmlInputFactory() {
+    ThreadLocal<XMLInputFactory> cache = xmlInputFactories;
+    XMLInputFactory factory = cache.get();
+    if (factory == null) {
+      factory = xmlInputFactorySupplier.get();
+      factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+      factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+      // Protect against well-known XML attacks.
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+      try {
+        factory.setProperty("http://java.sun.com/xml/stream/properties/ignore-external-dtd", true);
+      } catch (IllegalArgumentException iae) {}
+      cache.set(factory);
+    }
+    return factory;
+  }
+
+  /**
+   * Get the DOM implementation that supports "XML 3.0". It is looked up in the {@code DOMImplementationRegistry} the first time.
+   * @return a {@code DOMImplementation}
+   * @throws ClassNotFoundException
+   * @throws InstantiationException
+   * @throws IllegalAccessException
+   * @throws ClassCastException
+   */
+  public static DOMImplementation domImplementation()
+      throws ClassNotFoundException, InstantiationException, IllegalAccessException, ClassCastException
+  {
+    DOMImplementation implementation = domImplementation;
+    if (implementation == null) {
+      implementation = DOMImplementationRegistry.newInstance().getDOMImplementation("XML 3.0");
+      domImplementation = implementation;
+    }
+    return implementation;
+  }
+
+}
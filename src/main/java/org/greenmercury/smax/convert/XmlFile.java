@@ -0,0 +1,53 @@
+package org.greenmercury.smax.convert;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.greenmercury.smax.CharStore;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxException;
+import org.greenmercury.smax.StringBufferCharStore;
+
+/**
+ * SmaxDocument conversion from a UTF-8 encoded XML file.
+ *<p>
+ * The file is memory-mapped one window at a time, decoded incrementally, and parsed by a StAX parser.
+ * The whole file is never held in memory as bytes or as a {@code String}, and no intermediate DOM tree is made,
+ * so only the SMAX markup and text content of the document take up memory.
+ *<p>
+ * The file must be encoded in UTF-8; an encoding in the XML declaration is ignored.
+ * Files in other encodings can be read with {@code StAX.toSmax(InputStream)}.
+ *<p>
+ * @author Rakensi
+ */
+public class XmlFile {
+
+  /**
+   * Construct a SMAX document from a UTF-8 encoded XML file.
+   * @param xmlFile
+   * @throws IOException
+   * @throws XMLStreamException
+   * @throws SmaxException
+   */
+  public static SmaxDocument toSmax(Path xmlFile) throws IOException, XMLStreamException, SmaxException {
+    return toSmax(xmlFile, new StringBufferCharStore());
+  }
+
+  /**
+   * Construct a SMAX document from a UTF-8 encoded XML file, with the text content in a given {@code CharStore}.
+   * @param xmlFile
+   * @param content An empty {@code CharStore} that will receive the text content.
+   * @throws IOException
+   * @throws XMLStreamException
+   * @throws SmaxException
+   */
+  public static SmaxDocument toSmax(Path xmlFile, CharStore content) throws IOException, XMLStreamException, SmaxException {
+    try (Reader reader = new MappedFileReader(xmlFile)) {
+      return StAX.toSmax(reader, content);
+    }
+  }
+
+}
@@ -1,23 +1,26 @@
 package org.greenmercury.smax.convert;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
-import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.parsers.SAXParser;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.greenmercury.smax.CharStore;
 import org.greenmercury.smax.SmaxDocument;
 import org.greenmercury.smax.SmaxException;
-import org.w3c.dom.DOMException;
+import org.greenmercury.smax.StringBufferCharStore;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.InputSource;
@@ -29,6 +32,7 @@ public class XmlString {
 
   /**
    * Construct a SMAX document from a serialized XML text string.
+   * The XML is parsed by a StAX parser, without building an intermediate DOM.
    * @param xml
    * @throws ParserConfigurationException
    * @throws IOException
@@ -36,21 +40,41 @@ public class XmlString {
    * @throws SmaxException
    */
   public static SmaxDocument toSmax(String xmlString) throws ParserConfigurationException, SAXException, IOException, SmaxException {
-    return Dom.toSmax(toDomElement(xmlString));
+    return toSmax(xmlString, new StringBufferCharStore());
+  }
+
+  /**
+   * Construct a SMAX document from a serialized XML text string, with the text content in a given {@code CharStore}.
+   * @param xmlString
+   * @param content An empty {@code CharStore} that will receive the text content.
+   * @throws ParserConfigurationException
+   * @throws IOException
+   * @throws SAXException
+   * @throws SmaxException
+   */
+  public static SmaxDocument toSmax(String xmlString, CharStore content) throws ParserConfigurationException, SAXException, IOException, SmaxException {
+    try {
+      return StAX.toSmax(new StringReader(xmlString), content);
+    } catch (XMLStreamException e) {
+      throw new SAXException("Parsing the XML text failed: "+e.getMessage(), e);
+    }
   }
 
   /**
    * Construct an XML text string from a SMAX document.
+   * The XML is written by {@code XmlWriter}, without building an intermediate DOM.
    * @param smaxDocument
    * @return
    * @throws Exception
    */
   public static String fromSmax(SmaxDocument smaxDocument) throws Exception {
+    StringWriter writer = new StringWriter();
     try {
-      return fromDomElement(Dom.fromSmax(smaxDocument));
-    } catch (DOMException | ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException | TransformerException e) {
+      XmlWriter.fromSmax(smaxDocument, writer);
+    } catch (IOException e) {
       throw new Exception("Serializing the SMAX document failed: "+e.getMessage(), e);
     }
+    return writer.toString();
   }
 
   /**
@@ -62,22 +86,15 @@ public class XmlString {
    * @throws IOException
    */
   public static Element toDomElement(String xmlString) throws ParserConfigurationException, SAXException, IOException {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    // Get a cached document builder and parse the document.
+    DocumentBuilder builder = XmlFactories.documentBuilder();
     try {
-      // Make the parser namespace aware.
-      factory.setNamespaceAware(true);
-      factory.setFeature("http://xml.org/sax/features/namespaces", true);
-      factory.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
-      // Protect against well-known XML attacks.
-      factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-      factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-    } catch (ParserConfigurationException pce) {}
-    // Get a document builder and parse the document.
-    DocumentBuilder builder = factory.newDocumentBuilder();
-    InputSource is = new InputSource(new StringReader(xmlString));
-    Document xmlDoc = builder.parse(is);
-    return xmlDoc.getDocumentElement();
+      InputSource is = new InputSource(new StringReader(xmlString));
+      Document xmlDoc = builder.parse(is);
+      return xmlDoc.getDocumentElement();
+    } finally {
+      XmlFactories.release(builder);
+    }
   }
 
   /**
@@ -87,11 +104,14 @@ public class XmlString {
    * @throws TransformerException
    */
   public static String fromDomElement(Element domElement) throws TransformerException {
-    TransformerFactory tf = TransformerFactory.newInstance();
-    Transformer trans = tf.newTransformer();
-    StringWriter sw = new StringWriter();
-    trans.transform(new DOMSource(domElement), new StreamResult(sw));
-    return sw.toString();
+    Transformer trans = XmlFactories.transformer();
+    try {
+      StringWriter sw = new StringWriter();
+      trans.transform(new DOMSource(domElement), new StreamResult(sw));
+      return sw.toString();
+    } finally {
+      XmlFactories.release(trans);
+    }
   }
 
   /**
@@ -102,13 +122,77 @@ public class XmlString {
    * @throws ParserConfigurationException
    */
   public static void toSax(String xmlString, DefaultHandler handler) throws SAXException, ParserConfigurationException {
-    SAXParserFactory factory = SAXParserFactory.newInstance();
-    factory.setNamespaceAware(true);
-    XMLReader xmlReader = factory.newSAXParser().getXMLReader();
-    xmlReader.setContentHandler(handler);
-    xmlReader.setDTDHandler(handler);
-    xmlReader.setEntityResolver(handler);
-    xmlReader.setErrorHandler(handler);
+    try {
+      toSax(new InputSource(new StringReader(xmlString)), handler);
+    } catch (IOException e) {
+      throw new SAXException("Parsing the XML text failed: "+e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Construct SAX events from a character stream containing serialized XML.
+   * The XML is parsed while it is read, so it is never held in memory as a whole.
+   * The reader is not closed.
+   * @param xmlReader
+   * @param handler
+   * @throws SAXException
+   * @throws ParserConfigurationException
+   * @throws IOException
+   */
+  public static void toSax(Reader xmlReader, DefaultHandler handler) throws SAXException, ParserConfigurationException, IOException {
+    toSax(new InputSource(xmlReader), handler);
+  }
+
+  /**
+   * Construct SAX events from a byte stream containing serialized XML.
+   * The encoding is determined by the XML parser. The stream is not closed.
+   * @param xmlStream
+   * @param handler
+   * @throws SAXException
+   * @throws ParserConfigurationException
+   * @throws IOException
+   */
+  public static void toSax(InputStream xmlStream, DefaultHandler handler) throws SAXException, ParserConfigurationException, IOException {
+    toSax(new InputSource(xmlStream), handler);
+  }
+
+  /**
+   * Construct SAX events from a file containing serialized XML.
+   * The file is streamed, and relative references in the XML are resolved against its location.
+   * @param xmlFile
+   * @param handler
+   * @throws SAXException
+   * @throws ParserConfigurationException
+   * @throws IOException
+   */
+  public static void toSax(Path xmlFile, DefaultHandler handler) throws SAXException, ParserConfigurationException, IOException {
+    try (InputStream xmlStream = Files.newInputStream(xmlFile)) {
+      InputSource inputSource = new InputSource(xmlStream);
+      inputSource.setSystemId(xmlFile.toUri().toString());
+      toSax(inputSource, handler);
+    }
+  }
+
+  /**
+   * Construct SAX events from a SAX input source, using a cached namespace aware parser.
+   * @param inputSource
+   * @param handler receives the content, DTD and error events, and resolves entities
+   * @throws SAXException
+   * @throws ParserConfigurationException
+   * @throws IOException
+   */
+  public static void toSax(InputSource inputSource, DefaultHandler handler) throws SAXException, ParserConfigurationException, IOException {
+    SAXParser parser = XmlFactories.saxParser();
+    try {
+      XMLReader xmlReader = parser.getXMLReader();
+      xmlReader.setContentHandler(handler);
+      xmlReader.setDTDHandler(handler);
+      xmlReader.setEntityResolver(handler);
+      xmlReader.setErrorHandler(handler);
+      xmlReader.parse(inputSource);
+    } finally {
+      XmlFactories.release(parser);
+    }
   }
 
 }
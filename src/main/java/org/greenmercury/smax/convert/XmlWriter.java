@@ -0,0 +1,330 @@
+package org.greenmercury.smax.convert;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.greenmercury.smax.CharStore;
+import org.greenmercury.smax.SmaxAttributes;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+
+/**
+ * SmaxDocument conversion to XML text, which is written to a {@code Writer} or an {@code OutputStream}.
+ *<p>
+ * The markup and the content of the SMAX document are written directly, without building a DOM and running a {@code Transformer}.
+ * The output is the same as the output of an identity transformation of {@code Dom.fromSmax}:
+ * Attributes are sorted by name, namespace declarations are added where attributes and elements need them,
+ * and characters are escaped in the same way.
+ * There is one difference: An element without a namespace inside an element with a default namespace gets {@code xmlns=""},
+ * so that it does not end up in the default namespace when the XML is parsed.
+ *<p>
+ * @author Rakensi
+ */
+public class XmlWriter {
+
+  /**
+   * The XML declaration that is written before the root element.
+   */
+  public static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+  /**
+   * The maximum number of characters of text content that is escaped in one go.
+   */
+  private static final int WINDOW_SIZE = 8192;
+
+  private final CharStore content;
+  private final Writer writer;
+  private final char[] window;
+
+  /**
+   * The namespace bindings that are in scope, from the outermost to the innermost element.
+   * The prefixes and URIs at the same index belong together.
+   */
+  private final List<String> scopePrefixes = new ArrayList<>();
+  private final List<String> scopeUris = new ArrayList<>();
+
+  private XmlWriter(CharStore content, Writer writer) {
+    this.content = content;
+    this.writer = writer;
+    this.window = new char[Math.max(1, Math.min(WINDOW_SIZE, content.length()))];
+    // Without declarations, the default namespace is no namespace.
+    scopePrefixes.add("");
+    scopeUris.add("");
+  }
+
+  /**
+   * Write a SMAX document as XML, with an XML declaration.
+   * @param smaxDocument
+   * @param writer the {@code Writer} receiving the XML. It is not flushed or closed.
+   * @throws IOException
+   */
+  public static void fromSmax(SmaxDocument smaxDocument, Writer writer) throws IOException {
+    fromSmax(smaxDocument, writer, true);
+  }
+
+  /**
+   * Write a SMAX document as XML.
+   * @param smaxDocument
+   * @param writer the {@code Writer} receiving the XML. It is not flushed or closed.
+   * @param xmlDeclaration If true, the XML declaration is written before the root element.
+   * @throws IOException
+   */
+  public static void fromSmax(SmaxDocument smaxDocument, Writer writer, boolean xmlDeclaration) throws IOException {
+    XmlWriter xmlWriter = new XmlWriter(smaxDocument.getContentStore(), writer);
+    if (xmlDeclaration) {
+      writer.write(XML_DECLARATION);
+    }
+    SmaxElement root = smaxDocument.getMarkup();
+    xmlWriter.writeElement(root, root.getStartPos());
+  }
+
+  /**
+   * Write a SMAX document as XML in UTF-8, with an XML declaration.
+   * @param smaxDocument
+   * @param outputStream the {@code OutputStream} receiving the XML. It is flushed, but not closed.
+   * @throws IOException
+   */
+  public static void fromSmax(SmaxDocument smaxDocument, OutputStream outputStream) throws IOException {
+    fromSmax(smaxDocument, outputStream, true);
+  }
+
+  /**
+   * Write a SMAX document as XML in UTF-8.
+   * @param smaxDocument
+   * @param outputStream the {@code OutputStream} receiving the XML. It is flushed, but not closed.
+   * @param xmlDeclaration If true, the XML declaration is written before the root element.
+   * @throws IOException
+   */
+  public static void fromSmax(SmaxDocument smaxDocument, OutputStream outputStream, boolean xmlDeclaration) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    fromSmax(smaxDocument, writer, xmlDeclaration);
+    writer.flush();
+  }
+
+  private int writeElement(SmaxElement smaxElement, int currentCharPos) throws IOException {
+    int startPos = smaxElement.getStartPos();
+    int endPos = smaxElement.getEndPos();
+    // Write text before the element.
+    if (startPos > currentCharPos) {
+      writeText(currentCharPos, startPos);
+    }
+    int scopeMark = scopePrefixes.size();
+    // An element without a namespace has no prefix, like an element made by DOM createElement.
+    String elementNamespace = smaxElement.getNamespaceUri();
+    boolean hasNamespace = elementNamespace != null && !"".equals(elementNamespace);
+    String name = hasNamespace ? smaxElement.getQualifiedName() : smaxElement.getLocalName();
+    // The namespaces of the attributes are declared before the attributes, and the namespace of the element after them.
+    Map<String, String> attributes = declareAttributes(smaxElement, scopeMark);
+    int elementDeclarationMark = scopePrefixes.size();
+    if (hasNamespace) {
+      declareNamespace(prefix(name), elementNamespace, scopeMark);
+    } else {
+      declareNamespace("", "", scopeMark);
+    }
+    writer.write('<');
+    writer.write(name);
+    writeNamespaceDeclarations(scopeMark, elementDeclarationMark);
+    for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+      writeAttribute(attribute.getKey(), attribute.getValue());
+    }
+    writeNamespaceDeclarations(elementDeclarationMark, scopePrefixes.size());
+    // Write the content, or close an empty element.
+    boolean hasChildren = smaxElement.hasChildNodes();
+    if (!hasChildren && startPos >= endPos) {
+      writer.write("/>");
+    } else {
+      writer.write('>');
+      int contentPos = startPos;
+      if (hasChildren) {
+        List<SmaxElement> children = smaxElement.getChildren();
+        for (int i = 0, nrChildren = children.size(); i < nrChildren; ++i) {
+          contentPos = writeElement(children.get(i), contentPos);
+        }
+      }
+      if (endPos > contentPos) {
+        writeText(contentPos, endPos);
+      }
+      writer.write("</");
+      writer.write(name);
+      writer.write('>');
+    }
+    // The namespace declarations of this element go out of scope.
+    for (int i = scopePrefixes.size() - 1; i >= scopeMark; --i) {
+      scopePrefixes.remove(i);
+      scopeUris.remove(i);
+    }
+    return endPos;
+  }
+
+  /**
+   * Get the attributes of an element, and declare the namespaces that they need.
+   * Attributes without a namespace lose their prefix, like attributes made by DOM {@code setAttribute}.
+   * @param smaxElement
+   * @param scopeMark the number of namespace bindings in scope outside the element
+   * @return the attribute values by name, sorted by name
+   */
+  private Map<String, String> declareAttributes(SmaxElement smaxElement, int scopeMark) {
+    if (!smaxElement.hasAttributes()) {
+      return Collections.emptyMap();
+    }
+    SmaxAttributes attributes = smaxElement.getAttributes();
+    int nrAttributes = attributes.getLength();
+    // A DOM element keeps its attributes sorted by name.
+    Map<String, String> attributeNamespaces = new HashMap<>();
+    TreeMap<String, String> sortedAttributes = new TreeMap<>();
+    for (int i = 0; i < nrAttributes; ++i) {
+      String attributeNamespace = attributes.getURI(i);
+      if (attributeNamespace == null || "".equals(attributeNamespace)) {
+        sortedAttributes.put(attributes.getLocalName(i), attributes.getValue(i));
+      } else {
+        String attributeName = attributes.getQName(i);
+        sortedAttributes.put(attributeName, attributes.getValue(i));
+        attributeNamespaces.put(prefix(attributeName), attributeNamespace);
+      }
+    }
+    if (!attributeNamespaces.isEmpty()) {
+      TreeMap<String, String> sortedDeclarations = new TreeMap<>();
+      for (Map.Entry<String, String> namespace : attributeNamespaces.entrySet()) {
+        sortedDeclarations.put("".equals(namespace.getKey()) ? "" : ":"+namespace.getKey(), namespace.getValue());
+      }
+      for (Map.Entry<String, String> declaration : sortedDeclarations.entrySet()) {
+        String prefix = declaration.getKey();
+        declareNamespace(prefix.isEmpty() ? prefix : prefix.substring(1), declaration.getValue(), scopeMark);
+      }
+    }
+    return sortedAttributes;
+  }
+
+  /**
+   * Bring a namespace binding into scope for the current element, if it is not in scope already.
+   * If the current element already declares the prefix, the URI of that declaration is replaced.
+   * Prefixes that start with "xml" are never declared.
+   * @param prefix
+   * @param uri
+   * @param scopeMark the number of namespace bindings in scope outside the current element
+   */
+  private void declareNamespace(String prefix, String uri, int scopeMark) {
+    if (prefix.startsWith("xml")) {
+      return;
+    }
+    for (int i = scopePrefixes.size() - 1; i >= 0; --i) {
+      if (scopePrefixes.get(i).equals(prefix)) {
+        if (i >= scopeMark) {
+          scopeUris.set(i, uri);
+          return;
+        } else if (scopeUris.get(i).equals(uri)) {
+          return;
+        }
+        break;
+      }
+    }
+    if (!"".equals(prefix) && "".equals(uri)) {
+      // A prefix cannot be undeclared in XML 1.0.
+      return;
+    }
+    scopePrefixes.add(prefix);
+    scopeUris.add(uri);
+  }
+
+  private void writeNamespaceDeclarations(int from, int to) throws IOException {
+    for (int i = from; i < to; ++i) {
+      String prefix = scopePrefixes.get(i);
+      writeAttribute("".equals(prefix) ? "xmlns" : "xmlns:"+prefix, scopeUris.get(i));
+    }
+  }
+
+  private void writeAttribute(String name, String value) throws IOException {
+    writer.write(' ');
+    writer.write(name);
+    writer.write("=\"");
+    int clean = 0;
+    int length = value.length();
+    for (int i = 0; i < length; ++i) {
+      char c = value.charAt(i);
+      String escaped;
+      if (c == '&') escaped = "&amp;";
+      else if (c == '<') escaped = "&lt;";
+      else if (c == '>') escaped = "&gt;";
+      else if (c == '"') escaped = "&quot;";
+      else if (c < 0x20) escaped = characterReference(c);
+      else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        escaped = characterReference(Character.toCodePoint(c, value.charAt(i + 1)));
+        writer.write(value, clean, i - clean);
+        writer.write(escaped);
+        clean = i + 2;
+        ++i;
+        continue;
+      }
+      else continue;
+      writer.write(value, clean, i - clean);
+      writer.write(escaped);
+      clean = i + 1;
+    }
+    writer.write(value, clean, length - clean);
+    writer.write('"');
+  }
+
+  /**
+   * Write escaped text content. The characters are copied into the window, at most one window at a time.
+   * @param start
+   * @param end
+   * @throws IOException
+   */
+  private void writeText(int start, int end) throws IOException {
+    while (start < end) {
+      int length = Math.min(end - start, window.length);
+      content.getChars(start, start + length, window, 0);
+      if (length > 1 && start + length < end && Character.isHighSurrogate(window[length - 1])) {
+        // Keep a surrogate pair together in the next window.
+        --length;
+      }
+      int clean = 0;
+      for (int i = 0; i < length; ++i) {
+        char c = window[i];
+        String escaped;
+        if (c == '&') escaped = "&amp;";
+        else if (c == '<') escaped = "&lt;";
+        else if (c == '>') escaped = "&gt;";
+        else if (c < 0x20) {
+          if (c == '\t' || c == '\n') continue;
+          escaped = characterReference(c);
+        }
+        else if (c < 0x7F) continue;
+        else if (c <= 0x9F) escaped = characterReference(c);
+        else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(window[i + 1])) {
+          writer.write(window, clean, i - clean);
+          writer.write(characterReference(Character.toCodePoint(c, window[i + 1])));
+          clean = i + 2;
+          ++i;
+          continue;
+        }
+        else continue;
+        writer.write(window, clean, i - clean);
+        writer.write(escaped);
+        clean = i + 1;
+      }
+      writer.write(window, clean, length - clean);
+      start += length;
+    }
+  }
+
+  private static String characterReference(int codePoint) {
+    return "&#" + codePoint + ";";
+  }
+
+  private static String prefix(String qualifiedName) {
+    int colon = qualifiedName.indexOf(':');
+    return colon >= 0 ? qualifiedName.substring(0, colon) : "";
+  }
+
+}
@@ -0,0 +1,80 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.greenmercury.smax.NamespacePrefixMapping;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.StringBuilderCharStore;
+import org.greenmercury.smax.convert.Binary;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class BinaryTest {
+
+  private static byte[] write(SmaxDocument document) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Binary.fromSmax(document, bytes);
+    return bytes.toByteArray();
+  }
+
+  private static SmaxDocument read(byte[] bytes) throws Exception {
+    return Binary.toSmax(new ByteArrayInputStream(bytes));
+  }
+
+  @Test
+  void test_round_trip() throws Exception {
+    String xml = "<doc xmlns='urn:d' xmlns:p='urn:p'>a<p:b x='1' p:y='&amp;'>é😀<c/></p:b>tail<e n='1'><e n='2'>x</e></e></doc>";
+    SmaxDocument document = XmlString.toSmax(xml);
+    SmaxDocument copy = read(write(document));
+    assertEquals(document.getContent().toString(), copy.getContent().toString());
+    assertEquals(document.getMarkup().toTreeString(), copy.getMarkup().toTreeString());
+    assertEquals(XmlString.fromSmax(document), XmlString.fromSmax(copy));
+    SmaxElement b = copy.getMarkup().getChildren().get(0);
+    assertSame(copy.getMarkup(), b.getParentNode());
+    assertEquals("urn:p", b.getAttributes().getURI(b.getAttributes().getIndex("p:y")));
+    assertEquals(mappings(document.getMarkup()), mappings(copy.getMarkup()));
+  }
+
+  private static String mappings(SmaxElement element) {
+    return Arrays.toString(Arrays.stream(element.getNamespacePrefixMappings()).map(m -> m.prefix + "=" + m.uri).sorted().toArray());
+  }
+
+  @Test
+  void test_sub_document_positions_are_relative() throws Exception {
+    SmaxElement root = new SmaxElement("r").setStartPos(3).setEndPos(7);
+    root.appendChild(new SmaxElement("s").setStartPos(4).setEndPos(6));
+    root.setNamespacePrefixMappings(new NamespacePrefixMapping[] {new NamespacePrefixMapping("p", "urn:p")});
+    SmaxDocument document = new SmaxDocument(root, "abcdefghij");
+    SmaxDocument copy = Binary.toSmax(new ByteArrayInputStream(write(document)), new StringBuilderCharStore());
+    assertEquals("defg", copy.getContentStore().toString());
+    assertEquals(0, copy.getMarkup().getStartPos());
+    assertEquals(4, copy.getMarkup().getEndPos());
+    assertEquals(1, copy.getMarkup().getChildren().get(0).getStartPos());
+    assertEquals("urn:p", copy.getMarkup().lookupNamespaceURI("p"));
+  }
+
+  @Test
+  void test_write_is_deterministic() throws Exception {
+    SmaxDocument document = XmlString.toSmax("<doc><a x='1'>text</a><a x='1'/></doc>");
+    assertArrayEquals(write(document), write(read(write(document))));
+  }
+
+  @Test
+  void test_corrupt_input() throws Exception {
+    byte[] bytes = write(XmlString.toSmax("<doc><a>text</a></doc>"));
+    byte[] badMagic = bytes.clone();
+    badMagic[0] = 'X';
+    assertThrows(IOException.class, () -> read(badMagic));
+    assertThrows(IOException.class, () -> read(Arrays.copyOf(bytes, bytes.length - 1)));
+  }
+
+}
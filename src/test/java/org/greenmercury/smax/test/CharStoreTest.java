@@ -0,0 +1,96 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.greenmercury.smax.Balancing;
+import org.greenmercury.smax.CharStore;
+import org.greenmercury.smax.CompactCharStore;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.StringBufferCharStore;
+import org.greenmercury.smax.StringBuilderCharStore;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class CharStoreTest {
+
+  private static String randomText(Random random, boolean latin1) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = random.nextInt(5); i >= 0; --i) {
+      sb.append(latin1 || random.nextInt(4) > 0 ? (char)('a' + random.nextInt(26)) : '€');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Apply the same random edits to a {@code CharStore} and a {@code StringBuilder}.
+   */
+  private static void assertSameEdits(CharStore store, long seed, boolean latin1) {
+    Random random = new Random(seed);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 2000; ++i) {
+      int length = expected.length();
+      int start = random.nextInt(length + 1);
+      int end = start + random.nextInt(length - start + 1);
+      String text = randomText(random, latin1);
+      switch (random.nextInt(7)) {
+      case 0: expected.append(text); store.append(text); break;
+      case 1: expected.append(text.toCharArray(), 0, text.length()); store.append(text.toCharArray(), 0, text.length()); break;
+      case 2: expected.insert(start, text); store.insert(start, text); break;
+      case 3: expected.insert(start, text, 0, 1); store.insert(start, text, 0, 1); break;
+      case 4: expected.delete(start, end); store.delete(start, end); break;
+      case 5: expected.replace(start, end, text); store.replace(start, end, text); break;
+      case 6:
+        if (length > 0) {
+          int index = Math.min(start, length - 1);
+          expected.setCharAt(index, text.charAt(0));
+          store.setCharAt(index, text.charAt(0));
+        }
+        break;
+      }
+      assertEquals(expected.length(), store.length());
+    }
+    assertEquals(expected.toString(), store.toString());
+    int length = expected.length();
+    char[] chars = new char[length];
+    store.getChars(0, length, chars, 0);
+    assertEquals(expected.toString(), new String(chars));
+    assertEquals(expected.substring(length / 3, length / 2), store.substring(length / 3, length / 2));
+    assertEquals(expected.charAt(length / 2), store.charAt(length / 2));
+  }
+
+  @Test
+  void test_charStores_edits() {
+    for (boolean latin1 : new boolean[] {true, false}) {
+      assertSameEdits(new StringBufferCharStore(), 1L, latin1);
+      assertSameEdits(new StringBuilderCharStore(), 1L, latin1);
+      assertSameEdits(new CompactCharStore(), 1L, latin1);
+    }
+  }
+
+  @Test
+  void test_compactCharStore_inflates() {
+    CompactCharStore store = new CompactCharStore("café");
+    assertTrue(store.isLatin1());
+    store.append('€');
+    assertFalse(store.isLatin1());
+    assertEquals("café€", store.toString());
+  }
+
+  @Test
+  void test_document_in_charStores() throws Exception {
+    String xml = "<doc>0<p>1</p><r/><q>2</q>3</doc>";
+    String expected = "<doc>0<x><p>1</p><r/><q>2</q></x>3</doc>";
+    for (CharStore store : new CharStore[] {new StringBuilderCharStore(), new CompactCharStore()}) {
+      SmaxDocument document = XmlString.toSmax(xml, store);
+      assertEquals(store, document.getContentStore());
+      document.insertMarkup(new SmaxElement("x"), Balancing.OUTER, 1, 3);
+      assertEquals(expected, XmlString.fromSmax(document).replaceAll("<\\?.*?\\?>", ""));
+    }
+  }
+
+}
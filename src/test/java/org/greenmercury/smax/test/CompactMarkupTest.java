@@ -0,0 +1,99 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.greenmercury.smax.CompactMarkup;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.StringBuilderCharStore;
+import org.greenmercury.smax.convert.Binary;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class CompactMarkupTest {
+
+  private static final String XML =
+      "<doc xmlns:p='urn:p'>a<p:b x='1' p:y='2'>bc<c/>d</p:b>e<f><g>h</g><g>i</g></f><c/></doc>";
+
+  @Test
+  void test_same_markup() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    CompactMarkup markup = CompactMarkup.of(document.getMarkup());
+    assertEquals(7, markup.size());
+    SmaxElement copy = markup.toSmaxElement();
+    assertEquals(document.getMarkup().toTreeString(), copy.toTreeString());
+    assertEquals(XmlString.fromSmax(document), XmlString.fromSmax(new SmaxDocument(copy, document.getContentStore())));
+    assertNotSame(markup.element(1), markup.element(1));
+  }
+
+  @Test
+  void test_navigation() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    CompactMarkup markup = CompactMarkup.of(document.getMarkup());
+    List<SmaxElement> elements = new ArrayList<>();
+    for (SmaxElement element = document.getMarkup(); element != null; element = element.getNextElement()) {
+      elements.add(element);
+    }
+    assertEquals(elements.size(), markup.size());
+    for (int i = 0; i < markup.size(); ++i) {
+      SmaxElement element = elements.get(i);
+      assertEquals(element.getQualifiedName(), markup.getQualifiedName(i));
+      assertEquals(element.getNamespaceUri(), markup.getNamespaceUri(i));
+      assertEquals(element.getStartPos(), markup.getStartPos(i));
+      assertEquals(element.getEndPos(), markup.getEndPos(i));
+      assertEquals(element.getAttributes().getLength(), markup.getAttributeCount(i));
+      assertEquals(element.getParentNode() == null ? -1 : elements.indexOf(element.getParentNode()), markup.getParent(i));
+      List<String> children = new ArrayList<>();
+      for (int child = markup.getFirstChild(i); child >= 0; child = markup.getNextSibling(child)) {
+        children.add(markup.getQualifiedName(child) + "@" + markup.getStartPos(child));
+      }
+      List<String> expectedChildren = new ArrayList<>();
+      for (SmaxElement child : element.getChildren()) {
+        expectedChildren.add(child.getQualifiedName() + "@" + child.getStartPos());
+      }
+      assertEquals(expectedChildren, children);
+    }
+    assertEquals(markup.getNameId(2), markup.getNameId(6));
+    assertEquals("1", markup.getAttributeValue(1, "", "x"));
+    assertEquals("2", markup.getAttributeValue(1, "urn:p", "y"));
+    assertNull(markup.getAttributeValue(1, "", "y"));
+    assertEquals("urn:p", markup.toSmaxElement().lookupNamespaceURI("p"));
+  }
+
+  @Test
+  void test_builder_checks_pre_order() {
+    CompactMarkup.Builder builder = new CompactMarkup.Builder();
+    assertThrows(IllegalArgumentException.class, () -> builder.addElement(0, null, "a", "a", 0, 1));
+    builder.addElement(-1, null, "r", "r", 0, 4);
+    builder.addElement(0, null, "a", "a", 0, 2);
+    builder.addElement(1, null, "b", "b", 0, 1);
+    builder.addElement(0, null, "c", "c", 2, 4);
+    assertThrows(IllegalArgumentException.class, () -> builder.addElement(1, null, "d", "d", 1, 2));
+    assertThrows(IllegalArgumentException.class, () -> builder.addElement(-1, null, "d", "d", 1, 2));
+    CompactMarkup markup = builder.build();
+    assertEquals(4, markup.size());
+    assertEquals(3, markup.getNextSibling(1));
+    assertEquals(-1, markup.getNextSibling(2));
+    assertThrows(IllegalStateException.class, () -> new CompactMarkup.Builder().build());
+  }
+
+  @Test
+  void test_binary_to_compact_markup() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Binary.fromSmax(document, bytes);
+    StringBuilderCharStore content = new StringBuilderCharStore();
+    CompactMarkup markup = Binary.toCompactMarkup(new ByteArrayInputStream(bytes.toByteArray()), content);
+    assertEquals(document.getContent().toString(), content.toString());
+    assertEquals(document.getMarkup().toTreeString(), markup.toSmaxElement().toTreeString());
+  }
+
+}
@@ -0,0 +1,140 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+
+import org.greenmercury.smax.Balancing;
+import org.greenmercury.smax.MarkupIndex;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class MarkupIndexTest {
+
+  private static String randomXml(Random random) {
+    StringBuilder sb = new StringBuilder("<doc>");
+    randomContent(random, 5, sb);
+    return sb.append("</doc>").toString();
+  }
+
+  private static void randomContent(Random random, int depth, StringBuilder sb) {
+    for (int i = random.nextInt(6); i > 0; --i) {
+      int kind = random.nextInt(4);
+      if (kind == 0 || depth == 0) {
+        for (int j = random.nextInt(3); j >= 0; --j) sb.append((char)('a' + random.nextInt(26)));
+      } else if (kind == 1) {
+        sb.append("<e/>");
+      } else {
+        sb.append("<p>");
+        randomContent(random, depth - 1, sb);
+        sb.append("</p>");
+      }
+    }
+  }
+
+  private static void preOrder(SmaxElement element, List<SmaxElement> elements) {
+    elements.add(element);
+    element.getChildren().forEach(child -> preOrder(child, elements));
+  }
+
+  /**
+   * Find the elements that satisfy a condition on their start and end position, by looking at all elements.
+   */
+  private static List<SmaxElement> scan(List<SmaxElement> elements, BiPredicate<Integer, Integer> condition) {
+    return elements.stream().filter(e -> condition.test(e.getStartPos(), e.getEndPos())).collect(Collectors.toList());
+  }
+
+  @Test
+  void test_queries_equal_scan() throws Exception {
+    Random random = new Random(11L);
+    for (int d = 0; d < 200; ++d) {
+      SmaxDocument document = XmlString.toSmax(randomXml(random));
+      MarkupIndex index = document.getMarkupIndex();
+      List<SmaxElement> elements = new ArrayList<>();
+      preOrder(document.getMarkup(), elements);
+      assertEquals(elements.size(), index.size());
+      int length = document.getContent().length();
+      for (int s = 0; s <= length; ++s) {
+        final int start = s;
+        if (s < length) {
+          assertEquals(scan(elements, (es, ee) -> es <= start && start < ee), index.covering(s));
+          assertEquals(document.ancestorNodes(s).collect(Collectors.toList()), index.covering(s));
+        }
+        for (int e = s; e <= length; ++e) {
+          final int end = e;
+          assertEquals(scan(elements, (es, ee) -> es <= start && end <= ee), index.covering(s, e));
+          assertEquals(scan(elements, (es, ee) -> es < end && start < ee), index.overlapping(s, e));
+          assertEquals(scan(elements, (es, ee) -> start <= es && ee <= end), index.containedIn(s, e));
+        }
+      }
+    }
+  }
+
+  @Test
+  void test_index_is_rebuilt_after_changes() throws Exception {
+    SmaxDocument document = XmlString.toSmax("<doc>ab<p>cd</p>ef</doc>");
+    MarkupIndex index = document.getMarkupIndex();
+    assertSame(index, document.getMarkupIndex());
+    SmaxElement x = document.insertMarkup(new SmaxElement("x"), Balancing.OUTER, 3, 5);
+    MarkupIndex newIndex = document.getMarkupIndex();
+    assertNotSame(index, newIndex);
+    assertTrue(newIndex.covering(4).contains(x));
+    document.insertText(0, "12345");
+    assertFalse(newIndex.isUpToDate());
+    assertTrue(document.getMarkupIndex().covering(9).contains(x));
+  }
+
+  @Test
+  void test_nested_indexes_see_changes() throws Exception {
+    SmaxDocument document = XmlString.toSmax("<doc><a><b><c>x</c></b></a><d>y</d></doc>");
+    SmaxElement a = document.getMarkup().getChildren().get(0);
+    SmaxElement c = a.getChildren().get(0).getChildren().get(0);
+    SmaxElement d = document.getMarkup().getChildren().get(1);
+    SmaxDocument sub = document.subDocument(a);
+    MarkupIndex subIndex = sub.getMarkupIndex();
+    MarkupIndex index = document.getMarkupIndex();
+    c.setName(null, "c1", "c1");
+    assertFalse(subIndex.isUpToDate());
+    assertFalse(index.isUpToDate());
+    index = document.getMarkupIndex();
+    subIndex = sub.getMarkupIndex();
+    d.setName(null, "d1", "d1");
+    assertFalse(index.isUpToDate());
+    assertTrue(subIndex.isUpToDate());
+    // The change in d has marked the root, and the change in c must still reach the index of the sub-document.
+    c.setName(null, "c2", "c2");
+    assertFalse(subIndex.isUpToDate());
+    index = document.getMarkupIndex();
+    assertTrue(index.isUpToDate());
+    c.setName(null, "c3", "c3");
+    assertFalse(index.isUpToDate());
+  }
+
+  @Test
+  void test_deep_tree_built_top_down() throws Exception {
+    SmaxElement root = new SmaxElement("r");
+    SmaxElement element = root;
+    for (int i = 0; i < 100000; ++i) {
+      SmaxElement child = new SmaxElement("e");
+      element.appendChild(child);
+      element = child;
+    }
+    SmaxDocument document = new SmaxDocument(root, "");
+    MarkupIndex index = document.getMarkupIndex();
+    assertEquals(100001, index.size());
+    element.appendChild(new SmaxElement("f"));
+    assertFalse(index.isUpToDate());
+    assertEquals(100002, document.getMarkupIndex().size());
+  }
+
+}
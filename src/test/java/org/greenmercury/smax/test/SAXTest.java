@@ -0,0 +1,146 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.greenmercury.smax.CharStore;
+import org.greenmercury.smax.CompactCharStore;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.StringBufferCharStore;
+import org.greenmercury.smax.StringBuilderCharStore;
+import org.greenmercury.smax.convert.SAX;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class SAXTest {
+
+  private static final int LENGTH = 40000;
+
+  /**
+   * Records the SAX events, with one entry per event.
+   */
+  private static class RecordingHandler extends DefaultHandler {
+    final List<String> events = new ArrayList<>();
+    int longestCharacters = 0;
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      events.add("<" + qName);
+    }
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      events.add("</" + qName);
+    }
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      longestCharacters = Math.max(longestCharacters, length);
+      events.add("#" + new String(ch, start, length));
+    }
+  }
+
+  private static SmaxElement element(String name, int startPos, int endPos, SmaxElement... children) {
+    SmaxElement element = new SmaxElement(name);
+    element.setStartPos(startPos);
+    element.setEndPos(endPos);
+    for (SmaxElement child : children) {
+      element.appendChild(child);
+    }
+    return element;
+  }
+
+  /**
+   * Make a document with text runs that are shorter and much longer than the window of 8192 characters,
+   * and elements that start and end around multiples of the window size.
+   */
+  private static SmaxDocument document(CharStore store) {
+    for (int i = 0; i < LENGTH; ++i) {
+      store.append(i % 1000 == 999 ? '€' : (char)('a' + i % 26));
+    }
+    SmaxElement markup = element("r", 0, LENGTH,
+        element("a", 8191, 8193),
+        element("b", 8193, 30000,
+            element("c", 16384, 16385),
+            element("d", 16385, 29999)),
+        element("e", 39999, LENGTH));
+    return new SmaxDocument(markup, store);
+  }
+
+  /**
+   * The events as they were sent before the character window, with all text between two tags in one event.
+   */
+  private static void referenceEvents(SmaxElement element, CharSequence content, int[] currentPos, List<String> events) {
+    if (element.getStartPos() > currentPos[0]) {
+      events.add("#" + content.subSequence(currentPos[0], element.getStartPos()));
+      currentPos[0] = element.getStartPos();
+    }
+    events.add("<" + element.getQualifiedName());
+    for (SmaxElement child : element.getChildren()) {
+      referenceEvents(child, content, currentPos, events);
+    }
+    if (element.getEndPos() > currentPos[0]) {
+      events.add("#" + content.subSequence(currentPos[0], element.getEndPos()));
+      currentPos[0] = element.getEndPos();
+    }
+    events.add("</" + element.getQualifiedName());
+  }
+
+  /**
+   * Join consecutive {@code characters} events, which a SAX handler must treat as one text.
+   */
+  private static List<String> joinCharacters(List<String> events) {
+    List<String> joined = new ArrayList<>();
+    for (String event : events) {
+      int last = joined.size() - 1;
+      if (event.startsWith("#") && last >= 0 && joined.get(last).startsWith("#")) {
+        joined.set(last, joined.get(last) + event.substring(1));
+      } else {
+        joined.add(event);
+      }
+    }
+    return joined;
+  }
+
+  private static void checkEvents(CharStore store) throws Exception {
+    SmaxDocument document = document(store);
+    RecordingHandler handler = new RecordingHandler();
+    SAX.fromSMAX(document, handler);
+    List<String> expected = new ArrayList<>();
+    referenceEvents(document.getMarkup(), document.getContent(), new int[] {0}, expected);
+    assertEquals(expected, joinCharacters(handler.events));
+    assertEquals(8192, handler.longestCharacters);
+  }
+
+  @Test
+  void test_long_text_in_string_buffer() throws Exception {
+    checkEvents(new StringBufferCharStore());
+  }
+
+  @Test
+  void test_long_text_in_string_builder() throws Exception {
+    checkEvents(new StringBuilderCharStore());
+  }
+
+  @Test
+  void test_long_text_in_compact_store() throws Exception {
+    checkEvents(new CompactCharStore());
+  }
+
+  @Test
+  void test_long_text_is_split_into_full_windows() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    SAX.fromSMAX(document(new StringBufferCharStore()), handler);
+    // The 8191 characters before element a fit in one window.
+    assertEquals("#", handler.events.get(1).substring(0, 1));
+    assertEquals(8191, handler.events.get(1).length() - 1);
+    assertEquals("<a", handler.events.get(2));
+    // The 13614 characters in element d are sent as a full window and the rest.
+    int d = handler.events.indexOf("<d");
+    assertEquals(8192, handler.events.get(d + 1).length() - 1);
+    assertEquals(13614 - 8192, handler.events.get(d + 2).length() - 1);
+    assertEquals("</d", handler.events.get(d + 3));
+  }
+
+}
@@ -0,0 +1,68 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.greenmercury.smax.SmaxAttributes;
+import org.greenmercury.smax.SmaxElement;
+import org.junit.jupiter.api.Test;
+
+public class SmaxAttributesTest {
+
+  private static final int NR_ATTRIBUTES = 3 * SmaxAttributes.INDEX_THRESHOLD;
+
+  private static SmaxElement element() throws Exception {
+    SmaxElement element = new SmaxElement("e");
+    for (int i = 0; i < NR_ATTRIBUTES; ++i) {
+      element.setAttribute(i % 2 == 0 ? "" : "urn:p", "a" + i, i % 2 == 0 ? "a" + i : "p:a" + i, "CDATA", "v" + i);
+    }
+    return element;
+  }
+
+  @Test
+  void test_lookup_with_many_attributes() throws Exception {
+    SmaxAttributes attributes = element().getAttributes();
+    assertEquals(NR_ATTRIBUTES, attributes.getLength());
+    for (int i = 0; i < NR_ATTRIBUTES; ++i) {
+      String uri = i % 2 == 0 ? "" : "urn:p";
+      String qName = i % 2 == 0 ? "a" + i : "p:a" + i;
+      assertEquals(i, attributes.getIndex(uri, "a" + i));
+      assertEquals(i, attributes.getIndex(qName));
+      assertEquals("v" + i, attributes.getValue(uri, "a" + i));
+      assertEquals("v" + i, attributes.getNamedItem(qName).getNodeValue());
+    }
+    assertEquals(-1, attributes.getIndex("urn:p", "a0"));
+    assertEquals(-1, attributes.getIndex("p:a0"));
+    assertNull(attributes.getValue("x"));
+  }
+
+  @Test
+  void test_lookup_after_changes() throws Exception {
+    SmaxElement element = element();
+    SmaxAttributes attributes = element.getAttributes();
+    assertEquals(0, attributes.getIndex("a0"));
+    element.setAttribute("", "a0", "a0", "CDATA", "w");
+    assertEquals(NR_ATTRIBUTES, attributes.getLength());
+    assertEquals("w", element.getAttribute("a0"));
+    attributes.removeNamedItem("a0");
+    assertEquals(-1, attributes.getIndex("a0"));
+    assertEquals(0, attributes.getIndex("urn:p", "a1"));
+    attributes.setLocalName(0, "b1");
+    assertEquals(-1, attributes.getIndex("urn:p", "a1"));
+    assertEquals(0, attributes.getIndex("urn:p", "b1"));
+    attributes.clear();
+    assertEquals(-1, attributes.getIndex("a2"));
+  }
+
+  @Test
+  void test_namespace_declaration_after_attributes() throws Exception {
+    SmaxElement element = element();
+    element.setAttribute("q:x", "1");
+    element.setAttribute("xmlns:q", "urn:q");
+    SmaxAttributes attributes = element.getAttributes();
+    assertEquals("1", attributes.getValue("urn:q", "x"));
+    assertEquals("v1", attributes.getValue("urn:p", "a1"));
+    assertEquals("v2", attributes.getValue("", "a2"));
+  }
+
+}
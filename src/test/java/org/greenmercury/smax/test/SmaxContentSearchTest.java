@@ -0,0 +1,77 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.greenmercury.smax.CharStore;
+import org.greenmercury.smax.CompactCharStore;
+import org.greenmercury.smax.SmaxContent;
+import org.greenmercury.smax.StringBufferCharStore;
+import org.greenmercury.smax.StringBuilderCharStore;
+import org.junit.jupiter.api.Test;
+
+public class SmaxContentSearchTest {
+
+  /**
+   * Search for random needles in a sub-document view, and compare with searching in a {@code String}.
+   * The text is longer than a search window, and uses few letters, so there are many partial matches.
+   */
+  private static void assertSearchLikeString(CharStore store, int start, int end, Random random) {
+    SmaxContent content = new SmaxContent(new SmaxContent(store), start, end);
+    String expected = store.toString().substring(start, end);
+    String[] needles = {"", "a", "ab", "abc", "cab", "abcabc", "needle in a haystack", "ašaša", "šš", "x", "aaaaaaaaaaaaaaaaaaaaaaaa"};
+    for (String needle : needles) {
+      assertEquals(expected.indexOf(needle), content.indexOf(needle), needle);
+      assertEquals(expected.lastIndexOf(needle), content.lastIndexOf(needle), needle);
+      for (int i = 0; i < 100; ++i) {
+        int fromIndex = random.nextInt(expected.length() + 20) - 10;
+        assertEquals(expected.indexOf(needle, fromIndex), content.indexOf(needle, fromIndex), needle + " from " + fromIndex);
+        assertEquals(expected.lastIndexOf(needle, fromIndex), content.lastIndexOf(needle, fromIndex), needle + " from " + fromIndex);
+      }
+    }
+    for (int i = 0; i < 100; ++i) {
+      int needleStart = random.nextInt(expected.length());
+      String needle = expected.substring(needleStart, Math.min(expected.length(), needleStart + 1 + random.nextInt(40)));
+      int fromIndex = random.nextInt(expected.length());
+      assertEquals(expected.indexOf(needle, fromIndex), content.indexOf(needle, fromIndex), needle + " from " + fromIndex);
+      assertEquals(expected.lastIndexOf(needle, fromIndex), content.lastIndexOf(needle, fromIndex), needle + " from " + fromIndex);
+    }
+  }
+
+  @Test
+  void test_search_like_string() {
+    Random random = new Random(20240801L);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 30000; ++i) {
+      text.append((char)('a' + random.nextInt(3)));
+    }
+    text.append("needle in a haystack");
+    for (int i = 0; i < 10000; ++i) {
+      text.append(i % 2 == 0 ? 'a' : 'š');
+    }
+    int length = text.length();
+    // Views on most of the store, and small views in the middle of the store, are searched in different ways.
+    assertSearchLikeString(new StringBuilderCharStore(new StringBuilder(text)), 5, length - 5, random);
+    assertSearchLikeString(new StringBufferCharStore(new StringBuffer(text)), 5, length - 5, random);
+    assertSearchLikeString(new StringBuilderCharStore(new StringBuilder(text)), 25000, 32000, random);
+    assertSearchLikeString(new StringBufferCharStore(new StringBuffer(text)), 25000, 32000, random);
+    assertSearchLikeString(new CompactCharStore(text), 5, length - 5, random);
+    assertSearchLikeString(new CompactCharStore(text.substring(0, 30000)), 100, 29900, random);
+  }
+
+  @Test
+  void test_compare() {
+    SmaxContent abc = new SmaxContent(new SmaxContent("xabcx"), 1, 4);
+    assertEquals(0, abc.compareTo(new SmaxContent("abc")));
+    assertEquals("abc".compareTo("abd"), abc.compareTo(new SmaxContent("abd")));
+    assertEquals("abc".compareTo("ab"), abc.compareTo(new SmaxContent("ab")));
+    assertEquals("abc".compareTo("abcd"), abc.compareTo(new SmaxContent("abcd")));
+    assertTrue(abc.contentEquals("abc"));
+    assertFalse(abc.contentEquals("abd"));
+    assertFalse(abc.contentEquals("abcx"));
+  }
+
+}
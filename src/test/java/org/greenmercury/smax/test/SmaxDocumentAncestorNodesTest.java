@@ -0,0 +1,53 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.greenmercury.smax.AncestorList;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.SmaxException;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class SmaxDocumentAncestorNodesTest {
+
+  private static final int DEPTH = 1000;
+
+  private static SmaxDocument deepDocument() throws Exception {
+    StringBuilder xml = new StringBuilder("<doc>");
+    for (int i = 0; i < DEPTH; ++i) xml.append("<p>").append('a');
+    for (int i = 0; i < DEPTH; ++i) xml.append("</p>");
+    return XmlString.toSmax(xml.append("</doc>").toString());
+  }
+
+  @Test
+  void test_ancestorNodes_of_node() throws Exception {
+    SmaxDocument document = deepDocument();
+    SmaxElement node = document.getMarkup();
+    while (!node.getChildren().isEmpty()) node = node.getChildren().get(0);
+    List<SmaxElement> ancestors = document.ancestorNodes(node).collect(Collectors.toList());
+    assertEquals(DEPTH, ancestors.size());
+    assertSame(document.getMarkup(), ancestors.get(0));
+    assertSame(node.getParentNode(), ancestors.get(DEPTH - 1));
+    assertEquals(0, document.ancestorNodes(document.getMarkup()).count());
+    assertThrows(SmaxException.class, () -> document.ancestorNodes(new SmaxElement("p")));
+  }
+
+  @Test
+  void test_ancestorNodes_of_position() throws Exception {
+    SmaxDocument document = deepDocument();
+    AncestorList ancestors = new AncestorList();
+    assertSame(ancestors, document.ancestorNodes(DEPTH - 1, ancestors));
+    assertEquals(DEPTH + 1, ancestors.size());
+    document.ancestorNodes(9, ancestors);
+    assertEquals(11, ancestors.size());
+    assertEquals(ancestors, document.ancestorNodes(9).collect(Collectors.toList()));
+    assertEquals(1, document.ancestorNodes(DEPTH, ancestors).size());
+  }
+
+}
@@ -0,0 +1,110 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.greenmercury.smax.Balancing;
+import org.greenmercury.smax.MarkupIndex;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.NodeList;
+
+public class SmaxDocumentElementNameIndexTest {
+
+  private static final String XML =
+      "<r xmlns:p='urn:p'><a n='1'>x<a n='2'>y</a></a><p:b n='3'>z<a n='4'>w</a></p:b><b xmlns='urn:p' n='5'/></r>";
+
+  private static List<String> names(Iterable<SmaxElement> elements) {
+    List<String> names = new ArrayList<>();
+    elements.forEach(element -> names.add(element.getQualifiedName() + element.getAttribute("n")));
+    return names;
+  }
+
+  private static List<String> names(NodeList nodes) {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < nodes.getLength(); ++i) {
+      SmaxElement element = (SmaxElement)nodes.item(i);
+      names.add(element.getQualifiedName() + element.getAttribute("n"));
+    }
+    return names;
+  }
+
+  @Test
+  void test_matching_nodes_in_document_order() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    assertEquals(Arrays.asList("a1", "a4"), names(document.matchingNodes(new SmaxElement("a"))));
+    assertEquals(Arrays.asList("a2"), names(document.matchingNodes(new SmaxElement("a").setSimpleAttribute("n", "2"))));
+    assertEquals(Arrays.asList("p:b3", "b5"), names(document.matchingNodes(new SmaxElement("urn:p", "b"))));
+    assertEquals(Collections.emptyList(), names(document.matchingNodes(new SmaxElement("b"))));
+    assertSame(document.getMarkup(), document.matchingNodes(new SmaxElement("r")).iterator().next());
+  }
+
+  @Test
+  void test_index_follows_changes() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    assertEquals(Arrays.asList("a1", "a2", "a4"), names(document.getElementsByTagName("a")));
+    document.insertMarkup(new SmaxElement("a").setSimpleAttribute("n", "0"), Balancing.OUTER, 0, 1);
+    assertEquals(Arrays.asList("a1", "a0", "a2", "a4"), names(document.getElementsByTagName("a")));
+    SmaxElement b = document.getMarkup().getChildren().get(1);
+    b.appendChild(new SmaxElement("a").setSimpleAttribute("n", "6"));
+    assertEquals(Arrays.asList("a1", "a0", "a2", "a4", "a6"), names(document.getElementsByTagName("a")));
+    document.getMarkup().removeChild(b);
+    assertEquals(Arrays.asList("a0", "a2"), names(document.matchingNodes(new SmaxElement("a")).iterator().next().getElementsByTagName("*")));
+  }
+
+  @Test
+  void test_get_elements_by_tag_name() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    SmaxElement root = document.getMarkup();
+    assertEquals(Arrays.asList("rnull", "a1", "a2", "p:b3", "a4", "b5"), names(document.getElementsByTagName("*")));
+    assertEquals(Arrays.asList("p:b3"), names(document.getElementsByTagName("p:b")));
+    assertEquals(Arrays.asList("p:b3", "b5"), names(document.getElementsByTagNameNS("urn:p", "b")));
+    assertEquals(Arrays.asList("a1", "a2", "a4"), names(document.getElementsByTagNameNS(null, "a")));
+    assertEquals(Arrays.asList("p:b3", "b5"), names(document.getElementsByTagNameNS("urn:p", "*")));
+    assertEquals(Arrays.asList("p:b3", "b5"), names(document.getElementsByTagNameNS("*", "b")));
+    assertEquals(Arrays.asList("a1", "a2", "p:b3", "a4", "b5"), names(root.getElementsByTagName("*")));
+    assertEquals(Arrays.asList("a1", "a2", "a4"), names(root.getElementsByTagName("a")));
+    assertEquals(Arrays.asList("p:b3", "b5"), names(root.getElementsByTagNameNS("urn:p", "b")));
+    assertEquals(Arrays.asList("a4"), names(((SmaxElement)root.getElementsByTagName("p:b").item(0)).getElementsByTagNameNS("*", "a")));
+    assertNull(root.getElementsByTagName("a").item(3));
+  }
+
+  @Test
+  void test_names_that_no_element_has() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    SmaxElement root = document.getMarkup();
+    assertEquals(Collections.emptyList(), names(document.getElementsByTagNameNS("urn:none", "unknown-name-1")));
+    assertEquals(Collections.emptyList(), names(document.getElementsByTagNameNS(null, "unknown-name-2")));
+    assertEquals(Collections.emptyList(), names(root.getElementsByTagNameNS("urn:p", "unknown-name-3")));
+    assertEquals(Collections.emptyList(), names(document.getElementsByTagName("unknown-name-4")));
+  }
+
+  @Test
+  void test_concurrent_queries_by_name() throws Exception {
+    for (int round = 0; round < 100; ++round) {
+      MarkupIndex index = XmlString.toSmax(XML).getMarkupIndex();
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      List<Future<List<String>>> results = new ArrayList<>();
+      for (int thread = 0; thread < 4; ++thread) {
+        String name = thread % 2 == 0 ? "a" : "p:b";
+        results.add(executor.submit(() -> names(index.named(name))));
+      }
+      executor.shutdown();
+      for (int thread = 0; thread < 4; ++thread) {
+        assertEquals(thread % 2 == 0 ? Arrays.asList("a1", "a2", "a4") : Arrays.asList("p:b3"), results.get(thread).get());
+      }
+    }
+  }
+
+}
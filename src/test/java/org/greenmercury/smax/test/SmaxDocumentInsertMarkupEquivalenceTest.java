@@ -0,0 +1,315 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.greenmercury.smax.Balancing;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compare the optimized insertion of markup with a straightforward reference implementation, on random documents.
+ * Also compare the insertion of many nodes at once with separate insertions.
+ */
+public class SmaxDocumentInsertMarkupEquivalenceTest {
+
+  private static final int NR_DOCUMENTS = 200;
+  private static final int NR_INSERTIONS = 12;
+
+  /**
+   * Generate a random XML document with text, nested elements and empty elements.
+   */
+  private static String randomXml(Random random, int maxDepth) {
+    StringBuilder sb = new StringBuilder("<doc>");
+    randomContent(random, maxDepth, sb);
+    return sb.append("</doc>").toString();
+  }
+
+  private static void randomContent(Random random, int depth, StringBuilder sb) {
+    int nrParts = random.nextInt(6);
+    for (int i = 0; i < nrParts; ++i) {
+      int kind = random.nextInt(4);
+      if (kind == 0 || depth == 0) {
+        for (int j = random.nextInt(3); j >= 0; --j) sb.append((char)('a' + random.nextInt(26)));
+      } else if (kind == 1) {
+        sb.append("<e/>");
+      } else {
+        String name = kind == 2 ? "p" : "q";
+        sb.append('<').append(name).append('>');
+        randomContent(random, depth - 1, sb);
+        sb.append("</").append(name).append('>');
+      }
+    }
+  }
+
+  @Test
+  void test_insertMarkup_equivalence() throws Exception
+  {
+    Random random = new Random(20240611L);
+    for (int d = 0; d < NR_DOCUMENTS; ++d) {
+      String xml = randomXml(random, 4);
+      for (Balancing balancing : Balancing.values()) {
+        SmaxDocument document = XmlString.toSmax(xml);
+        SmaxDocument reference = XmlString.toSmax(xml);
+        int length = document.getContent().length();
+        for (int i = 0; i < NR_INSERTIONS; ++i) {
+          int startPos = random.nextInt(length + 1);
+          int endPos = startPos + random.nextInt(length - startPos + 1);
+          SmaxElement newNode = new SmaxElement("x" + i);
+          // Sometimes reverse balancing for the first child of the root, to exercise same-range nesting.
+          Collection<SmaxElement> reverse = null;
+          SmaxElement firstChild = document.getMarkup().getFirstChildElement();
+          if (firstChild != null && random.nextBoolean()) {
+            reverse = Collections.singleton(firstChild);
+            startPos = firstChild.getStartPos();
+            endPos = firstChild.getEndPos();
+          }
+          document.insertMarkup(newNode, balancing, startPos, endPos, reverse);
+          Collection<SmaxElement> referenceReverse = reverse == null ? null : Collections.singleton(reference.getMarkup().getFirstChildElement());
+          ReferenceInsertMarkup.insertMarkup(reference, newNode, balancing, startPos, endPos, referenceReverse);
+          assertEquals(reference.getMarkup().toTreeString(), document.getMarkup().toTreeString(),
+              "Different result for "+xml+" with "+balancing+" inserting at "+startPos+".."+endPos);
+        }
+      }
+    }
+  }
+
+  @Test
+  void test_insertMarkup_wide_element() throws Exception
+  {
+    // A flat element with many children, some of them empty.
+    StringBuilder sb = new StringBuilder("<body>");
+    for (int i = 0; i < 500; ++i) {
+      sb.append(i % 7 == 0 ? "<b/>" : "<w>ab</w> ");
+    }
+    String xml = sb.append("</body>").toString();
+    Random random = new Random(42L);
+    for (Balancing balancing : Balancing.values()) {
+      SmaxDocument document = XmlString.toSmax(xml);
+      SmaxDocument reference = XmlString.toSmax(xml);
+      int length = document.getContent().length();
+      for (int i = 0; i < 200; ++i) {
+        int startPos = random.nextInt(length + 1);
+        int endPos = Math.min(length, startPos + random.nextInt(12));
+        SmaxElement newNode = new SmaxElement("x");
+        document.insertMarkup(newNode, balancing, startPos, endPos);
+        ReferenceInsertMarkup.insertMarkup(reference, newNode, balancing, startPos, endPos, null);
+      }
+      assertEquals(reference.getMarkup().toTreeString(), document.getMarkup().toTreeString(), "Different result with "+balancing);
+    }
+  }
+
+  @Test
+  void test_insertMarkupAll_equivalence() throws Exception
+  {
+    Random random = new Random(7L);
+    for (int d = 0; d < NR_DOCUMENTS; ++d) {
+      String xml = randomXml(random, 4);
+      int length = XmlString.toSmax(xml).getContent().length();
+      // Make a list of new nodes, which is sorted for half of the documents.
+      List<SmaxElement> newNodes = new ArrayList<>();
+      for (int i = 0; i < NR_INSERTIONS * 2; ++i) {
+        int startPos = random.nextInt(length + 1);
+        int endPos = startPos + random.nextInt(Math.min(8, length - startPos) + 1);
+        newNodes.add(new SmaxElement("x" + i).setStartPos(startPos).setEndPos(endPos));
+      }
+      if (d % 2 == 0) {
+        newNodes.sort(Comparator.comparingInt(SmaxElement::getStartPos).thenComparing(Comparator.comparingInt(SmaxElement::getEndPos).reversed()));
+      }
+      for (Balancing balancing : Balancing.values()) {
+        SmaxDocument document = XmlString.toSmax(xml);
+        SmaxDocument reference = XmlString.toSmax(xml);
+        List<SmaxElement> inserted = document.insertMarkupAll(newNodes, balancing);
+        for (SmaxElement newNode : newNodes) {
+          reference.insertMarkup(newNode, balancing);
+        }
+        assertEquals(newNodes.size(), inserted.size());
+        assertEquals(reference.getMarkup().toTreeString(), document.getMarkup().toTreeString(),
+            "Different result for "+xml+" with "+balancing);
+      }
+    }
+  }
+
+  /**
+   * Generate random markup within a character range, with nested elements that do not overlap.
+   */
+  private static SmaxElement randomMarkup(Random random, String name, int startPos, int endPos, int depth) {
+    SmaxElement element = new SmaxElement(name).setStartPos(startPos).setEndPos(endPos);
+    int pos = startPos;
+    while (depth > 0 && pos < endPos && random.nextInt(3) > 0) {
+      int childStart = pos + random.nextInt(endPos - pos + 1);
+      int childEnd = childStart + random.nextInt(endPos - childStart + 1);
+      element.appendChild(randomMarkup(random, name + depth, childStart, childEnd, depth - 1));
+      pos = childEnd + 1;
+    }
+    return element;
+  }
+
+  /**
+   * The original {@code mergeMarkup}, which inserts every element separately, descending from the root.
+   */
+  private static void referenceMergeMarkup(SmaxDocument document, SmaxElement newElement, Balancing balancing) {
+    document.insertMarkup(newElement, balancing);
+    newElement.getChildren().forEach(child -> referenceMergeMarkup(document, child, balancing));
+  }
+
+  @Test
+  void test_mergeMarkup_equivalence() throws Exception
+  {
+    Random random = new Random(11L);
+    for (int d = 0; d < NR_DOCUMENTS; ++d) {
+      String xml = randomXml(random, 4);
+      int length = XmlString.toSmax(xml).getContent().length();
+      SmaxElement layer1 = randomMarkup(random, "m", 0, length, 3);
+      SmaxElement layer2 = randomMarkup(random, "n", 0, length, 3);
+      for (Balancing balancing : Balancing.values()) {
+        SmaxDocument document = XmlString.toSmax(xml);
+        SmaxDocument reference = XmlString.toSmax(xml);
+        document.mergeMarkup(layer1, balancing);
+        referenceMergeMarkup(reference, layer1, balancing);
+        assertEquals(reference.getMarkup().toTreeString(), document.getMarkup().toTreeString(),
+            "Different result for "+xml+" with "+balancing);
+        SmaxDocument layered = XmlString.toSmax(xml);
+        layered.mergeMarkupLayers(Arrays.asList(layer1, layer2), balancing);
+        referenceMergeMarkup(reference, layer2, balancing);
+        assertEquals(reference.getMarkup().toTreeString(), layered.getMarkup().toTreeString(),
+            "Different result for layers in "+xml+" with "+balancing);
+      }
+    }
+  }
+
+  /**
+   * The original algorithm for inserting markup, which scans all children linearly.
+   */
+  private static class ReferenceInsertMarkup {
+
+    static SmaxElement insertMarkup(SmaxDocument document, SmaxElement newNode, Balancing balancing, int startPos, int endPos, Collection<SmaxElement> sameRangeReverseBalancing) {
+      SmaxElement markup = document.getMarkup();
+      newNode = newNode.shallowCopy();
+      newNode.setStartPos(markup.getStartPos() + startPos).setEndPos(markup.getStartPos() + endPos);
+      if (balancing == Balancing.START) {
+        newNode.setEndPos(newNode.getStartPos());
+      } else if (balancing == Balancing.END) {
+        newNode.setStartPos(newNode.getEndPos());
+      }
+      insertMarkupInto(newNode, markup, balancing, sameRangeReverseBalancing);
+      return newNode;
+    }
+
+    private static void insertMarkupInto(SmaxElement newNode, SmaxElement subRoot, Balancing balancing, Collection<SmaxElement> sameRangeReverseBalancing) {
+      boolean outerNewNode = balancing == Balancing.OUTER || balancing == Balancing.START || balancing == Balancing.END;
+      int newNodeStartPos = newNode.getStartPos();
+      int newNodeEndPos = newNode.getEndPos();
+      boolean newNodeIsEmpty = newNodeEndPos == newNodeStartPos;
+      SmaxElement containingChild = null;
+      SmaxElement leftIntersected = null;
+      SmaxElement rightIntersected = null;
+      int firstContainedIndex = -1;
+      int newNodeInsertIndex = 0;
+      for (SmaxElement child : subRoot.getChildren()) {
+        int childStartPos = child.getStartPos();
+        int childEndPos = child.getEndPos();
+        boolean childIsEmpty = childEndPos == childStartPos;
+        boolean childIsAfterNewNode = childStartPos > newNodeEndPos ||
+            ( childStartPos == newNodeEndPos && ( outerNewNode ? !childIsEmpty : !newNodeIsEmpty ) );
+        if (childIsAfterNewNode) {
+          break;
+        }
+        if (childStartPos <= newNodeStartPos && childEndPos >= newNodeEndPos) {
+          if (newNodeIsEmpty && (childStartPos == newNodeStartPos || childEndPos == newNodeEndPos)) {
+            if (!outerNewNode) {
+              containingChild = child;
+            }
+          } else if (childStartPos < newNodeStartPos || childEndPos > newNodeEndPos) {
+            containingChild = child;
+          } else {
+            boolean reverseBalancing = sameRangeReverseBalancing != null && sameRangeReverseBalancing.contains(child);
+            if ( balancing == (reverseBalancing ? Balancing.OUTER : Balancing.INNER) ) {
+              containingChild = child;
+            } else {
+              firstContainedIndex = newNodeInsertIndex;
+            }
+          }
+        } else {
+          boolean overlapsOrIscontained = (outerNewNode && childIsEmpty) ?
+              childStartPos <= newNodeEndPos && childEndPos >= newNodeStartPos :
+              childStartPos < newNodeEndPos && childEndPos > newNodeStartPos;
+          if (overlapsOrIscontained) {
+            if (childStartPos < newNodeStartPos) {
+              leftIntersected = child;
+            }
+            if (childEndPos > newNodeEndPos) {
+              rightIntersected = child;
+            }
+            if (firstContainedIndex < 0) {
+              firstContainedIndex = newNodeInsertIndex;
+            }
+          }
+        }
+        ++newNodeInsertIndex;
+      }
+      switch (balancing) {
+      case OUTER:
+        if (leftIntersected != null) {
+          newNode.setStartPos(leftIntersected.getStartPos());
+        }
+        if (rightIntersected != null) {
+          newNode.setEndPos(rightIntersected.getEndPos());
+        }
+        break;
+      case INNER:
+        if (leftIntersected != null) {
+          newNode.setStartPos(leftIntersected.getEndPos());
+          ++ firstContainedIndex;
+        }
+        if (rightIntersected != null) {
+          newNode.setEndPos(rightIntersected.getStartPos());
+          -- newNodeInsertIndex;
+        }
+        break;
+      case START:
+      case END:
+        break;
+      case BALANCE_TO_START:
+        if (leftIntersected != null) {
+          newNode.setEndPos(newNode.getStartPos());
+          containingChild = leftIntersected;
+        } else if (rightIntersected != null) {
+          newNode.setEndPos(newNode.getStartPos());
+          newNodeInsertIndex = firstContainedIndex;
+        }
+        break;
+      case BALANCE_TO_END:
+        if (rightIntersected != null) {
+          newNode.setStartPos(newNode.getEndPos());
+          containingChild = rightIntersected;
+        } else if (leftIntersected != null) {
+          newNode.setStartPos(newNode.getEndPos());
+          firstContainedIndex = newNodeInsertIndex;
+        }
+        break;
+      }
+      if (containingChild != null) {
+        insertMarkupInto(newNode, containingChild, balancing, sameRangeReverseBalancing);
+      } else {
+        if (firstContainedIndex >= 0 && newNodeInsertIndex > firstContainedIndex) {
+          List<SmaxElement> newNodeChildren = subRoot.removeChildren(firstContainedIndex, newNodeInsertIndex);
+          newNode.setChildren(newNodeChildren);
+          newNodeInsertIndex = firstContainedIndex;
+        }
+        subRoot.insertChild(newNodeInsertIndex, newNode);
+      }
+    }
+
+  }
+
+}
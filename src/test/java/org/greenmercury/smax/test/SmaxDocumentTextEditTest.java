@@ -0,0 +1,122 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.TextEdits;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class SmaxDocumentTextEditTest {
+
+  private static final String XML = "<doc>ab<p>cd<q>ef</q>gh</p><r/>ij<s>kl</s></doc>";
+
+  private static String xml(SmaxDocument document) throws Exception {
+    return XmlString.fromSmax(document).replaceAll("<\\?.*?\\?>", "");
+  }
+
+  private static String edited(TextEdits edits) throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    document.applyTextEdits(edits);
+    return xml(document);
+  }
+
+  @Test
+  void test_insertText() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    document.insertText(2, "XY");
+    assertEquals("<doc>ab<p>XYcd<q>ef</q>gh</p><r/>ij<s>kl</s></doc>", xml(document));
+    document.insertText(10, "Z");
+    assertEquals("<doc>ab<p>XYcd<q>ef</q>gh</p><r/>Zij<s>kl</s></doc>", xml(document));
+    document.insertText(document.getContent().length(), "!");
+    assertEquals("<doc>ab<p>XYcd<q>ef</q>gh</p><r/>Zij<s>kl</s>!</doc>", xml(document));
+    document.insertText(0, "<&>");
+    assertEquals("<doc>&lt;&amp;&gt;ab<p>XYcd<q>ef</q>gh</p><r/>Zij<s>kl</s>!</doc>", xml(document));
+  }
+
+  @Test
+  void test_deleteText() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    document.deleteText(3, 9);
+    assertEquals("<doc>ab<p>c<q/></p><r/>j<s>kl</s></doc>", xml(document));
+    document.deleteText(0, document.getContent().length());
+    assertEquals("<doc><p><q/></p><r/><s/></doc>", xml(document));
+  }
+
+  @Test
+  void test_replaceText() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    document.replaceText(3, 9, "123");
+    assertEquals("<doc>ab<p>c1<q>23</q></p><r/>j<s>kl</s></doc>", xml(document));
+    document.replaceText(2, 5, "4");
+    assertEquals("<doc>ab<p>4<q>3</q></p><r/>j<s>kl</s></doc>", xml(document));
+  }
+
+  @Test
+  void test_applyTextEdits() throws Exception {
+    assertEquals("<doc>AB<p>cd<q>E</q>gh</p><r/>ij<s>kl</s>12</doc>",
+        edited(new TextEdits().replace(0, 2, "AB").insert(12, "1").replace(4, 6, "E").insert(12, "2")));
+    assertEquals("<doc>a<p><q/></p><r/>j<s>l</s></doc>",
+        edited(new TextEdits().delete(1, 4).delete(4, 9).insert(1, "").delete(10, 11)));
+    assertThrows(IllegalArgumentException.class, () -> edited(new TextEdits().delete(1, 4).delete(3, 5)));
+    assertThrows(IndexOutOfBoundsException.class, () -> edited(new TextEdits().insert(15, "x")));
+  }
+
+  /**
+   * Applying a batch of edits must have the same result as applying the edits one by one, from right to left.
+   */
+  @Test
+  void test_applyTextEdits_equals_sequential_edits() throws Exception {
+    Random random = new Random(7L);
+    for (int round = 0; round < 200; ++round) {
+      SmaxDocument batch = XmlString.toSmax(XML);
+      SmaxDocument sequential = XmlString.toSmax(XML);
+      TextEdits edits = new TextEdits();
+      List<int[]> ranges = new ArrayList<>();
+      List<String> texts = new ArrayList<>();
+      int pos = 0;
+      int length = batch.getContent().length();
+      while (true) {
+        // An insertion must not be directly followed by an edit at the same position,
+        // because the batch puts positions inside the following edit after the inserted text.
+        pos += random.nextInt(4);
+        if (pos == (ranges.isEmpty() ? -1 : ranges.get(ranges.size() - 1)[0])) pos += 1;
+        int end = pos + random.nextInt(3);
+        if (end > length) break;
+        String text = "xyz".substring(random.nextInt(4));
+        edits.replace(pos, end, text);
+        ranges.add(new int[] {pos, end});
+        texts.add(text);
+        pos = end;
+      }
+      batch.applyTextEdits(edits);
+      for (int i = ranges.size() - 1; i >= 0; --i) {
+        sequential.replaceText(ranges.get(i)[0], ranges.get(i)[1], texts.get(i));
+      }
+      assertEquals(xml(sequential), xml(batch));
+    }
+  }
+
+  @Test
+  void test_edit_deep_tree() throws Exception {
+    SmaxElement root = new SmaxElement("r").setStartPos(0).setEndPos(2);
+    SmaxElement element = root;
+    for (int i = 0; i < 100000; ++i) {
+      SmaxElement child = new SmaxElement("e").setStartPos(0).setEndPos(2);
+      element.appendChild(child);
+      element = child;
+    }
+    SmaxDocument document = new SmaxDocument(root, "ab");
+    document.insertText(1, "XY");
+    assertEquals(0, element.getStartPos());
+    assertEquals(4, element.getEndPos());
+    assertEquals(4, root.getEndPos());
+  }
+
+}
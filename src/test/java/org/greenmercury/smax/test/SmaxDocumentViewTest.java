@@ -0,0 +1,82 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.greenmercury.smax.Balancing;
+import org.greenmercury.smax.CharSequenceCharStore;
+import org.greenmercury.smax.SmaxContent;
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.SmaxException;
+import org.greenmercury.smax.TextEdits;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class SmaxDocumentViewTest {
+
+  private static String xml(SmaxDocument document) throws Exception {
+    return XmlString.fromSmax(document).replaceFirst("^<\\?xml[^>]*>", "");
+  }
+
+  @Test
+  void test_sub_document() throws Exception {
+    SmaxDocument document = XmlString.toSmax("<r>one <a>two <b>three</b></a> four</r>");
+    SmaxElement a = document.getMarkup().getChildren().get(0);
+    SmaxDocument sub = document.subDocument(a);
+    assertSame(document.getContentStore(), sub.getContentStore());
+    assertSame(a, sub.getMarkup());
+    assertEquals("two three", sub.getContent().toString());
+    assertEquals("<a>two <b>three</b></a>", xml(sub));
+    sub.insertMarkup(new SmaxElement("t"), Balancing.OUTER, 0, 3);
+    assertEquals("<r>one <a><t>two</t> <b>three</b></a> four</r>", xml(document));
+    assertThrows(SmaxException.class, () -> sub.subDocument(document.getMarkup()));
+  }
+
+  @Test
+  void test_sub_document_text_cannot_be_edited() throws Exception {
+    SmaxDocument document = XmlString.toSmax("<r>one <a>two <b>three</b></a> four</r>");
+    SmaxDocument sub = document.subDocument(document.getMarkup().getChildren().get(0));
+    assertThrows(UnsupportedOperationException.class, () -> sub.insertText(0, "x"));
+    assertThrows(UnsupportedOperationException.class, () -> sub.deleteText(0, 3));
+    assertThrows(UnsupportedOperationException.class, () -> sub.replaceText(0, 3, "2"));
+    assertThrows(UnsupportedOperationException.class, () -> sub.applyTextEdits(new TextEdits().insert(0, "x")));
+    assertEquals("<r>one <a>two <b>three</b></a> four</r>", xml(document));
+    document.replaceText(4, 7, "2");
+    assertEquals("<r>one <a>2 <b>three</b></a> four</r>", xml(document));
+    assertEquals("<a>2 <b>three</b></a>", xml(sub));
+  }
+
+  @Test
+  void test_sub_sequence_is_a_view() {
+    SmaxContent content = new SmaxContent("0123456789");
+    SmaxContent sub = content.subSequence(2, 8);
+    assertEquals("234567", sub.toString());
+    assertSame(content.getUnderlyingStore(), sub.getUnderlyingStore());
+    SmaxContent subSub = sub.subSequence(1, 3);
+    assertEquals("34", subSub.toString());
+    sub.setCharAt(1, 'x');
+    assertEquals("012x456789", content.toString());
+    assertEquals("x4", subSub.toString());
+    assertThrows(IndexOutOfBoundsException.class, () -> sub.subSequence(2, 7));
+  }
+
+  @Test
+  void test_wrapped_char_sequence() throws Exception {
+    String text = "one two three";
+    CharSequenceCharStore store = new CharSequenceCharStore(text);
+    SmaxDocument document = new SmaxDocument(new SmaxElement("r").setEndPos(text.length()), store);
+    document.insertMarkup(new SmaxElement("w"), Balancing.OUTER, 4, 7);
+    assertEquals(4, document.getContent().indexOf("two"));
+    assertEquals("<r>one <w>two</w> three</r>", xml(document));
+    assertTrue(store.isWrapped());
+    document.insertText(0, "zero ");
+    assertFalse(store.isWrapped());
+    assertEquals("<r>zero one <w>two</w> three</r>", xml(document));
+    assertEquals("one two three", text);
+  }
+
+}
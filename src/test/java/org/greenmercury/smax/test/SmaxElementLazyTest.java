@@ -0,0 +1,71 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.NodeList;
+
+public class SmaxElementLazyTest {
+
+  @Test
+  void test_children_of_leaf_are_live() {
+    SmaxElement leaf = new SmaxElement("a");
+    List<SmaxElement> children = leaf.getChildren();
+    NodeList childNodes = leaf.getChildNodes();
+    assertTrue(children.isEmpty());
+    assertFalse(leaf.hasChildNodes());
+    SmaxElement b = new SmaxElement("b");
+    leaf.appendChild(b);
+    assertEquals(1, children.size());
+    assertSame(b, children.get(0));
+    assertEquals(1, childNodes.getLength());
+    assertSame(b, leaf.getFirstChild());
+    assertSame(b, leaf.getChildren().get(0));
+  }
+
+  @Test
+  void test_children_can_be_changed_through_the_list() {
+    SmaxElement leaf = new SmaxElement("a");
+    SmaxElement b = new SmaxElement("b");
+    leaf.getChildren().add(b);
+    assertEquals(1, leaf.getChildren().size());
+    assertSame(b, leaf.getChildren().get(0));
+    leaf.getChildren().remove(0);
+    assertTrue(leaf.getChildren().isEmpty());
+    assertEquals(0, leaf.removeChildren(0, 0).size());
+  }
+
+  @Test
+  void test_attributes_are_created_when_needed() throws Exception {
+    SmaxDocument document = XmlString.toSmax("<r><a/><b x='1'/></r>");
+    SmaxElement a = document.getMarkup().getChildren().get(0);
+    SmaxElement b = document.getMarkup().getChildren().get(1);
+    assertFalse(a.hasAttributes());
+    assertNull(a.getAttribute("x"));
+    assertTrue(a.matches(new SmaxElement("a")));
+    assertFalse(a.matches(new SmaxElement("a").setSimpleAttribute("x", "1")));
+    assertTrue(b.matches(new SmaxElement("b").setSimpleAttribute("x", "1")));
+    assertEquals(0, a.getAttributes().getLength());
+    assertSame(a.getAttributes(), a.getAttributes());
+    a.getAttributes().addAttribute("", "y", "y", "CDATA", "2");
+    assertTrue(a.hasAttributes());
+    assertEquals("2", a.getAttribute("y"));
+    assertFalse(a.hasAttribute("x"));
+    assertTrue(a.hasAttribute("y"));
+    assertTrue(a.hasAttributeNS("", "y"));
+    assertTrue(b.hasAttribute("x"));
+    assertTrue(b.hasAttributeNS("", "x"));
+    assertFalse(b.hasAttributeNS("urn:x", "x"));
+    assertEquals("<r><a y=\"2\"/><b x=\"1\"/></r>", XmlString.fromSmax(document).replaceFirst("^<\\?xml[^>]*>", ""));
+  }
+
+}
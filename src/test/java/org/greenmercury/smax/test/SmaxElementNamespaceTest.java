@@ -0,0 +1,87 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.greenmercury.smax.NamespacePrefixMapping;
+import org.greenmercury.smax.SmaxElement;
+import org.junit.jupiter.api.Test;
+
+public class SmaxElementNamespaceTest {
+
+  @Test
+  void test_lookup_in_scope() {
+    SmaxElement root = new SmaxElement("r").setNamespacePrefixMappings(new NamespacePrefixMapping[] {
+      new NamespacePrefixMapping("a", "urn:a"), new NamespacePrefixMapping("a", "urn:x"), new NamespacePrefixMapping("", "urn:d")});
+    SmaxElement child = new SmaxElement("c").setNamespacePrefixMappings(new NamespacePrefixMapping[] {
+      new NamespacePrefixMapping("b", "urn:a")});
+    SmaxElement grandChild = new SmaxElement("g");
+    root.appendChild(child);
+    child.appendChild(grandChild);
+    assertEquals("urn:a", grandChild.lookupNamespaceURI("a"));
+    assertEquals("urn:d", grandChild.lookupNamespaceURI(""));
+    assertNull(grandChild.lookupNamespaceURI("x"));
+    assertEquals("b", grandChild.lookupPrefix("urn:a"));
+    assertEquals("a", root.lookupPrefix("urn:a"));
+    assertEquals("a", grandChild.lookupPrefix("urn:x"));
+    assertNull(grandChild.lookupPrefix("urn:d"));
+    assertNull(grandChild.lookupPrefix("urn:y"));
+  }
+
+  @Test
+  void test_lookup_after_changes() {
+    SmaxElement root = new SmaxElement("r");
+    SmaxElement child = new SmaxElement("c");
+    SmaxElement grandChild = new SmaxElement("g");
+    root.appendChild(child);
+    child.appendChild(grandChild);
+    assertNull(grandChild.lookupNamespaceURI("p"));
+    root.setAttribute("xmlns:p", "urn:p");
+    assertEquals("urn:p", grandChild.lookupNamespaceURI("p"));
+    SmaxElement other = new SmaxElement("o").setNamespacePrefixMappings(new NamespacePrefixMapping[] {
+      new NamespacePrefixMapping("p", "urn:q")});
+    other.appendChild(child.removeChildren(0, 1).get(0));
+    assertEquals("urn:q", grandChild.lookupNamespaceURI("p"));
+    SmaxElement middle = new SmaxElement("m").setNamespacePrefixMappings(new NamespacePrefixMapping[] {
+      new NamespacePrefixMapping("p", "urn:m")});
+    other.insertAdoptingChild(middle, 0, 1);
+    assertEquals("urn:m", grandChild.lookupNamespaceURI("p"));
+    assertEquals("urn:q", other.lookupNamespaceURI("p"));
+  }
+
+  @Test
+  void test_repeated_declarations() {
+    SmaxElement root = new SmaxElement("r").setNamespacePrefixMappings(new NamespacePrefixMapping[] {
+      new NamespacePrefixMapping("p", "urn:p")});
+    SmaxElement child = new SmaxElement("c").setNamespacePrefixMappings(new NamespacePrefixMapping[] {
+      new NamespacePrefixMapping("p", "urn:p")});
+    SmaxElement grandChild = new SmaxElement("g");
+    root.appendChild(child);
+    child.appendChild(grandChild);
+    SmaxElement otherRoot = new SmaxElement("o");
+    assertEquals("urn:p", grandChild.lookupNamespaceURI("p"));
+    assertNull(otherRoot.lookupNamespaceURI("p"));
+    root.setNamespacePrefixMappings(new NamespacePrefixMapping[] {
+      new NamespacePrefixMapping("p", "urn:q")});
+    assertEquals("urn:p", grandChild.lookupNamespaceURI("p"));
+    assertEquals("p", grandChild.lookupPrefix("urn:p"));
+    assertEquals("p", grandChild.lookupPrefix("urn:q"));
+    assertEquals("p", root.lookupPrefix("urn:q"));
+    assertNull(otherRoot.lookupNamespaceURI("p"));
+  }
+
+  @Test
+  void test_lookup_in_deep_tree() {
+    SmaxElement root = new SmaxElement("r").setNamespacePrefixMappings(new NamespacePrefixMapping[] {
+      new NamespacePrefixMapping("p", "urn:p")});
+    SmaxElement element = root;
+    for (int i = 0; i < 5000; ++i) {
+      SmaxElement child = new SmaxElement("e");
+      element.appendChild(child);
+      element = child;
+    }
+    assertEquals("urn:p", element.lookupNamespaceURI("p"));
+    assertEquals("p", element.lookupPrefix("urn:p"));
+  }
+
+}
@@ -0,0 +1,92 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.greenmercury.smax.SmaxElement;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Node;
+
+public class SmaxElementNavigationTest {
+
+  private static SmaxElement wideElement(int nrChildren) {
+    SmaxElement parent = new SmaxElement("body");
+    for (int i = 0; i < nrChildren; ++i) {
+      parent.appendChild(new SmaxElement("w" + i));
+    }
+    return parent;
+  }
+
+  /**
+   * Check the index and siblings of all children, walking forward and backward.
+   */
+  private static void assertConsistent(SmaxElement parent) {
+    List<SmaxElement> children = parent.getChildren();
+    List<Node> forward = new ArrayList<>();
+    for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+      forward.add(node);
+    }
+    assertEquals(children, forward);
+    List<Node> backward = new ArrayList<>();
+    for (Node node = parent.getLastChild(); node != null; node = node.getPreviousSibling()) {
+      backward.add(0, node);
+    }
+    assertEquals(children, backward);
+    for (int i = 0; i < children.size(); ++i) {
+      assertEquals(i, children.get(i).getIndexInParent());
+    }
+  }
+
+  @Test
+  void test_siblings_append() {
+    SmaxElement parent = wideElement(1000);
+    assertConsistent(parent);
+    assertNull(new SmaxElement("leaf").getFirstChild());
+    assertEquals(-1, parent.getIndexInParent());
+  }
+
+  @Test
+  void test_siblings_insert_and_remove() {
+    SmaxElement parent = wideElement(20);
+    parent.insertChild(0, new SmaxElement("first"));
+    parent.insertChild(10, new SmaxElement("middle"));
+    assertConsistent(parent);
+    List<SmaxElement> removed = parent.removeChildren(3, 7);
+    assertConsistent(parent);
+    assertEquals(-1, removed.get(0).getIndexInParent());
+    assertNull(removed.get(0).getNextSibling());
+    SmaxElement adopting = new SmaxElement("adopting");
+    parent.insertAdoptingChild(adopting, 2, 5);
+    assertConsistent(parent);
+    assertConsistent(adopting);
+    assertEquals(3, adopting.getChildren().size());
+    assertSame(adopting, parent.getChildren().get(2));
+  }
+
+  @Test
+  void test_siblings_dom_mutation() {
+    SmaxElement parent = wideElement(5);
+    SmaxElement w2 = parent.getChildren().get(2);
+    SmaxElement replacement = new SmaxElement("r");
+    assertSame(w2, parent.replaceChild(replacement, w2));
+    assertEquals(5, parent.getChildren().size());
+    assertSame(replacement, parent.getChildren().get(2));
+    assertNull(w2.getParentNode());
+    assertConsistent(parent);
+    parent.removeChild(parent.getChildren().get(0));
+    assertEquals(4, parent.getChildren().size());
+    assertConsistent(parent);
+    SmaxElement before = new SmaxElement("b");
+    parent.insertBefore(before, replacement);
+    assertSame(before, replacement.getPreviousSibling());
+    assertConsistent(parent);
+    // Changes through the list returned by getChildren are also handled.
+    parent.getChildren().remove(0);
+    assertConsistent(parent);
+  }
+
+}
@@ -0,0 +1,61 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.SmaxName;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class SmaxNameTest {
+
+  @Test
+  void test_names_are_interned() {
+    SmaxName name = SmaxName.of("urn:a", "b", new String("p:b"));
+    assertSame(name, SmaxName.of("urn:a", new String("b"), "p:b"));
+    assertSame(name, SmaxName.of("urn:a", "p:b"));
+    assertEquals("p", name.getPrefix());
+    assertNotSame(name, SmaxName.of("urn:a", "q:b"));
+    assertNotSame(SmaxName.of(null, "b", "b"), SmaxName.of("", "b", "b"));
+    assertNull(SmaxName.of(null, "b", "b").getNamespaceUri());
+  }
+
+  @Test
+  void test_expanded_names() {
+    assertTrue(SmaxName.of("urn:a", "p:b").hasSameExpandedName(SmaxName.of("urn:a", "q:b")));
+    assertTrue(SmaxName.of("urn:a", "b").hasSameExpandedName(SmaxName.of("urn:a", "q:b")));
+    assertTrue(SmaxName.of(null, "b").hasSameExpandedName(SmaxName.of("", "b")));
+    assertFalse(SmaxName.of("urn:a", "b").hasSameExpandedName(SmaxName.of("urn:c", "b")));
+    assertFalse(SmaxName.of("urn:a", "b").hasSameExpandedName(SmaxName.of("urn:a", "c")));
+    SmaxName expanded = SmaxName.of("urn:a", "b");
+    assertSame(expanded, expanded.getExpandedName());
+    assertSame(expanded, SmaxName.of("urn:a", "p:b").getExpandedName());
+  }
+
+  @Test
+  void test_elements_share_names() throws Exception {
+    SmaxDocument document = XmlString.toSmax("<doc xmlns:p='urn:a' xmlns:q='urn:a'><p:b x='1'/><q:b x='2'/><b/></doc>");
+    List<SmaxElement> children = document.getMarkup().getChildren();
+    assertSame(children.get(0).getName().getExpandedName(), children.get(1).getName().getExpandedName());
+    assertSame(children.get(0).getAttributes().getQName(0), children.get(1).getAttributes().getQName(0));
+    SmaxElement pattern = new SmaxElement("urn:a", "b");
+    List<SmaxElement> matching = new ArrayList<>();
+    document.matchingNodes(pattern).forEach(matching::add);
+    assertEquals(2, matching.size());
+    SmaxElement element = children.get(0);
+    element.setPrefix("r");
+    assertEquals("r", element.getNamespacePrefix());
+    assertEquals("p:b", element.getQualifiedName());
+    assertTrue(element.matches(pattern));
+  }
+
+}
@@ -0,0 +1,94 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.SmaxException;
+import org.greenmercury.smax.SmaxQuery;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class SmaxQueryTest {
+
+  // Content: "aaa bbb ccc ddd eee" with terms at 0-3, 4-7, 8-11, 12-15, 16-19.
+  private static final String XML =
+      "<doc xmlns:p='urn:p'>" +
+        "<section type='x'><term n='1'>aaa</term> <term n='2'>bbb</term></section> " +
+        "<section type='y'><term n='3'>ccc</term> <p:term n='4'>ddd</p:term></section> " +
+        "<section type='x'><sub><term n='5'>eee</term></sub></section>" +
+      "</doc>";
+
+  private static List<String> select(String query, SmaxDocument document, Object... variables) throws SmaxException {
+    Map<String, String> namespaces = new HashMap<>();
+    namespaces.put("q", "urn:p");
+    Map<String, Integer> values = new HashMap<>();
+    for (int i = 0; i < variables.length; i += 2) {
+      values.put((String)variables[i], (Integer)variables[i + 1]);
+    }
+    List<String> result = new ArrayList<>();
+    for (SmaxElement element : SmaxQuery.compile(query, namespaces).select(document, values)) {
+      result.add(element.getLocalName() + (element.getAttribute("n") != null ? element.getAttribute("n") : ""));
+    }
+    return result;
+  }
+
+  @Test
+  void test_paths_and_names() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    assertEquals(Arrays.asList("term1", "term2", "term3", "term5"), select("//term", document));
+    assertEquals(Arrays.asList("term1", "term2", "term3", "term4", "term5"), select("//section//*[@n]", document));
+    assertEquals(Arrays.asList("term4"), select("//q:term", document));
+    assertEquals(Arrays.asList("term4"), select("/doc/section/q:*", document));
+    assertEquals(Arrays.asList("term1", "term2", "term3"), select("section/term", document));
+    assertEquals(Arrays.asList("doc"), select("/doc", document));
+    assertEquals(Arrays.asList("doc"), select(".", document));
+    assertEquals(Arrays.asList("sub"), select("./section/sub", document));
+    assertEquals(Collections.emptyList(), select("/section", document));
+  }
+
+  @Test
+  void test_predicates() throws Exception {
+    SmaxDocument document = XmlString.toSmax(XML);
+    assertEquals(Arrays.asList("term1", "term2", "term5"), select("//section[@type='x']//term", document));
+    assertEquals(Arrays.asList("term3"), select("//section[@type != \"x\"]/term", document));
+    assertEquals(Arrays.asList("term1", "term2", "term3", "term5"), select("//section//*[@n != '4']", document));
+    assertEquals(Collections.emptyList(), select("//sub[@n != '1']", document));
+    assertEquals(Arrays.asList("sub"), select("//sub[not(@n != '1')]", document));
+    assertEquals(Arrays.asList("section", "section"), select("//section[.//term[@n='5'] or q:term]", document));
+    assertEquals(Arrays.asList("term2", "term3"), select("//term[overlaps($s, $e)]", document, "s", 6, "e", 9));
+    assertEquals(Arrays.asList("term1", "term2", "term5"), select("//section[@type='x']//term[not(overlaps(8, 16))]", document));
+    assertEquals(Arrays.asList("term3"), select("//term[within(8, 15) and not(@n = '4')]", document));
+    assertEquals(Arrays.asList("doc", "section", "term3"), select("//*[covers(9, 10)]", document));
+    assertEquals(Arrays.asList("term3"), select("//term[covers($p)]", document, "p", 10));
+    assertEquals(Collections.emptyList(), select("//term[covers(3)]", document));
+  }
+
+  @Test
+  void test_compile_once_use_on_many_documents() throws Exception {
+    SmaxQuery query = SmaxQuery.compile("//section[@type='x']/term[overlaps($s, $e)]");
+    SmaxDocument first = XmlString.toSmax(XML);
+    SmaxDocument second = XmlString.toSmax("<doc><section type='x'>x<term>y</term></section></doc>");
+    Map<String, Integer> range = new HashMap<>();
+    range.put("s", 0);
+    range.put("e", 5);
+    assertEquals(2, query.select(first, range).size());
+    assertEquals(1, query.select(second, range).size());
+    SmaxElement section = first.getMarkup().getChildren().get(2);
+    assertEquals(1, SmaxQuery.compile(".//term").select(first, section, range).size());
+    assertThrows(IllegalArgumentException.class, () -> query.select(first));
+    assertThrows(SmaxException.class, () -> SmaxQuery.compile("//term["));
+    assertThrows(SmaxException.class, () -> SmaxQuery.compile("//x:term"));
+    assertThrows(SmaxException.class, () -> SmaxQuery.compile("//term[length(1)]"));
+    assertThrows(SmaxException.class, () -> SmaxQuery.compile("../term"));
+  }
+
+}
@@ -0,0 +1,84 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.convert.Dom;
+import org.greenmercury.smax.convert.StAX;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+
+public class StAXTest {
+
+  private static final String NAMESPACED_XML =
+      "<doc xmlns='urn:d' xmlns:p='urn:p' xml:lang='en'>" +
+        "<p:a p:x='1' y='2'>one</p:a>" +
+        "<b xmlns:q='urn:q' q:z='3'>two<c xmlns=''>three</c></b>" +
+        "<p:a xmlns:p='urn:p2'>four</p:a>" +
+      "</doc>";
+
+  private static final String ENTITY_XML =
+      "<!DOCTYPE doc [<!ENTITY e 'replaced'>]>" +
+      "<doc>a&amp;b &#x41;&#66; <x>&e;</x> &lt;c&gt;</doc>";
+
+  /**
+   * Describe a SMAX document, including everything that the converters should agree on.
+   */
+  private static String describe(SmaxDocument document) {
+    StringBuilder description = new StringBuilder(document.getContent().toString());
+    describe(document.getMarkup(), description);
+    return description.toString();
+  }
+
+  private static void describe(SmaxElement element, StringBuilder description) {
+    description.append("\n{").append(element.getNamespaceUri()).append('}').append(element.getQualifiedName())
+               .append(' ').append(element.getStartPos()).append('-').append(element.getEndPos());
+    if (element.hasAttributes()) {
+      for (int i = 0; i < element.getAttributes().getLength(); ++i) {
+        description.append(" {").append(element.getAttributes().getURI(i)).append('}')
+                   .append(element.getAttributes().getQName(i)).append('=').append(element.getAttributes().getValue(i));
+      }
+    }
+    if (element.getNamespacePrefixMappings() != null) {
+      Arrays.stream(element.getNamespacePrefixMappings()).map(m -> m.prefix + "=" + m.uri).sorted()
+            .forEach(m -> description.append(" xmlns:").append(m));
+    }
+    for (SmaxElement child : element.getChildren()) {
+      describe(child, description);
+    }
+  }
+
+  private static SmaxDocument fromDom(String xml) throws Exception {
+    return Dom.toSmax(XmlString.toDomElement(xml));
+  }
+
+  @Test
+  void test_namespaces_like_dom() throws Exception {
+    assertEquals(describe(fromDom(NAMESPACED_XML)), describe(StAX.toSmax(new StringReader(NAMESPACED_XML))));
+  }
+
+  @Test
+  void test_entity_references_like_dom() throws Exception {
+    String expected = describe(fromDom(ENTITY_XML));
+    assertEquals("a&b AB replaced <c>", expected.substring(0, expected.indexOf('\n')));
+    assertEquals(expected, describe(StAX.toSmax(new StringReader(ENTITY_XML))));
+  }
+
+  @Test
+  void test_entity_reference_events() throws Exception {
+    // A reader that does not replace entity references reports them as separate events.
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(ENTITY_XML));
+    assertEquals(describe(fromDom(ENTITY_XML)), describe(StAX.toSmax(reader)));
+  }
+
+}
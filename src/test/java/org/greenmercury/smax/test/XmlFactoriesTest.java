@@ -0,0 +1,119 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParser;
+import javax.xml.transform.Transformer;
+
+import org.greenmercury.smax.convert.XmlFactories;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class XmlFactoriesTest {
+
+  @Test
+  void test_document_builder_is_cached_per_thread() throws Exception {
+    DocumentBuilder builder = XmlFactories.documentBuilder();
+    XmlFactories.release(builder);
+    assertSame(builder, XmlFactories.documentBuilder());
+    XmlFactories.release(builder);
+    AtomicReference<DocumentBuilder> other = new AtomicReference<>();
+    Thread thread = new Thread(() -> {
+      try {
+        other.set(XmlFactories.documentBuilder());
+      } catch (Exception e) {}
+    });
+    thread.start();
+    thread.join();
+    assertNotSame(builder, other.get());
+    Transformer transformer = XmlFactories.transformer();
+    XmlFactories.release(transformer);
+    assertSame(transformer, XmlFactories.transformer());
+    XmlFactories.release(transformer);
+    assertSame(XmlFactories.xmlInputFactory(), XmlFactories.xmlInputFactory());
+    assertSame(XmlFactories.domImplementation(), XmlFactories.domImplementation());
+  }
+
+  @Test
+  void test_supplier_replaces_cached_builders() throws Exception {
+    DocumentBuilder builder = XmlFactories.documentBuilder();
+    XmlFactories.setDocumentBuilderFactorySupplier(DocumentBuilderFactory::newInstance);
+    XmlFactories.release(builder);
+    DocumentBuilder newBuilder = XmlFactories.documentBuilder();
+    assertNotSame(builder, newBuilder);
+    XmlFactories.release(newBuilder);
+    assertSame(newBuilder, XmlFactories.documentBuilder());
+    XmlFactories.release(newBuilder);
+    assertEquals(true, newBuilder.isNamespaceAware());
+  }
+
+  @Test
+  void test_reuse_after_error() throws Exception {
+    assertThrows(SAXException.class, () -> XmlString.toDomElement("<a><b></a>"));
+    Element element = XmlString.toDomElement("<a xmlns='urn:a'>x</a>");
+    assertEquals("urn:a", element.getNamespaceURI());
+    assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><a xmlns=\"urn:a\">x</a>", XmlString.fromDomElement(element));
+  }
+
+  @Test
+  void test_instances_in_use_are_not_handed_out() throws Exception {
+    DocumentBuilder builder = XmlFactories.documentBuilder();
+    DocumentBuilder nested = XmlFactories.documentBuilder();
+    assertNotSame(builder, nested);
+    XmlFactories.release(nested);
+    XmlFactories.release(builder);
+    assertSame(nested, XmlFactories.documentBuilder());
+    XmlFactories.release(nested);
+  }
+
+  @Test
+  void test_caching_goes_on_after_missing_release() throws Exception {
+    SAXParser lost = XmlFactories.saxParser();
+    SAXParser parser = XmlFactories.saxParser();
+    assertNotSame(lost, parser);
+    XmlFactories.release(parser);
+    assertSame(parser, XmlFactories.saxParser());
+    XmlFactories.release(parser);
+    XmlFactories.release(lost);
+    assertSame(parser, XmlFactories.saxParser());
+    XmlFactories.release(parser);
+  }
+
+  @Test
+  void test_parse_inside_parse() throws Exception {
+    StringBuilder events = new StringBuilder();
+    XmlString.toSax("<a><b/><c/></a>", new DefaultHandler() {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        events.append(localName);
+        if (localName.equals("b")) {
+          try {
+            events.append('[').append(XmlString.toDomElement("<x/>").getLocalName());
+            XmlString.toSax("<y/>", new DefaultHandler() {
+              @Override
+              public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                events.append(localName);
+              }
+            });
+            events.append(']');
+          } catch (Exception e) {
+            throw new SAXException(e);
+          }
+        }
+      }
+    });
+    assertEquals("ab[xy]c", events.toString());
+  }
+
+}
@@ -0,0 +1,71 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.BufferedWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.convert.XmlFile;
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class XmlFileTest {
+
+  @Test
+  void test_same_as_xml_string(@TempDir Path directory) throws Exception {
+    String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><doc xmlns:p='urn:p'>a<p:b x='&amp;'>é😀</p:b><c/>tail</doc>";
+    Path file = directory.resolve("doc.xml");
+    Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+    SmaxDocument expected = XmlString.toSmax(xml);
+    SmaxDocument document = XmlFile.toSmax(file);
+    assertEquals(expected.getContent().toString(), document.getContent().toString());
+    assertEquals(XmlString.fromSmax(expected), XmlString.fromSmax(document));
+  }
+
+  @Test
+  void test_byte_order_mark(@TempDir Path directory) throws Exception {
+    Path file = directory.resolve("bom.xml");
+    Files.write(file, "\uFEFF<doc>text</doc>".getBytes(StandardCharsets.UTF_8));
+    assertEquals("text", XmlFile.toSmax(file).getContent().toString());
+  }
+
+  @Test
+  void test_characters_across_windows(@TempDir Path directory) throws Exception {
+    // More than one mapped window of 16 MiB, with 3-byte characters that do not line up with the window boundary.
+    int nrElements = 6000;
+    int elementLength = 1000;
+    Path file = directory.resolve("large.xml");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < elementLength; ++i) text.append('€');
+    try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+      writer.write("<doc>");
+      for (int i = 0; i < nrElements; ++i) {
+        writer.write("<e>");
+        writer.write(text.toString());
+        writer.write("</e>");
+      }
+      writer.write("</doc>");
+    }
+    SmaxDocument document = XmlFile.toSmax(file);
+    assertEquals(nrElements, document.getMarkup().getChildren().size());
+    assertEquals(nrElements * elementLength, document.getContent().length());
+    CharSequence content = document.getContent();
+    for (int i = 0; i < content.length(); ++i) {
+      if (content.charAt(i) != '€') assertEquals('€', content.charAt(i), "at "+i);
+    }
+  }
+
+  @Test
+  void test_malformed_utf8(@TempDir Path directory) throws Exception {
+    Path file = directory.resolve("bad.xml");
+    Files.write(file, new byte[] {'<', 'a', '>', (byte)0xC3, '(', '<', '/', 'a', '>'});
+    assertThrows(Exception.class, () -> XmlFile.toSmax(file));
+  }
+
+}
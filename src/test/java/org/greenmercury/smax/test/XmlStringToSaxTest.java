@@ -0,0 +1,79 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.greenmercury.smax.convert.XmlString;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class XmlStringToSaxTest {
+
+  private static final String XML = "<doc xmlns:p='urn:p'><p:a x='1'>text</p:a><b>é</b></doc>";
+
+  private static final String EVENTS = "<doc><urn:p|a x=1>text</a><b>é</b></doc>";
+
+  /**
+   * Records the SAX events in a string.
+   */
+  private static class RecordingHandler extends DefaultHandler {
+    final StringBuilder events = new StringBuilder();
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      events.append('<').append(uri.isEmpty() ? "" : uri + "|").append(localName);
+      for (int i = 0; i < attributes.getLength(); ++i) {
+        events.append(' ').append(attributes.getQName(i)).append('=').append(attributes.getValue(i));
+      }
+      events.append('>');
+    }
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      events.append("</").append(localName).append('>');
+    }
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      events.append(ch, start, length);
+    }
+  }
+
+  @Test
+  void test_string() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    XmlString.toSax(XML, handler);
+    assertEquals(EVENTS, handler.events.toString());
+  }
+
+  @Test
+  void test_reader_and_input_stream() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    XmlString.toSax(new StringReader(XML), handler);
+    assertEquals(EVENTS, handler.events.toString());
+    handler = new RecordingHandler();
+    XmlString.toSax(new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)), handler);
+    assertEquals(EVENTS, handler.events.toString());
+  }
+
+  @Test
+  void test_path(@TempDir Path directory) throws Exception {
+    Path file = directory.resolve("doc.xml");
+    Files.write(file, XML.getBytes(StandardCharsets.UTF_8));
+    RecordingHandler handler = new RecordingHandler();
+    XmlString.toSax(file, handler);
+    assertEquals(EVENTS, handler.events.toString());
+  }
+
+  @Test
+  void test_error_is_reported() {
+    assertThrows(SAXException.class, () -> XmlString.toSax("<a><b></a>", new DefaultHandler()));
+  }
+
+}
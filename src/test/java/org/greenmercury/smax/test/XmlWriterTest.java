@@ -0,0 +1,86 @@
+package org.greenmercury.smax.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.greenmercury.smax.SmaxDocument;
+import org.greenmercury.smax.SmaxElement;
+import org.greenmercury.smax.convert.Dom;
+import org.greenmercury.smax.convert.XmlString;
+import org.greenmercury.smax.convert.XmlWriter;
+import org.junit.jupiter.api.Test;
+
+public class XmlWriterTest {
+
+  private static String write(SmaxDocument document) throws Exception {
+    StringWriter writer = new StringWriter();
+    XmlWriter.fromSmax(document, writer);
+    return writer.toString();
+  }
+
+  private static void assertSameAsDom(String xml) throws Exception {
+    SmaxDocument document = XmlString.toSmax(xml);
+    assertEquals(XmlString.fromDomElement(Dom.fromSmax(document)), write(document), xml);
+  }
+
+  @Test
+  void test_same_as_dom() throws Exception {
+    assertSameAsDom("<doc>a<b x=\"1\" a=\"&amp;&lt;&gt;&quot;\">t&amp;&lt;&gt;</b><c/>tail</doc>");
+    assertSameAsDom("<r xmlns=\"urn:a\" xmlns:p=\"urn:p\"><p:x p:y=\"1\" z=\"2\">t</p:x><y/></r>");
+    assertSameAsDom("<p:r xmlns:p=\"urn:p\"><q:s xmlns:q=\"urn:q\" q:a=\"v\"/><p:t/></p:r>");
+    assertSameAsDom("<r xml:lang=\"en\">é😀\u0085&#13; x<e a=\"&#9;&#10;&#13;😀\u0085\"/></r>");
+  }
+
+  @Test
+  void test_random_documents_same_as_dom() throws Exception {
+    Random random = new Random(11);
+    for (int n = 0; n < 50; ++n) {
+      StringBuilder xml = new StringBuilder("<doc>");
+      randomContent(random, xml, 0);
+      assertSameAsDom(xml.append("</doc>").toString());
+    }
+  }
+
+  private static void randomContent(Random random, StringBuilder xml, int depth) {
+    for (int i = random.nextInt(5); i > 0; --i) {
+      switch (random.nextInt(3)) {
+      case 0:
+        xml.append("text ");
+        break;
+      case 1:
+        xml.append("&lt;&amp;&gt; ");
+        break;
+      default:
+        if (depth < 6) {
+          String name = "e" + random.nextInt(3);
+          xml.append('<').append(name).append(" k=\"").append(random.nextInt(100)).append("\">");
+          randomContent(random, xml, depth + 1);
+          xml.append("</").append(name).append('>');
+        }
+      }
+    }
+  }
+
+  @Test
+  void test_no_namespace_inside_default_namespace() throws Exception {
+    SmaxElement root = new SmaxElement("urn:a", "r").setStartPos(0).setEndPos(2);
+    root.appendChild(new SmaxElement("s").setStartPos(1).setEndPos(2));
+    SmaxDocument document = new SmaxDocument(root, "ab");
+    assertEquals(XmlWriter.XML_DECLARATION + "<r xmlns=\"urn:a\">a<s xmlns=\"\">b</s></r>", write(document));
+    assertEquals("urn:a", XmlString.toSmax(write(document)).getMarkup().getNamespaceUri());
+    assertEquals("", XmlString.toSmax(write(document)).getMarkup().getChildren().get(0).getNamespaceUri());
+  }
+
+  @Test
+  void test_output_stream_is_utf8() throws Exception {
+    SmaxDocument document = XmlString.toSmax("<r>é€</r>");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    XmlWriter.fromSmax(document, bytes, false);
+    assertEquals("<r>é€</r>", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+}